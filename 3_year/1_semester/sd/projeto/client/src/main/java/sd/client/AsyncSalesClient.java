@@ -0,0 +1,182 @@
+package sd.client;
+
+import sd.common.Tag;
+import sd.middleware.Demultiplexer;
+import sd.middleware.FrameReader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Non-blocking view of a {@link SalesClient}, sharing its connection and its correlation ids.
+ *
+ * Every method sends its request and returns at once with a future, completed by the
+ * demultiplexer's reader thread when the reply with the request's id arrives. Replies can
+ * therefore come back in any order, and a single thread can keep many requests in flight.
+ *
+ * The number of requests awaiting a reply is bounded: once the limit is reached, the next call
+ * blocks until a reply frees a slot, which keeps a fast producer from flooding the server.
+ * Dependent stages attached with the non-async {@code then*} methods run on the reader thread
+ * and must not block; use the {@code *Async} variants for slow work.
+ */
+public class AsyncSalesClient {
+    private final SalesClient client;
+    private final Demultiplexer dm;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+
+    AsyncSalesClient(SalesClient client, Demultiplexer dm, int maxInFlight) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("Limite de pedidos inválido");
+        this.client = client;
+        this.dm = dm;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Returns the number of requests sent through this view that are still awaiting a reply.
+     *
+     * @return the requests in flight
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Sends a sales event without waiting for the acknowledgement.
+     *
+     * @param product the product name
+     * @param qty the quantity sold
+     * @param price the unit price
+     * @return a future completed when the server acknowledges the event
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public CompletableFuture<Void> addEvent(String product, int qty, double price) throws InterruptedException {
+        return request(Tag.ADD_EVENT, dos -> {
+            dos.writeUTF(product);
+            dos.writeInt(qty);
+            dos.writeDouble(price);
+        }).thenApply(response -> decode(() -> {
+            SalesClient.checkStatus(response);
+            return null;
+        }));
+    }
+
+    /**
+     * Requests the total quantity of a product sold over the last days.
+     *
+     * @param product the product name
+     * @param days the number of days
+     * @return a future for the quantity
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public CompletableFuture<Double> getQuantity(String product, int days) throws InterruptedException {
+        return getAggregation(Tag.AG_QUANTITY, product, days);
+    }
+
+    /**
+     * Requests the total sales volume of a product over the last days.
+     *
+     * @param product the product name
+     * @param days the number of days
+     * @return a future for the volume
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public CompletableFuture<Double> getVolume(String product, int days) throws InterruptedException {
+        return getAggregation(Tag.AG_VOLUME, product, days);
+    }
+
+    /**
+     * Requests the average price of a product over the last days.
+     *
+     * @param product the product name
+     * @param days the number of days
+     * @return a future for the average
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public CompletableFuture<Double> getAverage(String product, int days) throws InterruptedException {
+        return getAggregation(Tag.AG_AVG, product, days);
+    }
+
+    /**
+     * Requests the maximum price of a product over the last days.
+     *
+     * @param product the product name
+     * @param days the number of days
+     * @return a future for the maximum
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public CompletableFuture<Double> getMax(String product, int days) throws InterruptedException {
+        return getAggregation(Tag.AG_MAX, product, days);
+    }
+
+    /**
+     * Requests the events of one past day that match the given products.
+     *
+     * @param daysBack how many days back from the current day
+     * @param products the products to include
+     * @return a future for the formatted events
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public CompletableFuture<List<String>> filterEvents(int daysBack, Set<String> products) throws InterruptedException {
+        return request(Tag.FILTER_EVENTS, dos -> {
+            dos.writeInt(daysBack);
+            dos.writeInt(products.size());
+            for (String product : products) {
+                dos.writeUTF(product);
+            }
+        }).thenApply(response -> decode(() ->
+                SalesClient.decodeEvents(new FrameReader(response))));
+    }
+
+    private CompletableFuture<Double> getAggregation(int tag, String product, int days) throws InterruptedException {
+        return request(tag, dos -> {
+            dos.writeUTF(product);
+            dos.writeInt(days);
+        }).thenApply(response -> decode(() ->
+                new FrameReader(response).readDouble()));
+    }
+
+    /**
+     * Takes a slot, registers the reply future and sends the request. The slot is given back
+     * when the future completes, normally or not.
+     */
+    private CompletableFuture<byte[]> request(int tag, SalesClient.IOContextWriter writer) throws InterruptedException {
+        inFlight.acquire();
+
+        int id = client.nextRequestId();
+        CompletableFuture<byte[]> reply;
+        try {
+            byte[] data = SalesClient.serialize(writer);
+            reply = dm.receiveAsync(tag, id);
+            try {
+                dm.send(tag, id, data);
+            } catch (IOException e) {
+                dm.cancelAsync(tag, id);
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            inFlight.release();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // Callers see the reply only once its slot is free again
+        return reply.whenComplete((response, error) -> inFlight.release());
+    }
+
+    private interface Decoder<T> {
+        T decode() throws IOException;
+    }
+
+    private static <T> T decode(Decoder<T> decoder) {
+        try {
+            return decoder.decode();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
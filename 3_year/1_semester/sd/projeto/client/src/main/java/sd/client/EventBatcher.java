@@ -0,0 +1,199 @@
+package sd.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Groups sales events on the client and sends them as ADD_EVENT_BATCH requests.
+ *
+ * Events are buffered already encoded: product names go to a dictionary sent once per batch and
+ * every event is written as a short product id, its quantity and its price. A batch is sent when it
+ * reaches {@code maxEvents} events, when its oldest event has waited {@code maxDelayMillis}, or on
+ * {@link #flush()} and {@link #close()}. Each batch is acknowledged once, with the number of events
+ * the server recorded.
+ *
+ * The batcher is thread-safe. A failure of a timed flush, which has no caller to report to, is kept
+ * and thrown by the next {@link #add}, {@link #flush()} or {@link #close()}.
+ */
+public class EventBatcher implements AutoCloseable {
+    /**
+     * Largest dictionary a batch may carry, since product ids travel as shorts.
+     */
+    private static final int MAX_PRODUCTS = Short.MAX_VALUE;
+
+    private final SalesClient client;
+    private final int maxEvents;
+    private final long maxDelayMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ScheduledExecutorService timer;
+
+    // Batch being filled
+    private final Map<String, Integer> productIds = new LinkedHashMap<>();
+    private ByteArrayOutputStream eventBytes = new ByteArrayOutputStream();
+    private DataOutputStream events = new DataOutputStream(eventBytes);
+    private int eventCount = 0;
+    private ScheduledFuture<?> pendingFlush;
+
+    private IOException failure;
+    private boolean closed = false;
+
+    EventBatcher(SalesClient client, int maxEvents, long maxDelayMillis) {
+        if (maxEvents <= 0 || maxDelayMillis <= 0) {
+            throw new IllegalArgumentException("Limites do lote inválidos");
+        }
+        this.client = client;
+        this.maxEvents = maxEvents;
+        this.maxDelayMillis = maxDelayMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "event-batcher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Buffers a sales event, sending the batch if it becomes full.
+     *
+     * @param product the product name
+     * @param qty the quantity sold
+     * @param price the unit price
+     * @throws IOException if this or an earlier batch could not be sent
+     * @throws InterruptedException if interrupted while waiting for an acknowledgement
+     */
+    public void add(String product, int qty, double price) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            checkOpen();
+            if (!productIds.containsKey(product) && productIds.size() == MAX_PRODUCTS) {
+                send();
+            }
+
+            Integer id = productIds.get(product);
+            if (id == null) {
+                id = productIds.size();
+                productIds.put(product, id);
+            }
+            events.writeShort(id);
+            events.writeInt(qty);
+            events.writeDouble(price);
+            eventCount++;
+
+            if (eventCount >= maxEvents) {
+                send();
+            } else if (pendingFlush == null) {
+                pendingFlush = timer.schedule(this::timedFlush, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the buffered events now, if there are any.
+     *
+     * @throws IOException if this or an earlier batch could not be sent
+     * @throws InterruptedException if interrupted while waiting for the acknowledgement
+     */
+    public void flush() throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            checkOpen();
+            send();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the remaining events and stops the flush timer. The client itself stays open.
+     *
+     * @throws IOException if the last batch, or an earlier timed one, could not be sent
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            timer.shutdownNow();
+            rethrowFailure();
+            send();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrompido ao enviar o último lote");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void timedFlush() {
+        lock.lock();
+        try {
+            pendingFlush = null;
+            if (closed || failure != null) return;
+            send();
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // Only the shutdown of the timer interrupts it; close() sends what is left
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("Lote de eventos já fechado");
+        rethrowFailure();
+    }
+
+    private void rethrowFailure() throws IOException {
+        if (failure != null) {
+            IOException e = failure;
+            failure = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes and sends the current batch, then starts an empty one. Called with the lock held.
+     */
+    private void send() throws IOException, InterruptedException {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        if (eventCount == 0) return;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(eventBytes.size() + productIds.size() * 16 + 8);
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeInt(productIds.size());
+            for (String product : productIds.keySet()) {
+                dos.writeUTF(product);
+            }
+            dos.writeInt(eventCount);
+            events.flush();
+            eventBytes.writeTo(dos);
+        }
+
+        int sent = eventCount;
+        productIds.clear();
+        eventBytes = new ByteArrayOutputStream();
+        events = new DataOutputStream(eventBytes);
+        eventCount = 0;
+
+        int recorded = client.sendEventBatch(baos.toByteArray());
+        if (recorded != sent) {
+            throw new IOException("Lote incompleto: " + recorded + " de " + sent + " eventos registados");
+        }
+    }
+}
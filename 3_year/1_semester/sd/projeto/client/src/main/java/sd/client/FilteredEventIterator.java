@@ -0,0 +1,161 @@
+package sd.client;
+
+import sd.common.Tag;
+import sd.middleware.Demultiplexer;
+import sd.middleware.FrameReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Client side of a chunked FILTER_EVENTS_STREAM reply, exposed as an iterator of formatted events.
+ *
+ * The server sends the product dictionary, then batches of events, then an empty end frame. Only one
+ * batch is decoded at a time, and every batch taken grants the server one more, so at most
+ * {@link #WINDOW} batches are ever buffered however many events the day holds.
+ *
+ * I/O failures surface as {@link UncheckedIOException}. Closing the iterator before the end cancels
+ * the stream and discards the batches already on their way.
+ */
+public class FilteredEventIterator implements Iterator<String>, AutoCloseable {
+    /**
+     * Number of batches the server may send ahead of the ones already consumed.
+     */
+    static final int WINDOW = 4;
+
+    private final Demultiplexer dm;
+    private final int id;
+    private final String[] productDict;
+    private final int totalEvents;
+
+    // Reused for every frame of the stream
+    private final FrameReader batch = new FrameReader(new byte[0]);
+    private int remainingInBatch = 0;
+    private boolean ended = false;
+
+    /**
+     * Reads the dictionary frame of a stream that was already requested.
+     *
+     * @param dm the demultiplexer of the connection
+     * @param id the correlation id of the FILTER_EVENTS_STREAM request
+     * @throws IOException if the server rejected the request or the connection failed
+     * @throws InterruptedException if interrupted while waiting for the dictionary
+     */
+    FilteredEventIterator(Demultiplexer dm, int id) throws IOException, InterruptedException {
+        this.dm = dm;
+        this.id = id;
+
+        byte[] header = dm.receive(Tag.FILTER_EVENTS_STREAM, id);
+        if (header.length == 0) {
+            throw new IOException("Filtragem recusada pelo servidor");
+        }
+
+        batch.reset(header);
+        int numProducts = batch.readInt();
+        this.productDict = new String[numProducts];
+        for (int i = 0; i < numProducts; i++) {
+            productDict[i] = batch.readUTF();
+        }
+        this.totalEvents = batch.readInt();
+    }
+
+    /**
+     * Returns the total number of events the stream will deliver, known from the first frame.
+     *
+     * @return the event count
+     */
+    public int getTotalEvents() {
+        return totalEvents;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (remainingInBatch == 0 && !ended) {
+                nextBatch();
+            }
+            return remainingInBatch > 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        try {
+            remainingInBatch--;
+            short productId = batch.readShort();
+            int quantity = batch.readInt();
+            double price = batch.readDouble();
+            long epochSecond = batch.readLong();
+            int nano = batch.readInt();
+
+            if (productId < 0 || productId >= productDict.length) {
+                throw new IOException("Invalid product ID: " + productId);
+            }
+            return SalesClient.formatEvent(productDict[productId], quantity, price, epochSecond, nano);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Cancels the stream if it has not ended and waits for the server's end marker,
+     * so no frame of this stream is left behind in the demultiplexer.
+     *
+     * @throws IOException if the connection fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (ended) return;
+
+        dm.send(Tag.STREAM_CREDIT, id, encodeCredits(0));
+        while (!ended) {
+            receiveFrame();
+        }
+    }
+
+    /**
+     * Takes the next batch frame and grants the server the batch that replaces it.
+     */
+    private void nextBatch() throws IOException {
+        byte[] data = receiveFrame();
+        if (ended) return;
+
+        batch.reset(data);
+        remainingInBatch = batch.readInt();
+        dm.send(Tag.STREAM_CREDIT, id, encodeCredits(1));
+    }
+
+    /**
+     * Receives the next frame of the stream, marking the stream as ended on the empty end frame.
+     */
+    private byte[] receiveFrame() throws IOException {
+        try {
+            byte[] data = dm.receive(Tag.FILTER_EVENTS_STREAM, id);
+            if (data.length == 0) {
+                ended = true;
+                remainingInBatch = 0;
+            }
+            return data;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrompido durante a filtragem");
+        }
+    }
+
+    private static byte[] encodeCredits(int credits) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeInt(credits);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,114 @@
+package sd.client;
+
+import sd.common.Tag;
+import sd.middleware.Demultiplexer;
+import sd.middleware.FrameReader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.function.IntConsumer;
+
+/**
+ * Client side of a persistent subscription opened with SUBSCRIBE.
+ *
+ * The server pushes a NOTIFY frame, under the correlation id of the SUBSCRIBE request, every time
+ * the watched condition is met; each frame carries the number of matches so far. Frames are taken
+ * with {@link Demultiplexer#receiveAsync}, so no thread waits for them: the listener runs on the
+ * demultiplexer's reader thread and must not block.
+ *
+ * Closing the subscription sends UNSUBSCRIBE; the server sends no NOTIFY frame after its reply, so
+ * the listener is never called once {@link #close()} returns.
+ */
+public class NotificationSubscription implements AutoCloseable {
+    private final SalesClient client;
+    private final Demultiplexer dm;
+    private final int id;
+    private final IntConsumer listener;
+
+    private volatile int matches = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Starts listening to a subscription the server already acknowledged.
+     *
+     * @param client   the client that opened it, used to unsubscribe
+     * @param dm       the demultiplexer of the connection
+     * @param id       the correlation id of the SUBSCRIBE request
+     * @param listener receives the number of matches so far, each time the condition is met
+     */
+    NotificationSubscription(SalesClient client, Demultiplexer dm, int id, IntConsumer listener) {
+        this.client = client;
+        this.dm = dm;
+        this.id = id;
+        this.listener = listener;
+        listen();
+    }
+
+    /**
+     * Waits, without blocking, for the next NOTIFY frame. Called again after each one, from the
+     * reader thread, which cannot receive another frame in between.
+     */
+    private void listen() {
+        dm.receiveAsync(Tag.NOTIFY, id).whenComplete((data, error) -> {
+            if (error != null) {
+                // The connection failed
+                closed = true;
+                return;
+            }
+            if (closed) return;
+            try {
+                matches = new FrameReader(data).readInt();
+                listener.accept(matches);
+            } catch (IOException e) {
+                System.err.println("Notificação inválida: " + e.getMessage());
+            } finally {
+                listen();
+            }
+        });
+    }
+
+    /**
+     * Returns the correlation id of the SUBSCRIBE request, which identifies the subscription.
+     *
+     * @return the subscription id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns how many times the condition was met so far.
+     *
+     * @return the number of matches received
+     */
+    public int getMatches() {
+        return matches;
+    }
+
+    /**
+     * Checks whether the subscription was closed or its connection failed.
+     *
+     * @return true if no more notifications will arrive
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Ends the subscription and waits for the server to confirm it.
+     *
+     * @throws IOException if the request fails, or if interrupted while waiting for the reply
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            client.unsubscribe(id);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrompido ao cancelar a subscrição");
+        }
+        closed = true;
+        dm.cancelAsync(Tag.NOTIFY, id);
+    }
+}
@@ -1,14 +1,25 @@
 package sd.client;
 
+import sd.common.Status;
 import sd.common.Tag;
+import sd.common.WatchKind;
 import sd.middleware.*;
 import java.io.*;
 import java.net.Socket;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The SalesClient class provides methods to interact with a sales tracking server.
@@ -34,6 +45,13 @@ public class SalesClient {
      */
     private Demultiplexer dm;
 
+    /**
+     * Source of correlation ids for outgoing requests.
+     * Every request gets its own id, echoed by the server in the reply, so concurrent callers
+     * sharing this client never receive each other's answers, even for the same tag.
+     */
+    private final AtomicInteger nextId = new AtomicInteger();
+
     public void connect(String ip, int port) throws IOException {
         Socket socket = new Socket(ip, port);
         TaggedConnection conn = new TaggedConnection(socket);
@@ -65,7 +83,7 @@ public class SalesClient {
      * @return A byte array containing the serialized data produced by the writer.
      * @throws IOException If an I/O error occurs during the serialization process.
      */
-    private byte[] serialize(IOContextWriter writer) throws IOException {
+    static byte[] serialize(IOContextWriter writer) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try (DataOutputStream dos = new DataOutputStream(baos)) {
             writer.write(dos);
@@ -73,10 +91,38 @@ public class SalesClient {
         return baos.toByteArray();
     }
 
-    private interface IOContextWriter {
+    interface IOContextWriter {
         void write(DataOutputStream dos) throws IOException;
     }
 
+    /**
+     * Sends a request under a fresh correlation id and waits for its reply.
+     *
+     * @param tag the request tag
+     * @param data the serialized request payload
+     * @return the payload of the matching reply
+     * @throws IOException if an I/O error occurs during the exchange
+     * @throws InterruptedException if the thread is interrupted while waiting for the reply
+     */
+    private byte[] request(int tag, byte[] data) throws IOException, InterruptedException {
+        int id = nextRequestId();
+        dm.send(tag, id, data);
+        return dm.receive(tag, id);
+    }
+
+    /**
+     * Allocates the next correlation id, skipping 0, which marks uncorrelated frames.
+     *
+     * @return a non-zero correlation id
+     */
+    int nextRequestId() {
+        int id;
+        do {
+            id = nextId.incrementAndGet();
+        } while (id == 0);
+        return id;
+    }
+
     /**
      * Retrieves an aggregated value for a specified product over a given number of days.
      *
@@ -96,9 +142,8 @@ public class SalesClient {
             dos.writeUTF(product);
             dos.writeInt(days);
         });
-        dm.send(tag, data);
-        byte[] response = dm.receive(tag);
-        return new DataInputStream(new ByteArrayInputStream(response)).readDouble();
+        byte[] response = request(tag, data);
+        return new FrameReader(response).readDouble();
     }
 
     /**
@@ -116,9 +161,8 @@ public class SalesClient {
             dos.writeUTF(username);
             dos.writeUTF(password);
         });
-        dm.send(Tag.REGISTER, data);
-        byte[] response = dm.receive(Tag.REGISTER);
-        return new DataInputStream(new ByteArrayInputStream(response)).readBoolean();
+        byte[] response = request(Tag.REGISTER, data);
+        return new FrameReader(response).readBoolean();
     }
 
     /**
@@ -139,9 +183,8 @@ public class SalesClient {
             dos.writeUTF(username);
             dos.writeUTF(password);
         });
-        dm.send(Tag.LOGIN, data);
-        byte[] response = dm.receive(Tag.LOGIN);
-        return new DataInputStream(new ByteArrayInputStream(response)).readBoolean();
+        byte[] response = request(Tag.LOGIN, data);
+        return new FrameReader(response).readBoolean();
     }
 
     /**
@@ -162,8 +205,49 @@ public class SalesClient {
             dos.writeInt(qty);
             dos.writeDouble(price);
         });
-        dm.send(Tag.ADD_EVENT, data);
-        dm.receive(Tag.ADD_EVENT);
+        checkStatus(request(Tag.ADD_EVENT, data));
+    }
+
+    /**
+     * Creates an asynchronous view of this client that shares its connection.
+     * Its methods return futures instead of blocking, so one thread can keep many requests
+     * in flight; at most {@code maxInFlight} are outstanding at any time.
+     *
+     * @param maxInFlight the maximum number of requests awaiting a reply
+     * @return a new asynchronous client over the current connection
+     */
+    public AsyncSalesClient async(int maxInFlight) {
+        if (dm == null) throw new IllegalStateException("Cliente não ligado");
+        return new AsyncSalesClient(this, dm, maxInFlight);
+    }
+
+    /**
+     * Creates a batcher that groups sales events into ADD_EVENT_BATCH requests, so many events
+     * cost a single round trip and a single acknowledgement.
+     *
+     * @param maxEvents the number of buffered events that triggers a flush
+     * @param maxDelayMillis the longest time an event may stay buffered before it is sent
+     * @return a new batcher bound to this client; it must be closed to send the last events
+     */
+    public EventBatcher batcher(int maxEvents, long maxDelayMillis) {
+        return new EventBatcher(this, maxEvents, maxDelayMillis);
+    }
+
+    /**
+     * Sends an already encoded ADD_EVENT_BATCH request and waits for its acknowledgement.
+     *
+     * @param data the encoded batch
+     * @return the number of events the server recorded
+     * @throws IOException if the server rejected the batch or an I/O error occurs
+     * @throws InterruptedException if the thread is interrupted while waiting for the reply
+     */
+    int sendEventBatch(byte[] data) throws IOException, InterruptedException {
+        byte[] response = request(Tag.ADD_EVENT_BATCH, data);
+        int recorded = new FrameReader(response).readInt();
+        if (recorded < 0) {
+            throw new IOException("Lote de eventos recusado pelo servidor");
+        }
+        return recorded;
     }
 
     /**
@@ -237,9 +321,8 @@ public class SalesClient {
             dos.writeUTF(p1);
             dos.writeUTF(p2);
         });
-        dm.send(Tag.SIMUL_SALES, data);
-        byte[] response = dm.receive(Tag.SIMUL_SALES);
-        return new DataInputStream(new ByteArrayInputStream(response)).readBoolean();
+        byte[] response = request(Tag.SIMUL_SALES, data);
+        return new FrameReader(response).readBoolean();
     }
 
     /**
@@ -257,9 +340,115 @@ public class SalesClient {
             dos.writeUTF(product);
             dos.writeInt(n);
         });
-        dm.send(Tag.CONSEC_SALES, data);
-        byte[] response = dm.receive(Tag.CONSEC_SALES);
-        return new DataInputStream(new ByteArrayInputStream(response)).readUTF();
+        byte[] response = request(Tag.CONSEC_SALES, data);
+        return new FrameReader(response).readUTF();
+    }
+
+    /**
+     * Watches, on every day from now on, for both products to be sold.
+     * Unlike {@link #subscribeSimultaneous}, no thread waits for the answer: the server pushes a
+     * notification to the listener each time the condition is met.
+     *
+     * @param p1 the first product
+     * @param p2 the second product
+     * @param listener receives the number of matches so far; runs on the connection's reader thread and must not block
+     * @return the subscription, to be closed when no longer needed
+     * @throws IOException if the request is rejected or fails
+     * @throws InterruptedException if the thread is interrupted while waiting for the server response
+     */
+    public NotificationSubscription watchSimultaneous(String p1, String p2, IntConsumer listener)
+            throws IOException, InterruptedException {
+        return watch(listener, dos -> {
+            dos.writeByte(WatchKind.PAIR);
+            dos.writeUTF(p1);
+            dos.writeUTF(p2);
+        });
+    }
+
+    /**
+     * Watches for runs of {@code n} consecutive sales of a product, notifying every run until the
+     * subscription is closed.
+     *
+     * @param product the product
+     * @param n the length of the run
+     * @param listener receives the number of matches so far; runs on the connection's reader thread and must not block
+     * @return the subscription, to be closed when no longer needed
+     * @throws IOException if the request is rejected or fails
+     * @throws InterruptedException if the thread is interrupted while waiting for the server response
+     */
+    public NotificationSubscription watchConsecutive(String product, int n, IntConsumer listener)
+            throws IOException, InterruptedException {
+        return watch(listener, dos -> {
+            dos.writeByte(WatchKind.STREAK);
+            dos.writeUTF(product);
+            dos.writeInt(n);
+        });
+    }
+
+    /**
+     * Watches, on every day from now on, for the quantity sold of a product during the day to reach a total.
+     *
+     * @param product the product
+     * @param total the quantity to reach
+     * @param listener receives the number of matches so far; runs on the connection's reader thread and must not block
+     * @return the subscription, to be closed when no longer needed
+     * @throws IOException if the request is rejected or fails
+     * @throws InterruptedException if the thread is interrupted while waiting for the server response
+     */
+    public NotificationSubscription watchQuantity(String product, long total, IntConsumer listener)
+            throws IOException, InterruptedException {
+        return watch(listener, dos -> {
+            dos.writeByte(WatchKind.QUANTITY);
+            dos.writeUTF(product);
+            dos.writeLong(total);
+        });
+    }
+
+    /**
+     * Watches a continuous query, e.g. "the volume of X in the last hour exceeds V", notified each
+     * time a sale makes its condition true (and at once if it already holds), until the
+     * subscription is closed. Queries on the same product and window share their state on the server.
+     *
+     * @param query the query
+     * @param listener receives the number of matches so far; runs on the connection's reader thread and must not block
+     * @return the subscription, to be closed when no longer needed
+     * @throws IOException if the query is rejected or the request fails
+     * @throws InterruptedException if the thread is interrupted while waiting for the server response
+     */
+    public NotificationSubscription watchQuery(SalesQuery query, IntConsumer listener)
+            throws IOException, InterruptedException {
+        return watch(listener, dos -> {
+            dos.writeByte(WatchKind.QUERY);
+            dos.writeUTF(query.getProduct());
+            dos.writeByte(query.getMetric());
+            dos.writeLong(query.getWindowSeconds());
+            dos.writeByte(query.getComparison());
+            dos.writeDouble(query.getThreshold());
+        });
+    }
+
+    /**
+     * Sends a SUBSCRIBE request and, once accepted, starts listening to its notifications.
+     * Notifications that arrive before the acknowledgement is processed are kept by the demultiplexer.
+     */
+    private NotificationSubscription watch(IntConsumer listener, IOContextWriter writer)
+            throws IOException, InterruptedException {
+        byte[] data = serialize(writer);
+        int id = nextRequestId();
+        dm.send(Tag.SUBSCRIBE, id, data);
+        checkStatus(dm.receive(Tag.SUBSCRIBE, id));
+        return new NotificationSubscription(this, dm, id, listener);
+    }
+
+    /**
+     * Ends a subscription; no notification for it arrives after this returns.
+     *
+     * @param id the id of the subscription
+     * @throws IOException if the request is rejected or fails
+     * @throws InterruptedException if the thread is interrupted while waiting for the server response
+     */
+    void unsubscribe(int id) throws IOException, InterruptedException {
+        checkStatus(request(Tag.UNSUBSCRIBE, serialize(dos -> dos.writeInt(id))));
     }
 
     /**
@@ -273,8 +462,29 @@ public class SalesClient {
      * @throws InterruptedException if the thread is interrupted while waiting for the server's acknowledgment.
      */
     public void startNewDay() throws IOException, InterruptedException {
-        dm.send(Tag.NEW_DAY, new byte[0]);
-        dm.receive(Tag.NEW_DAY);
+        checkStatus(request(Tag.NEW_DAY, new byte[0]));
+    }
+
+    /**
+     * Checks the one-byte status code replied to a command without data.
+     *
+     * @param response the reply payload
+     * @throws IOException if the server did not accept the command
+     */
+    static void checkStatus(byte[] response) throws IOException {
+        byte status = new FrameReader(response).readByte();
+        switch (status) {
+            case Status.OK:
+                return;
+            case Status.NOT_AUTHENTICATED:
+                throw new IOException("Não autenticado");
+            case Status.UNKNOWN_COMMAND:
+                throw new IOException("Comando desconhecido pelo servidor");
+            case Status.INVALID_REQUEST:
+                throw new IOException("Pedido inválido");
+            default:
+                throw new IOException("Estado de resposta inválido: " + status);
+        }
     }
 
     public List<String> filterEvents(int daysBack, Set<String> products) throws IOException, InterruptedException {
@@ -286,40 +496,152 @@ public class SalesClient {
             }
         });
 
-        dm.send(Tag.FILTER_EVENTS, data);
-        byte[] response = dm.receive(Tag.FILTER_EVENTS);
+        byte[] response = request(Tag.FILTER_EVENTS, data);
+        return decodeEvents(new FrameReader(response));
+    }
+
+    /**
+     * Retrieves the events of the last {@code days} closed days that match the given products,
+     * with a single request instead of one FILTER_EVENTS per day.
+     * The server scans the days in parallel and replies with one frame per day, in date order.
+     *
+     * @param days     how many closed days, counting back from yesterday (clamped to the available history)
+     * @param products the products to include
+     * @return the formatted events of each day, ordered by date (oldest first)
+     * @throws IOException if the request is rejected or a day cannot be read by the server
+     * @throws InterruptedException if interrupted while waiting for the reply
+     */
+    public Map<LocalDate, List<String>> filterRange(int days, Set<String> products) throws IOException, InterruptedException {
+        byte[] data = serialize(dos -> {
+            dos.writeInt(days);
+            dos.writeInt(products.size());
+            for (String product : products) {
+                dos.writeUTF(product);
+            }
+        });
+
+        int id = nextRequestId();
+        dm.send(Tag.FILTER_RANGE, id, data);
+
+        byte[] header = dm.receive(Tag.FILTER_RANGE, id);
+        if (header.length == 0) {
+            throw new IOException("Filtragem recusada pelo servidor");
+        }
+        int numDays = new FrameReader(header).readInt();
+
+        Map<LocalDate, List<String>> result = new LinkedHashMap<>();
+        for (int d = 0; d < numDays; d++) {
+            byte[] frame = dm.receive(Tag.FILTER_RANGE, id);
+            if (frame.length == 0) {
+                throw new IOException("Filtragem interrompida pelo servidor");
+            }
+            FrameReader in = new FrameReader(frame);
+            LocalDate date = LocalDate.ofEpochDay(in.readLong());
+            result.put(date, decodeEvents(in));
+        }
+        return result;
+    }
 
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(response));
+    /**
+     * Decodes a compacted event list: the product dictionary, the event count and the events.
+     *
+     * @param in the reader positioned at the start of the list
+     * @return the formatted events
+     * @throws IOException if the list is malformed
+     */
+    static List<String> decodeEvents(FrameReader in) throws IOException {
         List<String> events = new ArrayList<>();
 
-        int numProducts = dis.readInt();
+        int numProducts = in.readInt();
         String[] productDict = new String[numProducts];
 
         for (int i = 0; i < numProducts; i++) {
-            productDict[i] = dis.readUTF();
+            productDict[i] = in.readUTF();
         }
 
-        int totalEvents = dis.readInt();
+        int totalEvents = in.readInt();
 
         for (int i = 0; i < totalEvents; i++) {
-            short productId = dis.readShort();
-            int quantity = dis.readInt();
-            double price = dis.readDouble();
-            long epochSecond = dis.readLong();
-            int nano = dis.readInt();
+            short productId = in.readShort();
+            int quantity = in.readInt();
+            double price = in.readDouble();
+            long epochSecond = in.readLong();
+            int nano = in.readInt();
+
+            events.add(formatEvent(productDict[productId], quantity, price, epochSecond, nano));
+        }
+
+        return events;
+    }
+
+    /**
+     * Streams the events of a historical day that match the given products, in bounded memory.
+     *
+     * Unlike {@link #filterEvents(int, Set)}, the server sends the reply in batches and only sends
+     * more as the returned iterator consumes them, so arbitrarily large days can be processed.
+     * The iterator should be closed if it is abandoned before the end.
+     *
+     * @param daysBack how many days before the current one
+     * @param products the products to include
+     * @return an iterator over the formatted events
+     * @throws IOException if the request fails or the server rejects it
+     * @throws InterruptedException if interrupted while waiting for the first reply
+     */
+    public FilteredEventIterator filterEventsIterator(int daysBack, Set<String> products) throws IOException, InterruptedException {
+        byte[] data = serialize(dos -> {
+            dos.writeInt(daysBack);
+            dos.writeInt(products.size());
+            for (String product : products) {
+                dos.writeUTF(product);
+            }
+            dos.writeInt(FilteredEventIterator.WINDOW);
+        });
 
-            String productName = productDict[productId];
-            double totalValue = price * quantity;
+        int id = nextRequestId();
+        dm.send(Tag.FILTER_EVENTS_STREAM, id, data);
+        return new FilteredEventIterator(dm, id);
+    }
 
-            LocalDateTime date = LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
-            String dayOnly = date.toLocalDate().toString();
+    /**
+     * Streams the events of a historical day as a {@link Stream}, in bounded memory.
+     * Closing the stream cancels the transfer if it was not fully consumed.
+     *
+     * @param daysBack how many days before the current one
+     * @param products the products to include
+     * @return a sequential stream of the formatted events
+     * @throws IOException if the request fails or the server rejects it
+     * @throws InterruptedException if interrupted while waiting for the first reply
+     */
+    public Stream<String> filterEventsStream(int daysBack, Set<String> products) throws IOException, InterruptedException {
+        FilteredEventIterator it = filterEventsIterator(daysBack, products);
+        Spliterator<String> spliterator = Spliterators.spliterator(it, it.getTotalEvents(),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                it.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
 
-            String formatted = String.format("%s - %dun x %.2f€ = %.2f€ (%s)",
-                    productName, quantity, price, totalValue, dayOnly);
+    /**
+     * Formats one filtered event for display.
+     *
+     * @param productName the product name
+     * @param quantity    the quantity sold
+     * @param price       the unit price
+     * @param epochSecond the sale time, in seconds since the epoch (UTC)
+     * @param nano        the nanosecond part of the sale time
+     * @return the formatted event
+     */
+    static String formatEvent(String productName, int quantity, double price, long epochSecond, int nano) {
+        double totalValue = price * quantity;
 
-            events.add(formatted);
-        }
+        LocalDateTime date = LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+        String dayOnly = date.toLocalDate().toString();
 
-        return events;
+        return String.format("%s - %dun x %.2f€ = %.2f€ (%s)",
+                productName, quantity, price, totalValue, dayOnly);
     }
 }
\ No newline at end of file
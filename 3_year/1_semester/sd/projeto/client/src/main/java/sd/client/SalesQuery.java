@@ -0,0 +1,127 @@
+package sd.client;
+
+import sd.common.Comparison;
+import sd.common.Metric;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A continuous query watched with {@link SalesClient#watchQuery}: a metric of a product's sales over
+ * a window of the current day, compared with a threshold.
+ *
+ * Queries can be written as text, {@code <metric> <product> [<window>] <op> <threshold>}, where the
+ * metric is {@code quantity}, {@code volume}, {@code avg} or {@code price}, the window is a number
+ * followed by {@code s}, {@code m} or {@code h} (the whole day if omitted; never for {@code price})
+ * and the operator is {@code >} or {@code <}. For example, {@code volume Laptop 1h > 5000} or
+ * {@code price Mouse > 25}.
+ */
+public final class SalesQuery {
+    private static final String[] METRIC_NAMES = {"quantity", "volume", "avg", "price"};
+
+    private final String product;
+    private final byte metric;
+    private final long windowSeconds;
+    private final byte comparison;
+    private final double threshold;
+
+    /**
+     * Creates a query. It is validated by the server when subscribed.
+     *
+     * @param product    the product whose sales are watched
+     * @param metric     the {@link Metric} compared
+     * @param window     the length of the window, or {@link Duration#ZERO} for the whole day
+     * @param comparison the {@link Comparison} with the threshold
+     * @param threshold  the threshold
+     */
+    public SalesQuery(String product, byte metric, Duration window, byte comparison, double threshold) {
+        this.product = product;
+        this.metric = metric;
+        this.windowSeconds = window.getSeconds();
+        this.comparison = comparison;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Parses the text form of a query.
+     *
+     * @param text the query, e.g. {@code volume Laptop 1h > 5000}
+     * @return the query
+     * @throws IllegalArgumentException if the text is not a valid query
+     */
+    public static SalesQuery parse(String text) {
+        String[] tokens = text.trim().split("\\s+");
+        if (tokens.length < 4) {
+            throw new IllegalArgumentException("Expected: <metric> <product> [<window>] <op> <threshold>");
+        }
+
+        int metric = -1;
+        for (int m = 0; m < METRIC_NAMES.length; m++) {
+            if (METRIC_NAMES[m].equalsIgnoreCase(tokens[0])) metric = m;
+        }
+        if (metric < 0) throw new IllegalArgumentException("Unknown metric: " + tokens[0]);
+
+        int last = tokens.length - 1;
+        double threshold;
+        try {
+            threshold = Double.parseDouble(tokens[last]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid threshold: " + tokens[last]);
+        }
+
+        byte comparison;
+        switch (tokens[last - 1]) {
+            case ">": comparison = Comparison.ABOVE; break;
+            case "<": comparison = Comparison.BELOW; break;
+            default: throw new IllegalArgumentException("Invalid operator: " + tokens[last - 1]);
+        }
+
+        // The product name may contain spaces; a trailing window token is optional
+        int productEnd = last - 1;
+        Duration window = Duration.ZERO;
+        if (productEnd > 2 && tokens[productEnd - 1].matches("\\d+[smhSMH]")) {
+            window = parseWindow(tokens[productEnd - 1]);
+            productEnd--;
+        }
+        String product = String.join(" ", Arrays.copyOfRange(tokens, 1, productEnd));
+        return new SalesQuery(product, (byte) metric, window, comparison, threshold);
+    }
+
+    private static Duration parseWindow(String token) {
+        long amount = Long.parseLong(token.substring(0, token.length() - 1));
+        switch (Character.toLowerCase(token.charAt(token.length() - 1))) {
+            case 's': return Duration.ofSeconds(amount);
+            case 'm': return Duration.ofMinutes(amount);
+            default: return Duration.ofHours(amount);
+        }
+    }
+
+    public String getProduct() {
+        return product;
+    }
+
+    public byte getMetric() {
+        return metric;
+    }
+
+    public long getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public byte getComparison() {
+        return comparison;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public String toString() {
+        String name = (metric >= 0 && metric < METRIC_NAMES.length) ? METRIC_NAMES[metric] : "metric" + metric;
+        String window = (windowSeconds == 0) ? "" : " " + windowSeconds + "s";
+        String op = (comparison == Comparison.ABOVE) ? ">" : "<";
+        return String.format(Locale.ROOT, "%s %s%s %s %s", name, product, window, op, threshold);
+    }
+}
@@ -1,8 +1,17 @@
 package sd.client;
 
+import sd.common.Tag;
+import sd.middleware.TaggedConnection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Client for stress testing a sales tracking server with heavy data workloads.
@@ -15,6 +24,11 @@ public class StressTestClient {
     private static final int CONCURRENCY_OPS = 100_000;
     private static final int PERSISTENCE_CYCLES = 50;
     private static final int EVENTS_PER_DAY = 20_000;
+    private static final int SEED_BATCH_SIZE = 1000;
+    private static final int OPS_PER_CONNECTION = 200;
+    private static final int SUBSCRIPTIONS_PER_CONNECTION = 100;
+    private static final int DISTINCT_PAIRS = 1000;
+    private static final int EVENTS_PER_WRITER = 20_000;
 
     // Test user credentials
     private static final String TEST_USER = "tester";
@@ -75,6 +89,114 @@ public class StressTestClient {
         }
     }
 
+    /**
+     * Executes the connection scaling test on its own, for comparing server connection modes.
+     * Start the server with {@code --mode=blocking} and then with {@code --mode=nio} and run this
+     * test against each one with the same number of clients.
+     *
+     * @param clients the number of simultaneous connections to open
+     */
+    public void startConnectionTest(int clients) {
+        System.out.println(">>> STARTING CONNECTION SCALING TEST (" + clients + " clients) <<<");
+
+        List<String> results = new ArrayList<>();
+        results.add(String.format("%-5s | %-8s | %-15s | %-12s | %-10s",
+                "Run", "Clients", "Throughput", "Latency", "Failed"));
+        results.add("--------------------------------------------------------------");
+
+        for (int i = 1; i <= NUM_RUNS; i++) {
+            System.out.println("\n=== RUN " + i + "/" + NUM_RUNS + " ===");
+            double[] res = runConnectionScalingTest(clients);
+
+            String line = String.format("%-5d | %8d | %8.1f ops/s | %8.5f ms | %10.0f",
+                    i, clients, res[0], res[1], res[2]);
+            results.add(line);
+            System.out.println("Result: " + line);
+
+            try { Thread.sleep(1000); } catch (InterruptedException e) {}
+        }
+
+        System.out.println("\n\n>>> FINAL RESULTS TABLE <<<");
+        for (String line : results) {
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Executes the subscriber capacity test on its own.
+     * Measures how many simultaneous SIMUL_SALES subscriptions the server can hold while staying
+     * responsive, which mostly depends on the server's {@code --mode}.
+     *
+     * @param subscribers the number of subscriptions to keep pending
+     */
+    public void startSubscriberTest(int subscribers) {
+        System.out.println(">>> STARTING SUBSCRIBER CAPACITY TEST (" + subscribers + " subscriptions) <<<");
+        double[] res = runSubscriberCapacityTest(subscribers);
+
+        System.out.println("\n\n>>> FINAL RESULTS TABLE <<<");
+        System.out.println(String.format("%-12s | %-12s | %-14s | %-14s | %-10s",
+                "Subscribed", "Connections", "Probe latency", "Release time", "Delivered"));
+        System.out.println("------------------------------------------------------------------------");
+        System.out.println(String.format("%12d | %12.0f | %11.3f ms | %11.1f ms | %10.0f",
+                subscribers, res[0], res[1], res[2], res[3]));
+    }
+
+    /**
+     * Executes the ingestion scaling test on its own.
+     * Runs the ADD_EVENT workload with 1, 2, 4, ... writer threads (up to {@code maxWriters}), each on its own
+     * connection and product, to show whether ingestion throughput grows with the number of writers.
+     *
+     * @param maxWriters the largest number of concurrent writers
+     */
+    public void startIngestionTest(int maxWriters) {
+        System.out.println(">>> STARTING INGESTION SCALING TEST (up to " + maxWriters + " writers) <<<");
+
+        List<String> results = new ArrayList<>();
+        results.add(String.format("%-8s | %-15s | %-12s | %-8s", "Writers", "Throughput", "Latency", "Speedup"));
+        results.add("-------------------------------------------------------");
+
+        double base = 0;
+        for (int step = 1; ; step *= 2) {
+            int writers = Math.min(step, maxWriters);
+            double[] res = runIngestionTest(writers);
+            if (writers == 1) base = res[0];
+
+            String line = String.format("%8d | %8.1f ops/s | %8.5f ms | %7.2fx",
+                    writers, res[0], res[1], base > 0 ? res[0] / base : 0);
+            results.add(line);
+            System.out.println("Result: " + line);
+            if (writers == maxWriters) break;
+
+            try { Thread.sleep(500); } catch (InterruptedException e) {}
+        }
+
+        System.out.println("\n\n>>> FINAL RESULTS TABLE <<<");
+        for (String line : results) {
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Executes the pipelining test on its own.
+     * Sends the ADD_EVENT workload from a single thread over a single connection, first waiting for
+     * each acknowledgement and then through an {@link AsyncSalesClient} with up to {@code maxInFlight}
+     * requests outstanding, to show how much of the synchronous cost is round-trip latency.
+     *
+     * @param maxInFlight the in-flight limit of the asynchronous run
+     */
+    public void startAsyncTest(int maxInFlight) {
+        System.out.println(">>> STARTING PIPELINING TEST (" + maxInFlight + " in flight) <<<");
+
+        double sync = runPipeliningTest(0);
+        double async = runPipeliningTest(maxInFlight);
+
+        System.out.println("\n\n>>> FINAL RESULTS TABLE <<<");
+        System.out.println(String.format("%-10s | %-15s | %-8s", "In flight", "Throughput", "Speedup"));
+        System.out.println("----------------------------------------");
+        System.out.println(String.format("%10d | %8.1f ops/s | %7.2fx", 1, sync, 1.0));
+        System.out.println(String.format("%10d | %8.1f ops/s | %7.2fx", maxInFlight, async, sync > 0 ? async / sync : 0));
+    }
+
     /**
      * Populates the server with a large volume of historical data to create heavy disk load conditions.
      * Inserts multiple days worth of sales events to simulate real-world data volume.
@@ -90,10 +212,13 @@ public class StressTestClient {
                 long start = System.nanoTime();
 
                 System.out.print("[Day " + d + "] ");
-                for (int i = 0; i < EVENTS_PER_DAY; i++) {
-                    client.addEvent("ProdA", 1, 10.0);
-                    client.addEvent("ProdB", 1, 10.0);
-                    if (i % 5000 == 0) System.out.print(".");
+                // The whole day is sent before the day is closed
+                try (EventBatcher batcher = client.batcher(SEED_BATCH_SIZE, 100)) {
+                    for (int i = 0; i < EVENTS_PER_DAY; i++) {
+                        batcher.add("ProdA", 1, 10.0);
+                        batcher.add("ProdB", 1, 10.0);
+                        if (i % 5000 == 0) System.out.print(".");
+                    }
                 }
                 client.startNewDay();
             }
@@ -217,6 +342,274 @@ public class StressTestClient {
         return new double[]{avgMiss, avgHit};
     }
 
+    /**
+     * Opens many simultaneous connections, each one issuing a short burst of mixed requests.
+     * Stresses the server's connection handling model rather than its data structures.
+     *
+     * @param clients the number of simultaneous connections
+     * @return array containing throughput (ops/s), average latency (ms) and the number of failed connections
+     */
+    private double[] runConnectionScalingTest(int clients) {
+        System.out.print(" -> Connection Test (" + clients + " clients x " + OPS_PER_CONNECTION + " ops)... ");
+        List<SalesClient> connected = new ArrayList<>();
+        AtomicInteger failed = new AtomicInteger();
+        double throughput = 0;
+        double latency = 0;
+
+        try {
+            for (int c = 0; c < clients; c++) {
+                SalesClient client = new SalesClient();
+                try {
+                    client.connect(host, port);
+                    prepareSession(client);
+                    connected.add(client);
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    try { client.close(); } catch (IOException ignored) {}
+                }
+            }
+
+            CountDownLatch startGate = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (SalesClient client : connected) {
+                Thread t = new Thread(() -> {
+                    try {
+                        startGate.await();
+                        for (int i = 0; i < OPS_PER_CONNECTION; i++) {
+                            if (i % 2 == 0) client.addEvent("ProdConn", 1, 10.0);
+                            else client.getVolume("ProdConn", 1);
+                        }
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                    }
+                });
+                threads.add(t);
+                t.start();
+            }
+
+            long start = System.nanoTime();
+            startGate.countDown();
+            for (Thread t : threads) t.join();
+
+            long durationNs = System.nanoTime() - start;
+            double totalTimeMs = durationNs / 1_000_000.0;
+            double totalOps = (double) connected.size() * OPS_PER_CONNECTION;
+
+            if (totalOps > 0) {
+                throughput = (totalOps * 1000.0) / totalTimeMs;
+                latency = totalTimeMs / totalOps;
+            }
+
+            System.out.printf("Done. (%.1f ops/s, %d failed)\n", throughput, failed.get());
+
+        } catch (Exception e) {
+            System.out.println("Fail: " + e.getMessage());
+        } finally {
+            for (SalesClient client : connected) {
+                try { client.close(); } catch (IOException ignored) {}
+            }
+        }
+        return new double[]{throughput, latency, failed.get()};
+    }
+
+    /**
+     * Measures ADD_EVENT throughput with several writers running at the same time.
+     * Every writer has its own connection and its own product, so they only contend inside the server.
+     *
+     * @param writers the number of concurrent writers
+     * @return array containing throughput (ops/s) and average latency per writer operation (ms)
+     */
+    private double[] runIngestionTest(int writers) {
+        System.out.print(" -> Ingestion Test (" + writers + " writers x " + EVENTS_PER_WRITER + " events)... ");
+        List<SalesClient> connected = new ArrayList<>();
+        AtomicInteger failed = new AtomicInteger();
+        double throughput = 0;
+        double latency = 0;
+
+        try {
+            for (int w = 0; w < writers; w++) {
+                SalesClient client = new SalesClient();
+                connected.add(client);
+                client.connect(host, port);
+                prepareSession(client);
+            }
+
+            CountDownLatch startGate = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                SalesClient client = connected.get(w);
+                String product = "ProdIngest" + w;
+                Thread t = new Thread(() -> {
+                    try {
+                        startGate.await();
+                        for (int i = 0; i < EVENTS_PER_WRITER; i++) {
+                            client.addEvent(product, 1, 10.0);
+                        }
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                    }
+                });
+                threads.add(t);
+                t.start();
+            }
+
+            long start = System.nanoTime();
+            startGate.countDown();
+            for (Thread t : threads) t.join();
+
+            double totalTimeMs = (System.nanoTime() - start) / 1_000_000.0;
+            double totalOps = (double) writers * EVENTS_PER_WRITER;
+
+            throughput = (totalOps * 1000.0) / totalTimeMs;
+            latency = totalTimeMs / EVENTS_PER_WRITER;
+
+            System.out.printf("Done. (%.1f ops/s, %d failed)\n", throughput, failed.get());
+
+        } catch (Exception e) {
+            System.out.println("Fail: " + e.getMessage());
+        } finally {
+            for (SalesClient client : connected) {
+                try { client.close(); } catch (IOException ignored) {}
+            }
+        }
+        return new double[]{throughput, latency};
+    }
+
+    /**
+     * Sends {@code EVENTS_PER_WRITER} events from one thread over one connection.
+     *
+     * @param maxInFlight 0 to wait for every reply, otherwise the in-flight limit of the async client
+     * @return the throughput in operations per second
+     */
+    private double runPipeliningTest(int maxInFlight) {
+        System.out.print(" -> Pipelining Test (" + (maxInFlight == 0 ? "sync" : maxInFlight + " in flight") + ")... ");
+        SalesClient client = new SalesClient();
+        double throughput = 0;
+
+        try {
+            client.connect(host, port);
+            prepareSession(client);
+
+            long start = System.nanoTime();
+            if (maxInFlight == 0) {
+                for (int i = 0; i < EVENTS_PER_WRITER; i++) {
+                    client.addEvent("ProdPipeline", 1, 10.0);
+                }
+            } else {
+                AsyncSalesClient async = client.async(maxInFlight);
+                CompletableFuture<?>[] acks = new CompletableFuture<?>[EVENTS_PER_WRITER];
+                for (int i = 0; i < EVENTS_PER_WRITER; i++) {
+                    acks[i] = async.addEvent("ProdPipeline", 1, 10.0);
+                }
+                CompletableFuture.allOf(acks).join();
+            }
+            double totalTimeMs = (System.nanoTime() - start) / 1_000_000.0;
+
+            throughput = (EVENTS_PER_WRITER * 1000.0) / totalTimeMs;
+            System.out.printf("Done. (%.1f ops/s)\n", throughput);
+
+        } catch (Exception e) {
+            System.out.println("Fail: " + e.getMessage());
+        } finally {
+            try { client.close(); } catch (IOException ignored) {}
+        }
+        return throughput;
+    }
+
+    /**
+     * Opens connections that each send many SIMUL_SALES subscriptions without waiting for the replies,
+     * then checks that the server still answers other clients and how long it takes to release everyone.
+     * Talks to the server through raw {@link TaggedConnection}s so the client does not need a thread per subscription.
+     *
+     * @param subscribers the total number of subscriptions
+     * @return array containing the number of connections, aggregation latency while subscribers are pending (ms),
+     *         time to deliver every notification after the trigger sale (ms) and the number of notifications delivered
+     */
+    private double[] runSubscriberCapacityTest(int subscribers) {
+        System.out.print(" -> Subscriber Test (" + subscribers + " subscriptions)... ");
+        List<TaggedConnection> connections = new ArrayList<>();
+        SalesClient control = new SalesClient();
+        double probeMs = -1;
+        double releaseMs = -1;
+        int delivered = 0;
+
+        try {
+            control.connect(host, port);
+            prepareSession(control);
+            control.startNewDay();
+
+            int remaining = subscribers;
+            int index = 0;
+            while (remaining > 0) {
+                TaggedConnection conn = new TaggedConnection(new Socket(host, port));
+                connections.add(conn);
+
+                conn.send(Tag.LOGIN, encode(dos -> { dos.writeUTF(TEST_USER); dos.writeUTF(TEST_PASS); }));
+                conn.receive();
+
+                int batch = Math.min(SUBSCRIPTIONS_PER_CONNECTION, remaining);
+                for (int i = 0; i < batch; i++, index++) {
+                    String product = "Sub" + (index % DISTINCT_PAIRS);
+                    conn.send(Tag.SIMUL_SALES, encode(dos -> { dos.writeUTF(product); dos.writeUTF("SubTrigger"); }));
+                }
+                remaining -= batch;
+            }
+
+            Thread.sleep(1000);
+
+            long t1 = System.nanoTime();
+            control.getVolume("SubTrigger", 1);
+            probeMs = (System.nanoTime() - t1) / 1_000_000.0;
+
+            long t2 = System.nanoTime();
+            for (int i = 0; i < Math.min(subscribers, DISTINCT_PAIRS); i++) {
+                control.addEvent("Sub" + i, 1, 1.0);
+            }
+            control.addEvent("SubTrigger", 1, 1.0);
+
+            remaining = subscribers;
+            for (TaggedConnection conn : connections) {
+                int batch = Math.min(SUBSCRIPTIONS_PER_CONNECTION, remaining);
+                for (int i = 0; i < batch; i++) {
+                    conn.receive();
+                    delivered++;
+                }
+                remaining -= batch;
+            }
+            releaseMs = (System.nanoTime() - t2) / 1_000_000.0;
+
+            System.out.printf("Done. (%d connections, probe %.3f ms)\n", connections.size(), probeMs);
+
+        } catch (Exception e) {
+            System.out.println("Fail: " + e.getMessage());
+        } finally {
+            for (TaggedConnection conn : connections) {
+                try { conn.close(); } catch (IOException ignored) {}
+            }
+            try { control.close(); } catch (IOException ignored) {}
+        }
+        return new double[]{connections.size(), probeMs, releaseMs, delivered};
+    }
+
+    /**
+     * Encodes a request payload for the raw connections used by the subscriber test.
+     *
+     * @param writer the logic that writes the payload
+     * @return the encoded payload
+     * @throws IOException if writing fails
+     */
+    private static byte[] encode(PayloadWriter writer) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            writer.write(dos);
+        }
+        return baos.toByteArray();
+    }
+
+    private interface PayloadWriter {
+        void write(DataOutputStream dos) throws IOException;
+    }
+
     /**
      * Establishes a session with the server by registering and logging in a test user.
      *
@@ -232,15 +625,51 @@ public class StressTestClient {
     /**
      * Entry point for the stress test client application.
      *
-     * @param args command-line arguments: [host] [port] (default: localhost:12345)
+     * @param args command-line arguments: [host] [port] [--connections=N] [--subscribers=N] [--ingestion=N] [--async=N]
+     *             (default: localhost:12345). With one of the options only that test is executed.
+     *             {@code --ingestion} without a value uses one writer per available processor.
      */
     public static void main(String[] args) {
         String host = "localhost";
         int port = 12345;
-        if (args.length >= 2) {
-            host = args[0];
-            port = Integer.parseInt(args[1]);
+        int connections = 0;
+        int subscribers = 0;
+        int ingestion = 0;
+        int async = 0;
+
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--connections=")) {
+                connections = Integer.parseInt(arg.substring("--connections=".length()));
+            } else if (arg.startsWith("--subscribers=")) {
+                subscribers = Integer.parseInt(arg.substring("--subscribers=".length()));
+            } else if (arg.equals("--ingestion")) {
+                ingestion = Runtime.getRuntime().availableProcessors();
+            } else if (arg.startsWith("--ingestion=")) {
+                ingestion = Integer.parseInt(arg.substring("--ingestion=".length()));
+            } else if (arg.startsWith("--async=")) {
+                async = Integer.parseInt(arg.substring("--async=".length()));
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        if (positional.size() >= 2) {
+            host = positional.get(0);
+            port = Integer.parseInt(positional.get(1));
+        }
+
+        StressTestClient stress = new StressTestClient(host, port);
+        if (connections > 0) {
+            stress.startConnectionTest(connections);
+        } else if (subscribers > 0) {
+            stress.startSubscriberTest(subscribers);
+        } else if (ingestion > 0) {
+            stress.startIngestionTest(ingestion);
+        } else if (async > 0) {
+            stress.startAsyncTest(async);
+        } else {
+            stress.start();
         }
-        new StressTestClient(host, port).start();
     }
 }
\ No newline at end of file
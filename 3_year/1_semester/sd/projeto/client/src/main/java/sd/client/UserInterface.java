@@ -1,6 +1,8 @@
 package sd.client;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Scanner;
@@ -35,6 +37,7 @@ public class UserInterface {
         SalesClient client = new SalesClient();
         Scanner scanner = new Scanner(System.in);
         boolean loggedIn = false;
+        List<NotificationSubscription> watches = new ArrayList<>();
 
         try {
             printBanner();
@@ -210,18 +213,20 @@ public class UserInterface {
                                 products.add(p.trim());
                             }
 
-                            List<String> filteredEvents = client.filterEvents(daysBack, products);
-                            if (filteredEvents.isEmpty()) {
-                                printWarning("No events found.");
-                            } else {
-                                System.out.println(GREEN_BOLD + "   Found " + filteredEvents.size() + " events:" + RESET);
-                                for (String event : filteredEvents) {
-                                    System.out.println("      • " + event);
+                            // Streamed, so even very large days are printed in bounded memory
+                            try (FilteredEventIterator filteredEvents = client.filterEventsIterator(daysBack, products)) {
+                                if (filteredEvents.getTotalEvents() == 0) {
+                                    printWarning("No events found.");
+                                } else {
+                                    System.out.println(GREEN_BOLD + "   Found " + filteredEvents.getTotalEvents() + " events:" + RESET);
+                                    while (filteredEvents.hasNext()) {
+                                        System.out.println("      • " + filteredEvents.next());
+                                    }
                                 }
                             }
                         } catch (NumberFormatException e) {
                             printError("Invalid days.");
-                        } catch (IOException | InterruptedException e) {
+                        } catch (IOException | UncheckedIOException | InterruptedException e) {
                             printError("Error: " + e.getMessage());
                         }
                         break;
@@ -278,6 +283,68 @@ public class UserInterface {
                         }
                         break;
 
+                    case "9":
+                        // Watch the daily quantity of a product (push, non-blocking)
+                        if (!loggedIn) {
+                            printError("You need to login first!");
+                            break;
+                        }
+                        printHeader("📦 Watch Daily Quantity");
+                        System.out.print(CYAN + "   📦 Product: " + RESET);
+                        String wProd = scanner.nextLine().trim();
+                        System.out.print(CYAN + "   🔢 Total quantity: " + RESET);
+                        String tStr = scanner.nextLine().trim();
+
+                        try {
+                            long total = Long.parseLong(tStr);
+                            watches.add(client.watchQuantity(wProd, total, count ->
+                                    System.out.println(GREEN_BOLD + "\n 🔔 " + RESET + GREEN + wProd
+                                            + " reached " + total + " units today (" + count + ")" + RESET)));
+                            printSuccess("Watching " + wProd + ". Notifications arrive in the background.");
+                        } catch (NumberFormatException e) {
+                            printError("Invalid quantity.");
+                        } catch (IOException | InterruptedException e) {
+                            printError("Error: " + e.getMessage());
+                        }
+                        break;
+
+                    case "11":
+                        // Watch a continuous query (push, non-blocking)
+                        if (!loggedIn) {
+                            printError("You need to login first!");
+                            break;
+                        }
+                        printHeader("📡 Watch Query");
+                        System.out.println(YELLOW + "   e.g. volume Laptop 1h > 5000 | price Mouse > 25" + RESET);
+                        System.out.print(CYAN + "   🔎 Query: " + RESET);
+                        String qText = scanner.nextLine().trim();
+
+                        try {
+                            SalesQuery query = SalesQuery.parse(qText);
+                            watches.add(client.watchQuery(query, count ->
+                                    System.out.println(GREEN_BOLD + "\n 🔔 " + RESET + GREEN + qText
+                                            + " (" + count + ")" + RESET)));
+                            printSuccess("Watching: " + query + ". Notifications arrive in the background.");
+                        } catch (IllegalArgumentException e) {
+                            printError("Invalid query. " + e.getMessage());
+                        } catch (IOException | InterruptedException e) {
+                            printError("Error: " + e.getMessage());
+                        }
+                        break;
+
+                    case "10":
+                        // Close every background watch
+                        try {
+                            for (NotificationSubscription watch : watches) {
+                                watch.close();
+                            }
+                            printSuccess(watches.size() + " watch(es) stopped.");
+                            watches.clear();
+                        } catch (IOException e) {
+                            printError("Error: " + e.getMessage());
+                        }
+                        break;
+
                     case "0":
                         // Exit application
                         running = false;
@@ -336,6 +403,9 @@ public class UserInterface {
         System.out.println(ROYAL_BLUE_BOLD + "  " + CYAN + "🔔 NOTIFICATIONS" + ROYAL_BLUE_BOLD);
         System.out.println(ROYAL_BLUE_BOLD + "     " + WHITE + "7." + RESET + " Simultaneous Sales");
         System.out.println(ROYAL_BLUE_BOLD + "     " + WHITE + "8." + RESET + " Consecutive Sales");
+        System.out.println(ROYAL_BLUE_BOLD + "     " + WHITE + "9." + RESET + " Watch Daily Quantity (Push)");
+        System.out.println(ROYAL_BLUE_BOLD + "    " + WHITE + "10." + RESET + " Stop Watches");
+        System.out.println(ROYAL_BLUE_BOLD + "    " + WHITE + "11." + RESET + " Watch Query (Push)");
         System.out.println(ROYAL_BLUE_BOLD + "═══════════════════════════════════════════");
         System.out.println(ROYAL_BLUE_BOLD + "     " + RED + "0." + RESET + " EXIT");
         System.out.println(ROYAL_BLUE_BOLD + "═══════════════════════════════════════════" + RESET);
@@ -0,0 +1,10 @@
+package sd.common;
+
+/**
+ * How a QUERY subscription compares its metric with the threshold: ABOVE holds while the metric
+ * is greater than the threshold, BELOW while it is smaller.
+ */
+public class Comparison {
+    public static final byte ABOVE = 0;
+    public static final byte BELOW = 1;
+}
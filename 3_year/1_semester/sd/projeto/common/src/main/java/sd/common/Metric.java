@@ -0,0 +1,16 @@
+package sd.common;
+
+/**
+ * Value of a product watched by a QUERY subscription, over the sales of a window that ends at the
+ * latest sale: QUANTITY (units sold), VOLUME (quantity times price), AVERAGE_PRICE (volume over
+ * quantity) and PRICE (unit price of the latest sale, which takes no window).
+ */
+public class Metric {
+    public static final byte QUANTITY = 0;
+    public static final byte VOLUME = 1;
+    public static final byte AVERAGE_PRICE = 2;
+    public static final byte PRICE = 3;
+
+    /** Number of metrics; every metric is below it. */
+    public static final int COUNT = 4;
+}
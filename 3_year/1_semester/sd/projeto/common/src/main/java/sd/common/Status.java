@@ -0,0 +1,12 @@
+package sd.common;
+
+/**
+ * One-byte status codes replied to commands that return no data (ADD_EVENT, NEW_DAY, SUBSCRIBE,
+ * UNSUBSCRIBE and unknown commands), instead of a UTF message.
+ */
+public class Status {
+    public static final byte OK = 0;
+    public static final byte NOT_AUTHENTICATED = 1;
+    public static final byte UNKNOWN_COMMAND = 2;
+    public static final byte INVALID_REQUEST = 3;
+}
@@ -4,6 +4,7 @@ public class Tag {
     public static final int REGISTER = 1;
     public static final int LOGIN = 2;
     public static final int ADD_EVENT = 3;
+    public static final int ADD_EVENT_BATCH = 15;
 
     public static final int AG_QUANTITY = 4;
     public static final int AG_VOLUME = 5;
@@ -15,4 +16,11 @@ public class Tag {
 
     public static final int NEW_DAY = 10;
     public static final int FILTER_EVENTS = 11;
+    public static final int FILTER_EVENTS_STREAM = 12;
+    public static final int STREAM_CREDIT = 13;
+    public static final int FILTER_RANGE = 14;
+
+    public static final int SUBSCRIBE = 16;
+    public static final int UNSUBSCRIBE = 17;
+    public static final int NOTIFY = 18;
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package sd.common;
+
+/**
+ * Condition watched by a SUBSCRIBE request, sent as its first byte and followed by its arguments:
+ * PAIR (UTF p1, UTF p2) fires once on each day both products are sold; STREAK (UTF product, int n)
+ * each time a run of consecutive sales of the product reaches n; QUANTITY (UTF product, long total)
+ * once on each day the quantity sold of the product reaches the total; QUERY (UTF product,
+ * byte {@link Metric}, long window in seconds, byte {@link Comparison}, double threshold) each time
+ * a sale makes the metric of the product over the window cross the threshold.
+ */
+public class WatchKind {
+    public static final byte PAIR = 0;
+    public static final byte STREAK = 1;
+    public static final byte QUANTITY = 2;
+    public static final byte QUERY = 3;
+}
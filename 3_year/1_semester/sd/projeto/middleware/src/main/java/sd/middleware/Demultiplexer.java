@@ -2,8 +2,11 @@ package sd.middleware;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -44,7 +47,9 @@ public class Demultiplexer implements AutoCloseable {
     private final Lock lock = new ReentrantLock();
 
     /**
-     * A thread-safe map that associates integer tags with {@link Entry} objects.
+     * A thread-safe map that associates (tag, correlation id) keys with {@link Entry} objects.
+     * Frames without a correlation id share one entry per tag, as before; correlated frames
+     * get an entry of their own that is dropped once it has been drained.
      *
      * The {@code buf} variable serves as a shared data structure within the {@code Demultiplexer}
      * for storing and retrieving {@code Entry} instances based on their corresponding tags.
@@ -55,7 +60,13 @@ public class Demultiplexer implements AutoCloseable {
      * coordination between producer and consumer threads in a concurrent environment. It is
      * primarily accessed and modified through synchronized methods to ensure thread safety.
      */
-    private final Map<Integer, Entry> buf = new HashMap<>();
+    private final Map<Long, Entry> buf = new HashMap<>();
+
+    /**
+     * Futures registered by {@link #receiveAsync(int, int)}, keyed like {@code buf}.
+     * A frame whose key has a waiting future completes it instead of being queued.
+     */
+    private final Map<Long, CompletableFuture<byte[]>> pending = new HashMap<>();
 
     /**
      * Stores an instance of an {@link IOException} that is meant to represent
@@ -92,22 +103,35 @@ public class Demultiplexer implements AutoCloseable {
     }
 
     /**
-     * Retrieves the {@code Entry} object associated with the specified tag. If no {@code Entry}
-     * exists for the given tag, a new {@code Entry} is created, stored, and returned.
-     * This ensures that every tag has a corresponding {@code Entry} in the buffer.
+     * Retrieves the {@code Entry} object associated with the specified tag and correlation id.
+     * If no {@code Entry} exists for the given pair, a new {@code Entry} is created, stored, and returned.
+     * This ensures that every pair has a corresponding {@code Entry} in the buffer.
      *
      * @param tag the identifier used to locate or create the corresponding {@code Entry}
-     * @return the {@code Entry} object associated with the specified tag
+     * @param id the correlation id, or 0 for uncorrelated frames
+     * @return the {@code Entry} object associated with the specified tag and id
      */
-    private Entry get(int tag) {
-        Entry e = buf.get(tag);
+    private Entry get(int tag, int id) {
+        long key = key(tag, id);
+        Entry e = buf.get(key);
         if (e == null) {
             e = new Entry();
-            buf.put(tag, e);
+            buf.put(key, e);
         }
         return e;
     }
 
+    /**
+     * Packs a tag and a correlation id into a single map key.
+     *
+     * @param tag the frame tag
+     * @param id the correlation id
+     * @return the combined key
+     */
+    private static long key(int tag, int id) {
+        return ((long) tag << 32) | (id & 0xFFFFFFFFL);
+    }
+
     /**
      * Creates a new instance of {@code Demultiplexer} with the provided {@link TaggedConnection}.
      *
@@ -123,8 +147,8 @@ public class Demultiplexer implements AutoCloseable {
     /**
      * Starts a new thread that continuously listens and processes frames received
      * from the associated TaggedConnection. Each received frame is placed into a
-     * queue corresponding to its tag, and threads waiting for data on that tag
-     * are notified.
+     * queue corresponding to its tag and correlation id, and threads waiting for
+     * data on that pair are notified.
      *
      * The method locks a synchronization mechanism to safely modify shared data
      * structures and handles asynchronous communication.
@@ -140,23 +164,35 @@ public class Demultiplexer implements AutoCloseable {
             try {
                 while (true) {
                     TaggedConnection.Frame frame = conn.receive();
+                    CompletableFuture<byte[]> waiter;
                     lock.lock();
                     try {
-                        Entry e = get(frame.tag);
-                        e.queue.add(frame.data);
-                        e.cond.signal();
+                        waiter = pending.remove(key(frame.tag, frame.id));
+                        if (waiter == null) {
+                            Entry e = get(frame.tag, frame.id);
+                            e.queue.add(frame.data);
+                            e.cond.signal();
+                        }
                     } finally {
                         lock.unlock();
                     }
+                    // Completed outside the lock: dependent stages run on this thread
+                    if (waiter != null) waiter.complete(frame.data);
                 }
             } catch (IOException e) {
+                List<CompletableFuture<byte[]>> waiters;
                 lock.lock();
                 try {
                     exception = e;
                     buf.forEach((k, v) -> v.cond.signalAll());
+                    waiters = new ArrayList<>(pending.values());
+                    pending.clear();
                 } finally {
                     lock.unlock();
                 }
+                for (CompletableFuture<byte[]> waiter : waiters) {
+                    waiter.completeExceptionally(e);
+                }
             }
         }).start();
     }
@@ -175,6 +211,19 @@ public class Demultiplexer implements AutoCloseable {
         conn.send(tag, data);
     }
 
+    /**
+     * Sends a message with the specified tag and correlation id.
+     * The reply is expected to echo the id and can be collected with {@link #receive(int, int)}.
+     *
+     * @param tag the identifier used to categorize or label the message
+     * @param id the correlation id of the request
+     * @param data the byte array containing the message payload to be sent
+     * @throws IOException if an I/O error occurs during the send operation
+     */
+    public void send(int tag, int id, byte[] data) throws IOException {
+        conn.send(tag, id, data);
+    }
+
     /**
      * Receives a message associated with the specified tag.
      *
@@ -188,14 +237,31 @@ public class Demultiplexer implements AutoCloseable {
      * @throws InterruptedException if the thread is interrupted while waiting for data
      */
     public byte[] receive(int tag) throws IOException, InterruptedException {
+        return receive(tag, 0);
+    }
+
+    /**
+     * Receives a message associated with the specified tag and correlation id.
+     *
+     * Blocks until a frame with exactly this tag and id arrives, so several threads can wait
+     * for replies with the same tag without receiving each other's answers.
+     *
+     * @param tag the identifier used to locate the message
+     * @param id the correlation id used when sending the request
+     * @return the byte array containing the retrieved message
+     * @throws IOException if an I/O error occurs during message retrieval
+     * @throws InterruptedException if the thread is interrupted while waiting for data
+     */
+    public byte[] receive(int tag, int id) throws IOException, InterruptedException {
         lock.lock();
         try {
             if (exception != null) throw exception;
-            Entry e = get(tag);
+            Entry e = get(tag, id);
             while (e.queue.isEmpty() && exception == null)
                 e.cond.await();
 
             byte[] res = e.queue.poll();
+            if (id != 0 && e.queue.isEmpty()) buf.remove(key(tag, id));
             if (res != null) return res;
             else throw exception;
         } finally {
@@ -203,6 +269,63 @@ public class Demultiplexer implements AutoCloseable {
         }
     }
 
+    /**
+     * Returns a future completed with the frame carrying the specified tag and correlation id,
+     * without blocking the caller.
+     *
+     * The future must be requested before the request is sent, so the reply cannot be missed.
+     * It is completed by the demultiplexer's reader thread, which runs any non-async dependent
+     * stages itself; those stages must not block, or every other reply on the connection waits.
+     * If the connection fails, the future completes exceptionally with the {@link IOException}.
+     *
+     * @param tag the identifier used to locate the message
+     * @param id the (non-zero) correlation id used when sending the request
+     * @return a future for the payload of the matching frame
+     */
+    public CompletableFuture<byte[]> receiveAsync(int tag, int id) {
+        if (id == 0) throw new IllegalArgumentException("Async receive requires a correlation id");
+
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        byte[] queued = null;
+        IOException failure = null;
+
+        lock.lock();
+        try {
+            long key = key(tag, id);
+            Entry e = buf.get(key);
+            if (e != null && !e.queue.isEmpty()) {
+                queued = e.queue.poll();
+                if (e.queue.isEmpty()) buf.remove(key);
+            } else if (exception != null) {
+                failure = exception;
+            } else {
+                pending.put(key, future);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (queued != null) future.complete(queued);
+        else if (failure != null) future.completeExceptionally(failure);
+        return future;
+    }
+
+    /**
+     * Drops the future registered for a tag and correlation id, if it has not been completed,
+     * for requests that failed to be sent.
+     *
+     * @param tag the frame tag
+     * @param id the correlation id
+     */
+    public void cancelAsync(int tag, int id) {
+        lock.lock();
+        try {
+            pending.remove(key(tag, id));
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Closes the underlying TaggedConnection associated with this Demultiplexer.
      * This method ensures a proper release of resources and terminates the connection.
@@ -0,0 +1,66 @@
+package sd.middleware;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame payload that is encoded incrementally, straight into the sender's output buffers,
+ * instead of being built as a byte array first.
+ *
+ * The length must be known up front, since it goes in the frame header before the payload.
+ * {@link #writeTo(ByteBuffer)} is then called repeatedly with a drained buffer until it reports
+ * that the payload is complete, so a large reply is sent with a constant amount of memory.
+ */
+public interface FramePayload {
+
+    /**
+     * Smallest buffer callers must offer to {@link #writeTo(ByteBuffer)}.
+     */
+    int MIN_BUFFER_SIZE = 256;
+
+    /**
+     * Returns the exact number of bytes the payload encodes to.
+     *
+     * @return the payload length
+     */
+    int length();
+
+    /**
+     * Encodes the next part of the payload into the buffer, writing as much as fits.
+     * Buffers of at least {@value #MIN_BUFFER_SIZE} bytes always make progress.
+     * May be called on a non-blocking server's event loop, so it must only copy data that is
+     * already in memory: anything slow, such as reading or decoding, belongs before the send.
+     *
+     * @param dst the buffer to write into
+     * @return true once the whole payload has been written
+     */
+    boolean writeTo(ByteBuffer dst);
+
+    /**
+     * Returns a payload made of a small fixed prefix followed by another payload.
+     *
+     * @param prefix  the bytes sent first
+     * @param payload the payload sent after the prefix
+     * @return the combined payload
+     */
+    static FramePayload prefixed(byte[] prefix, FramePayload payload) {
+        return new FramePayload() {
+            private int prefixPos = 0;
+
+            @Override
+            public int length() {
+                return prefix.length + payload.length();
+            }
+
+            @Override
+            public boolean writeTo(ByteBuffer dst) {
+                if (prefixPos < prefix.length) {
+                    int n = Math.min(dst.remaining(), prefix.length - prefixPos);
+                    dst.put(prefix, prefixPos, n);
+                    prefixPos += n;
+                    if (prefixPos < prefix.length) return false;
+                }
+                return payload.writeTo(dst);
+            }
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package sd.middleware;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cursor over the payload of a frame, reading the same big-endian encoding as {@link DataInputStream}.
+ *
+ * Unlike a {@code DataInputStream} over a {@code ByteArrayInputStream}, it is a single object with
+ * no internal buffers, reads values straight from the payload array, and can be pointed at another
+ * payload with {@link #reset(byte[])}. Strings made only of ASCII characters, as product names and
+ * credentials usually are, are decoded without intermediate arrays.
+ *
+ * Reading past the end of the payload throws {@link EOFException}, as a stream would. Not thread-safe.
+ */
+public final class FrameReader {
+    private byte[] data;
+    private int pos;
+
+    /**
+     * Creates a reader positioned at the start of a payload.
+     *
+     * @param data the frame payload
+     */
+    public FrameReader(byte[] data) {
+        reset(data);
+    }
+
+    /**
+     * Points the reader at the start of another payload.
+     *
+     * @param data the frame payload
+     * @return this reader
+     */
+    public FrameReader reset(byte[] data) {
+        this.data = data;
+        this.pos = 0;
+        return this;
+    }
+
+    /**
+     * Returns the number of bytes not read yet.
+     *
+     * @return the remaining bytes
+     */
+    public int remaining() {
+        return data.length - pos;
+    }
+
+    public byte readByte() throws IOException {
+        require(1);
+        return data[pos++];
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public short readShort() throws IOException {
+        require(2);
+        short v = (short) (((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF));
+        pos += 2;
+        return v;
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        int v = ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+                | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+        pos += 4;
+        return v;
+    }
+
+    public long readLong() throws IOException {
+        long high = readInt() & 0xFFFFFFFFL;
+        long low = readInt() & 0xFFFFFFFFL;
+        return (high << 32) | low;
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Reads a string in the modified UTF-8 format of {@code DataOutput.writeUTF}.
+     *
+     * @return the string
+     * @throws IOException if the payload ends early or the encoding is malformed
+     */
+    public String readUTF() throws IOException {
+        int length = readShort() & 0xFFFF;
+        require(length);
+
+        int start = pos;
+        for (int i = start; i < start + length; i++) {
+            if (data[i] < 0) {
+                // Multi-byte characters are rare: let DataInputStream decode them
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, start - 2, length + 2));
+                pos = start + length;
+                return in.readUTF();
+            }
+        }
+        pos = start + length;
+        return new String(data, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private void require(int n) throws EOFException {
+        if (data.length - pos < n) throw new EOFException();
+    }
+}
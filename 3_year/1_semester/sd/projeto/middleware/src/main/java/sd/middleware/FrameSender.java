@@ -0,0 +1,182 @@
+package sd.middleware;
+
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents any endpoint capable of delivering tagged frames to a remote peer.
+ *
+ * Request handlers reply through this interface so that they do not depend on the
+ * I/O model used underneath: the blocking {@link TaggedConnection} and the server's
+ * non-blocking channel connections both implement it with the same
+ * tag/id/length/payload frame format.
+ */
+public interface FrameSender extends AutoCloseable {
+
+    /**
+     * Sends a tagged message carrying a correlation id to the remote peer.
+     * Implementations must be safe to call from several threads at once.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request this frame belongs to, or 0 if uncorrelated
+     * @param data the byte array containing the data to be sent
+     * @throws IOException if the frame cannot be delivered
+     */
+    void send(int tag, int id, byte[] data) throws IOException;
+
+    /**
+     * Sends a tagged message whose payload is encoded while it is being sent.
+     * The default implementation encodes it into an array first; implementations override it
+     * to stream the payload through a bounded buffer.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request this frame belongs to, or 0 if uncorrelated
+     * @param payload the payload to encode
+     * @throws IOException if the frame cannot be delivered
+     */
+    default void send(int tag, int id, FramePayload payload) throws IOException {
+        byte[] data = new byte[payload.length()];
+        if (!payload.writeTo(ByteBuffer.wrap(data))) {
+            throw new IOException("Payload maior do que o tamanho anunciado");
+        }
+        send(tag, id, data);
+    }
+
+    /**
+     * Sends a frame whose payload is a single byte, such as a status code.
+     * The default implementation wraps it in an array; implementations override the primitive
+     * sends to write the value straight into their output, without building a payload array.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request this frame belongs to, or 0 if uncorrelated
+     * @param value the byte to send
+     * @throws IOException if the frame cannot be delivered
+     */
+    default void sendByte(int tag, int id, byte value) throws IOException {
+        send(tag, id, new byte[]{value});
+    }
+
+    /**
+     * Sends a frame whose payload is a boolean, encoded as one byte like {@code DataOutput.writeBoolean}.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request this frame belongs to, or 0 if uncorrelated
+     * @param value the boolean to send
+     * @throws IOException if the frame cannot be delivered
+     */
+    default void sendBoolean(int tag, int id, boolean value) throws IOException {
+        sendByte(tag, id, (byte) (value ? 1 : 0));
+    }
+
+    /**
+     * Sends a frame whose payload is a big-endian int.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request this frame belongs to, or 0 if uncorrelated
+     * @param value the int to send
+     * @throws IOException if the frame cannot be delivered
+     */
+    default void sendInt(int tag, int id, int value) throws IOException {
+        send(tag, id, ByteBuffer.allocate(4).putInt(value).array());
+    }
+
+    /**
+     * Sends a frame whose payload is a big-endian long.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request this frame belongs to, or 0 if uncorrelated
+     * @param value the long to send
+     * @throws IOException if the frame cannot be delivered
+     */
+    default void sendLong(int tag, int id, long value) throws IOException {
+        send(tag, id, ByteBuffer.allocate(8).putLong(value).array());
+    }
+
+    /**
+     * Sends a frame whose payload is a double, encoded like {@code DataOutput.writeDouble}.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request this frame belongs to, or 0 if uncorrelated
+     * @param value the double to send
+     * @throws IOException if the frame cannot be delivered
+     */
+    default void sendDouble(int tag, int id, double value) throws IOException {
+        sendLong(tag, id, Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Sends a frame whose payload is a string, encoded like {@code DataOutput.writeUTF}.
+     * The default implementation encodes it into an array first.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request this frame belongs to, or 0 if uncorrelated
+     * @param value the string to send
+     * @throws IOException if the string is too long to encode, or the frame cannot be delivered
+     */
+    default void sendUTF(int tag, int id, String value) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(2 + utfLength(value));
+        putUTF(buf, value);
+        send(tag, id, buf.array());
+    }
+
+    /**
+     * Returns the number of bytes {@code DataOutput.writeUTF} writes for a string, not counting
+     * its two-byte length prefix.
+     *
+     * @param value the string
+     * @return the encoded length
+     * @throws UTFDataFormatException if the string is longer than the format allows
+     */
+    static int utfLength(String value) throws UTFDataFormatException {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == 0 || c > 0x7F) length += (c > 0x7FF) ? 2 : 1;
+        }
+        if (length > 0xFFFF) throw new UTFDataFormatException("String demasiado longa: " + length + " bytes");
+        return length;
+    }
+
+    /**
+     * Writes a string into a buffer exactly as {@code DataOutput.writeUTF} does, length prefix
+     * included. The buffer must have room for {@code 2 + utfLength(value)} bytes.
+     *
+     * @param buf the buffer
+     * @param value the string, at most {@code 0xFFFF} bytes long once encoded
+     */
+    static void putUTF(ByteBuffer buf, String value) {
+        int start = buf.position();
+        buf.putShort((short) 0);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != 0 && c <= 0x7F) {
+                buf.put((byte) c);
+            } else if (c <= 0x7FF) {
+                buf.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buf.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        buf.putShort(start, (short) (buf.position() - start - 2));
+    }
+
+    /**
+     * Sends a tagged message without a correlation id.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param data the byte array containing the data to be sent
+     * @throws IOException if the frame cannot be delivered
+     */
+    default void send(int tag, byte[] data) throws IOException {
+        send(tag, 0, data);
+    }
+
+    /**
+     * Closes the underlying channel.
+     *
+     * @throws IOException if an I/O error occurs while closing
+     */
+    @Override
+    void close() throws IOException;
+}
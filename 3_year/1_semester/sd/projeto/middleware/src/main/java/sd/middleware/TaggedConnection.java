@@ -2,11 +2,14 @@ package sd.middleware;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A TaggedConnection represents a communication channel that sends and receives data
- * encapsulated in tagged frames. Each frame consists of a numerical tag and a data payload.
+ * encapsulated in tagged frames. Each frame consists of a numerical tag, a correlation id
+ * and a data payload. The id lets a peer keep several requests with the same tag in flight
+ * and match each reply to its request; frames that do not need it carry id 0.
  * This class ensures thread-safe operations for sending and receiving data, enabling
  * structured and synchronized communication over a socket.
  *
@@ -14,7 +17,7 @@ import java.util.concurrent.locks.ReentrantLock;
  * meaning resources such as the underlying socket will be properly released when the
  * connection is closed.
  */
-public class TaggedConnection implements AutoCloseable {
+public class TaggedConnection implements FrameSender, AutoCloseable {
 
     /**
      * The underlying Socket used to establish the connection with the remote endpoint.
@@ -58,6 +61,13 @@ public class TaggedConnection implements AutoCloseable {
      */
     private final ReentrantLock sendlock = new ReentrantLock();
 
+    /**
+     * Reusable buffer into which streamed payloads are encoded, one chunk at a time, before being
+     * written to the output stream. As large as the stream's own buffer, so each chunk bypasses it
+     * instead of being copied again. Guarded by {@code sendlock}.
+     */
+    private final ByteBuffer chunk = ByteBuffer.allocate(8192);
+
     /**
      * A lock used to enforce thread-safety when receiving data through the {@code receive} method.
      * Ensures that only one thread can access the underlying input stream at a time,
@@ -66,7 +76,7 @@ public class TaggedConnection implements AutoCloseable {
     private final ReentrantLock receivelock = new ReentrantLock();
 
     /**
-     * Represents a data frame that consists of an immutable identifier (tag) and a byte array payload.
+     * Represents a data frame that consists of an immutable identifier (tag), a correlation id and a byte array payload.
      * Frames are used to encapsulate data with an associated tag for transmission or processing.
      */
     public static class Frame {
@@ -75,6 +85,11 @@ public class TaggedConnection implements AutoCloseable {
          * This variable is immutable and can be used to categorize or distinguish frames.
          */
         public final int tag;
+        /**
+         * The correlation id chosen by the requester and echoed in the reply.
+         * Zero means the frame is not correlated with a specific request.
+         */
+        public final int id;
         /**
          * A byte array representing the data payload associated with a specific frame.
          * This array holds the raw data content and may vary in size depending on the frame's context.
@@ -83,13 +98,25 @@ public class TaggedConnection implements AutoCloseable {
         public final byte[] data;
 
         /**
-         * Constructs a new Frame with the specified tag and data.
+         * Constructs a new Frame with the specified tag and data and no correlation id.
          *
          * @param tag  A unique identifier or marker associated with the frame.
          * @param data A byte array representing the data payload for the frame.
          */
         public Frame(int tag, byte[] data) {
+            this(tag, 0, data);
+        }
+
+        /**
+         * Constructs a new Frame with the specified tag, correlation id and data.
+         *
+         * @param tag  A unique identifier or marker associated with the frame.
+         * @param id   The correlation id of the request the frame belongs to.
+         * @param data A byte array representing the data payload for the frame.
+         */
+        public Frame(int tag, int id, byte[] data) {
             this.tag = tag;
+            this.id = id;
             this.data = data;
         }
     }
@@ -110,18 +137,21 @@ public class TaggedConnection implements AutoCloseable {
     /**
      * Sends a tagged message through the connection.
      *
-     * This method sends a message by writing a numerical tag, the length of the data,
-     * and the data itself to the output stream associated with the connection.
+     * This method sends a message by writing a numerical tag, the correlation id, the length
+     * of the data, and the data itself to the output stream associated with the connection.
      * It ensures thread-safety by locking during the send operation.
      *
      * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request, or 0 if uncorrelated
      * @param data the byte array containing the data to be sent
      * @throws IOException if an I/O error occurs while writing to the output stream
      */
-    public void send(int tag, byte[] data) throws IOException {
+    @Override
+    public void send(int tag, int id, byte[] data) throws IOException {
         sendlock.lock();
         try {
             os.writeInt(tag);
+            os.writeInt(id);
             os.writeInt(data.length);
             os.write(data);
             os.flush();
@@ -131,8 +161,134 @@ public class TaggedConnection implements AutoCloseable {
     }
 
     /**
-     * Receives a tagged frame from the input stream. The method reads the tag and
-     * the length of the frame's data, followed by the data itself, and returns it
+     * Sends a one-byte frame, written straight into the output stream.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request, or 0 if uncorrelated
+     * @param value the byte to send
+     * @throws IOException if an I/O error occurs while writing to the output stream
+     */
+    @Override
+    public void sendByte(int tag, int id, byte value) throws IOException {
+        sendlock.lock();
+        try {
+            os.writeInt(tag);
+            os.writeInt(id);
+            os.writeInt(1);
+            os.writeByte(value);
+            os.flush();
+        } finally {
+            sendlock.unlock();
+        }
+    }
+
+    /**
+     * Sends an int frame, written straight into the output stream.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request, or 0 if uncorrelated
+     * @param value the int to send
+     * @throws IOException if an I/O error occurs while writing to the output stream
+     */
+    @Override
+    public void sendInt(int tag, int id, int value) throws IOException {
+        sendlock.lock();
+        try {
+            os.writeInt(tag);
+            os.writeInt(id);
+            os.writeInt(4);
+            os.writeInt(value);
+            os.flush();
+        } finally {
+            sendlock.unlock();
+        }
+    }
+
+    /**
+     * Sends a long frame, written straight into the output stream.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request, or 0 if uncorrelated
+     * @param value the long to send
+     * @throws IOException if an I/O error occurs while writing to the output stream
+     */
+    @Override
+    public void sendLong(int tag, int id, long value) throws IOException {
+        sendlock.lock();
+        try {
+            os.writeInt(tag);
+            os.writeInt(id);
+            os.writeInt(8);
+            os.writeLong(value);
+            os.flush();
+        } finally {
+            sendlock.unlock();
+        }
+    }
+
+    /**
+     * Sends a string frame, written straight into the output stream.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request, or 0 if uncorrelated
+     * @param value the string to send
+     * @throws IOException if the string is too long to encode, or an I/O error occurs while writing
+     */
+    @Override
+    public void sendUTF(int tag, int id, String value) throws IOException {
+        int length = FrameSender.utfLength(value);
+        sendlock.lock();
+        try {
+            os.writeInt(tag);
+            os.writeInt(id);
+            os.writeInt(2 + length);
+            os.writeUTF(value);
+            os.flush();
+        } finally {
+            sendlock.unlock();
+        }
+    }
+
+    /**
+     * Sends a tagged message whose payload is encoded chunk by chunk straight into the output
+     * stream, so no array of the whole payload is ever built.
+     * The connection is locked for the whole frame, as with {@link #send(int, int, byte[])}.
+     *
+     * @param tag the numerical identifier associated with the message
+     * @param id the correlation id of the request, or 0 if uncorrelated
+     * @param payload the payload to encode
+     * @throws IOException if an I/O error occurs, or the payload does not match its announced length
+     */
+    @Override
+    public void send(int tag, int id, FramePayload payload) throws IOException {
+        sendlock.lock();
+        try {
+            int length = payload.length();
+            os.writeInt(tag);
+            os.writeInt(id);
+            os.writeInt(length);
+
+            long written = 0;
+            boolean done;
+            do {
+                chunk.clear();
+                done = payload.writeTo(chunk);
+                os.write(chunk.array(), 0, chunk.position());
+                written += chunk.position();
+            } while (!done);
+
+            if (written != length) {
+                throw new IOException("Payload com tamanho diferente do anunciado: " + written + " != " + length);
+            }
+            os.flush();
+        } finally {
+            sendlock.unlock();
+        }
+    }
+
+    /**
+     * Receives a tagged frame from the input stream. The method reads the tag, the correlation id
+     * and the length of the frame's data, followed by the data itself, and returns it
      * encapsulated in a Frame object. This method ensures thread-safety by utilizing
      * a lock during the read operation.
      *
@@ -144,10 +300,11 @@ public class TaggedConnection implements AutoCloseable {
         receivelock.lock();
         try {
             int tag = is.readInt();
+            int id = is.readInt();
             int len = is.readInt();
             byte[] data = new byte[len];
             is.readFully(data);
-            return new Frame(tag, data);
+            return new Frame(tag, id, data);
         } finally {
             receivelock.unlock();
         }
@@ -158,6 +315,7 @@ public class TaggedConnection implements AutoCloseable {
      *
      * @throws IOException if an I/O error occurs while closing the connection
      */
+    @Override
     public void close() throws IOException {
         s.close();
     }
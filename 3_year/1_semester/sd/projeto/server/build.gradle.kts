@@ -21,4 +21,41 @@ tasks.register<Delete>("cleanData") {
     doLast {
         println("✔ Conteúdo de 'data' eliminado.")
     }
-}
\ No newline at end of file
+}
+
+tasks.register<JavaExec>("backfillSummaries") {
+    group = "application"
+    description = "Generates the missing summary_*.dat files for the stored series."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("sd.series.SummaryBackfill")
+    workingDir = projectDir
+}
+
+tasks.register<JavaExec>("convertSeries") {
+    group = "application"
+    description = "Rewrites the stored series_*.dat files still in the legacy format in the current format (with --compress, in the compressed format)."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("sd.series.SeriesFormatConverter")
+    workingDir = projectDir
+}
+
+// Micro-benchmarks live in their own source set, outside the server jar
+sourceSets {
+    create("bench") {
+        compileClasspath += sourceSets["main"].output + sourceSets["main"].compileClasspath
+        runtimeClasspath += sourceSets["main"].output + sourceSets["main"].runtimeClasspath
+    }
+}
+
+dependencies {
+    // End-to-end benchmarks drive a real server through the client library
+    "benchImplementation"(project(":client"))
+}
+
+tasks.register<JavaExec>("bench") {
+    group = "verification"
+    description = "Runs a server micro-benchmark: --args=\"<name> [options]\"."
+    classpath = sourceSets["bench"].runtimeClasspath
+    mainClass.set("sd.bench.Bench")
+    workingDir = projectDir
+}
@@ -0,0 +1,51 @@
+package sd.bench;
+
+import java.util.Arrays;
+
+/**
+ * Entry point of the server micro-benchmarks, run with {@code ./gradlew :server:bench --args="<name> [options]"}.
+ *
+ * JMH is not available in the offline build of this project, so each benchmark is a plain
+ * multi-threaded driver with warm-up and timed rounds. Numbers are only comparable between
+ * runs on the same machine.
+ */
+public final class Bench {
+
+    private Bench() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String name = (args.length >= 1) ? args[0] : "";
+        String[] rest = (args.length >= 1) ? Arrays.copyOfRange(args, 1, args.length) : args;
+
+        switch (name) {
+            case "cache":
+                CacheBenchmark.main(rest);
+                break;
+            case "compression":
+                CompressionBenchmark.main(rest);
+                break;
+            case "layout":
+                LayoutBenchmark.main(rest);
+                break;
+            case "notify":
+                NotificationBenchmark.main(rest);
+                break;
+            case "query":
+                QueryBenchmark.main(rest);
+                break;
+            case "range":
+                RangeFilterBenchmark.main(rest);
+                break;
+            case "wal":
+                WalBenchmark.main(rest);
+                break;
+            case "warmup":
+                WarmupBenchmark.main(rest);
+                break;
+            default:
+                System.err.println("Uso: bench <cache|compression|layout|notify|query|range|wal|warmup> [opções]");
+                System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package sd.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * File helpers shared by the benchmarks.
+ */
+final class BenchFiles {
+
+    private BenchFiles() {
+    }
+
+    /**
+     * Deletes a temporary benchmark directory and everything in it.
+     *
+     * @param dir the directory to delete
+     * @throws IOException if a file cannot be deleted
+     */
+    static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
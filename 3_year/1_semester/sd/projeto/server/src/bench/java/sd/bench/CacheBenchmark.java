@@ -0,0 +1,147 @@
+package sd.bench;
+
+import sd.series.SeriesFileManager;
+import sd.series.TimeSeries;
+import sd.server.ServerCache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures cache hit throughput of {@link ServerCache#getSeries} against the previous design,
+ * an access-ordered LinkedHashMap behind a write lock, reproduced in {@link LockedLru}.
+ *
+ * Every thread repeatedly looks up random days that are all resident, so only the hit path is
+ * measured. Each configuration runs a warm-up round and then {@link #ROUNDS} timed rounds.
+ *
+ * Usage: {@code ./gradlew :server:bench --args="cache [maxThreads]"}
+ */
+public final class CacheBenchmark {
+    private static final int CACHED_DAYS = 32;
+    private static final long ROUND_MILLIS = 1000;
+    private static final int ROUNDS = 3;
+
+    private CacheBenchmark() {
+    }
+
+    /**
+     * The previous ServerCache hit path: {@code get()} reorders the map, so every hit takes the write lock.
+     */
+    static final class LockedLru {
+        private final LinkedHashMap<LocalDate, TimeSeries> map = new LinkedHashMap<>(16, 0.75f, true);
+        private final ReentrantReadWriteLock.WriteLock writeLock = new ReentrantReadWriteLock().writeLock();
+
+        void put(LocalDate date, TimeSeries series) {
+            writeLock.lock();
+            try {
+                map.put(date, series);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        TimeSeries get(LocalDate date) {
+            writeLock.lock();
+            try {
+                return map.get(date);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private interface Lookup {
+        TimeSeries get(LocalDate date) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = (args.length >= 1) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+
+        Path dir = Files.createTempDirectory("cache-bench");
+        ServerCache cache = new ServerCache(CACHED_DAYS, new SeriesFileManager(dir.toString()));
+        LockedLru legacy = new LockedLru();
+
+        LocalDate[] days = new LocalDate[CACHED_DAYS];
+        LocalDate first = LocalDate.of(2020, 1, 1);
+        for (int i = 0; i < CACHED_DAYS; i++) {
+            days[i] = first.plusDays(i);
+            TimeSeries series = new TimeSeries(days[i], false);
+            cache.putSeries(days[i], series);
+            legacy.put(days[i], series);
+        }
+
+        System.out.println(String.format("%-8s | %-18s | %-18s | %-8s", "Threads", "Locked LRU", "ServerCache", "Gain"));
+        System.out.println("----------------------------------------------------------------");
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            double locked = measure(threads, days, legacy::get);
+            double concurrent = measure(threads, days, cache::getSeries);
+            System.out.println(String.format("%8d | %12.0f ops/s | %12.0f ops/s | %7.2fx",
+                    threads, locked, concurrent, concurrent / locked));
+            if (threads == maxThreads) break;
+        }
+
+        BenchFiles.deleteRecursively(dir);
+    }
+
+    /**
+     * Runs one warm-up round and {@link #ROUNDS} timed rounds of concurrent lookups.
+     *
+     * @return the average throughput of the timed rounds, in lookups per second
+     */
+    private static double measure(int threads, LocalDate[] days, Lookup lookup) throws InterruptedException {
+        round(threads, days, lookup);
+
+        double total = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            total += round(threads, days, lookup);
+        }
+        return total / ROUNDS;
+    }
+
+    private static double round(int threads, LocalDate[] days, Lookup lookup) throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long done = 0;
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline[0]) {
+                        for (int i = 0; i < 256; i++) {
+                            if (lookup.get(days[random.nextInt(days.length)]) == null) {
+                                throw new IllegalStateException("miss");
+                            }
+                        }
+                        done += 256;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                ops.add(done);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        long begin = System.nanoTime();
+        deadline[0] = begin + ROUND_MILLIS * 1_000_000;
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+
+        double seconds = (System.nanoTime() - begin) / 1_000_000_000.0;
+        return ops.sum() / seconds;
+    }
+}
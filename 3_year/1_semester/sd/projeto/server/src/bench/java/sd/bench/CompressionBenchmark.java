@@ -0,0 +1,137 @@
+package sd.bench;
+
+import sd.series.FilteredEvents;
+import sd.series.SalesEvent;
+import sd.series.SeriesFileManager;
+import sd.series.TimeSeries;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Compares the v2 (fixed-width records) and the compressed v3 series file formats: bytes on disk,
+ * time to write a history, and time to load it back, both opening each day (directory only, as
+ * aggregations and the cache do) and encoding a FILTER_EVENTS reply with every product of each day
+ * (which reads every record).
+ *
+ * Days are synthetic but shaped like real ones: sales arrive in time order with irregular gaps,
+ * and each product is sold at a few prices. Load times are measured with the files in the page
+ * cache, so they show the CPU cost of each format; cold reads additionally pay for the bytes listed.
+ *
+ * Usage: {@code ./gradlew :server:bench --args="compression [days] [eventsPerDay]"}
+ */
+public final class CompressionBenchmark {
+    private static final int PRODUCTS = 20;
+    private static final int PRICES_PER_PRODUCT = 4;
+    private static final int ROUNDS = 3;
+
+    private CompressionBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int days = (args.length >= 1) ? Integer.parseInt(args[0]) : 30;
+        int eventsPerDay = (args.length >= 2) ? Integer.parseInt(args[1]) : 50_000;
+
+        TimeSeries[] history = new TimeSeries[days];
+        LocalDate first = LocalDate.of(2020, 1, 1);
+        Random random = new Random(42);
+        for (int d = 0; d < days; d++) {
+            history[d] = syntheticDay(first.plusDays(d), eventsPerDay, random);
+        }
+
+        Set<String> products = new HashSet<>();
+        for (int p = 0; p < PRODUCTS; p++) {
+            products.add("Prod" + p);
+        }
+
+        System.out.println("Days: " + days + ", events/day: " + eventsPerDay + ", products: " + PRODUCTS);
+        System.out.println(String.format("%-6s | %-12s | %-11s | %-10s | %-10s | %-10s",
+                "Format", "Bytes", "Bytes/event", "Write ms", "Open ms", "Scan ms"));
+        System.out.println("-------------------------------------------------------------------------");
+        long v2 = run("v2", false, history, products, (long) days * eventsPerDay);
+        long v3 = run("v3", true, history, products, (long) days * eventsPerDay);
+        System.out.println(String.format("Size ratio: %.2fx smaller", (double) v2 / v3));
+    }
+
+    private static long run(String label, boolean compressed, TimeSeries[] history, Set<String> products,
+                            long events) throws IOException {
+        Path dir = Files.createTempDirectory("compression-bench");
+        try {
+            SeriesFileManager fileManager = new SeriesFileManager(dir.toString(), compressed);
+
+            long start = System.nanoTime();
+            for (TimeSeries day : history) {
+                fileManager.saveTimeSeries(day, day.getDate());
+            }
+            double writeMs = (System.nanoTime() - start) / 1e6;
+
+            long bytes;
+            try (Stream<Path> files = Files.list(dir)) {
+                bytes = files.filter(f -> f.getFileName().toString().startsWith("series_"))
+                        .mapToLong(f -> f.toFile().length()).sum();
+            }
+
+            // Warm-up, then timed rounds
+            load(fileManager, history, products, true);
+            double openMs = 0, scanMs = 0;
+            for (int r = 0; r < ROUNDS; r++) {
+                start = System.nanoTime();
+                load(fileManager, history, products, false);
+                openMs += (System.nanoTime() - start) / 1e6;
+
+                start = System.nanoTime();
+                long scanned = load(fileManager, history, products, true);
+                scanMs += (System.nanoTime() - start) / 1e6;
+                if (scanned != events) {
+                    throw new IllegalStateException("Eventos lidos: " + scanned + " != " + events);
+                }
+            }
+
+            System.out.println(String.format("%-6s | %12d | %11.1f | %10.1f | %10.1f | %10.1f",
+                    label, bytes, (double) bytes / events, writeMs, openMs / ROUNDS, scanMs / ROUNDS));
+            return bytes;
+        } finally {
+            BenchFiles.deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Loads every day and, if asked, encodes a reply filtering all of its products.
+     *
+     * @return the number of events encoded
+     */
+    private static long load(SeriesFileManager fileManager, TimeSeries[] history, Set<String> products,
+                             boolean scan) throws IOException {
+        long events = 0;
+        for (TimeSeries day : history) {
+            TimeSeries loaded = fileManager.loadTimeSeries(day.getDate());
+            if (scan) {
+                FilteredEvents reply = loaded.filterEvents(products);
+                reply.writeTo(ByteBuffer.allocate(reply.length()));
+                events += reply.getEventCount();
+            }
+        }
+        return events;
+    }
+
+    private static TimeSeries syntheticDay(LocalDate date, int events, Random random) {
+        TimeSeries series = new TimeSeries(date, true);
+        LocalDateTime time = date.atTime(8, 0);
+        for (int i = 0; i < events; i++) {
+            int product = random.nextInt(PRODUCTS);
+            double price = 5.0 + product + 0.5 * random.nextInt(PRICES_PER_PRODUCT);
+            time = time.plusNanos(200_000L + random.nextInt(1_000_000));
+            series.addEvent(new SalesEvent("Prod" + product, 1 + random.nextInt(5), price, time));
+        }
+        series.freeze();
+        return series;
+    }
+}
@@ -0,0 +1,70 @@
+package sd.bench;
+
+import sd.series.SalesEvent;
+import sd.series.TimeSeries;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the heap retained by a day of sales in the live (current day) layout and in the frozen
+ * columnar layout used for closed days, by building several identical days and measuring the used
+ * heap after a forced GC.
+ *
+ * Usage: {@code ./gradlew :server:bench --args="layout [eventsPerProduct] [products]"}
+ */
+public final class LayoutBenchmark {
+    private static final int DAYS = 8;
+
+    private LayoutBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int eventsPerProduct = (args.length >= 1) ? Integer.parseInt(args[0]) : 20_000;
+        int products = (args.length >= 2) ? Integer.parseInt(args[1]) : 10;
+
+        long live = bytesPerDay(eventsPerProduct, products, false);
+        long frozen = bytesPerDay(eventsPerProduct, products, true);
+        long events = (long) eventsPerProduct * products;
+
+        System.out.println(String.format("%-8s | %-14s | %-14s", "Layout", "Bytes/day", "Bytes/event"));
+        System.out.println("------------------------------------------");
+        System.out.println(String.format("%-8s | %14d | %14.1f", "live", live, (double) live / events));
+        System.out.println(String.format("%-8s | %14d | %14.1f", "frozen", frozen, (double) frozen / events));
+        System.out.println(String.format("Days in the same heap: %.1fx", (double) live / frozen));
+    }
+
+    private static long bytesPerDay(int eventsPerProduct, int products, boolean freeze) {
+        long before = usedHeap();
+
+        List<TimeSeries> days = new ArrayList<>();
+        LocalDate first = LocalDate.of(2020, 1, 1);
+        for (int d = 0; d < DAYS; d++) {
+            TimeSeries series = new TimeSeries(first.plusDays(d), true);
+            LocalDateTime time = first.plusDays(d).atStartOfDay();
+            for (int p = 0; p < products; p++) {
+                String name = "Prod" + p;
+                for (int i = 0; i < eventsPerProduct; i++) {
+                    series.addEvent(new SalesEvent(name, 1 + i % 5, 10.0 + i % 7, time.plusNanos(i * 1000L)));
+                }
+            }
+            if (freeze) series.freeze();
+            days.add(series);
+        }
+
+        long after = usedHeap();
+        if (days.size() != DAYS) throw new IllegalStateException();
+        return (after - before) / DAYS;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try { Thread.sleep(100); } catch (InterruptedException ignored) {}
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,180 @@
+package sd.bench;
+
+import sd.series.SalesEvent;
+import sd.server.NotificationManager;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures the cost of {@link NotificationManager#registerSale} with many live pair watches
+ * against the previous design, which checked every pending pair on every sale, reproduced in
+ * {@link ScanningPairs}.
+ *
+ * Watches are registered through listeners, so tens of thousands of them do not need a parked
+ * thread each. Pairs and sales are drawn uniformly from the same set of products; the day is
+ * long enough that most products sell, so most watches complete during the measured sales. The
+ * previous design only runs the first sales of the day, since each of them costs a full scan.
+ *
+ * Usage: {@code ./gradlew :server:bench --args="notify [products] [subscriptions...]"}
+ */
+public final class NotificationBenchmark {
+    private static final int SALES = 200_000;
+    private static final int SCAN_SALES = 2_000;
+    private static final int ROUNDS = 3;
+
+    private NotificationBenchmark() {
+    }
+
+    /**
+     * The previous pair matching: one entry per pair, every one checked with containsAll on every sale.
+     */
+    static final class ScanningPairs {
+        private final Set<String> soldToday = new HashSet<>();
+        // Subscriptions per pair, and how many of them were signalled
+        private final Map<Set<String>, int[]> pairs = new HashMap<>();
+
+        void watch(String p1, String p2) {
+            pairs.computeIfAbsent(p1.equals(p2) ? Set.of(p1) : Set.of(p1, p2), k -> new int[2])[0]++;
+        }
+
+        void registerSale(String product) {
+            soldToday.add(product);
+            for (Map.Entry<Set<String>, int[]> entry : pairs.entrySet()) {
+                if (soldToday.containsAll(entry.getKey())) {
+                    // signalAll: waiters woken once, later signals find nobody
+                    entry.getValue()[1] = entry.getValue()[0];
+                }
+            }
+        }
+
+        long signalled() {
+            long total = 0;
+            for (int[] count : pairs.values()) total += count[1];
+            return total;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int products = (args.length >= 1) ? Integer.parseInt(args[0]) : 5_000;
+        int[] subscriptions = (args.length >= 2) ? new int[args.length - 1] : new int[] {10_000, 100_000};
+        for (int i = 1; i < args.length; i++) {
+            subscriptions[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        String[] names = new String[products];
+        for (int p = 0; p < products; p++) {
+            names[p] = "Prod" + p;
+        }
+        Random random = new Random(42);
+        SalesEvent[] sales = new SalesEvent[SALES];
+        LocalDateTime time = LocalDateTime.of(2020, 1, 1, 8, 0);
+        for (int i = 0; i < SALES; i++) {
+            sales[i] = new SalesEvent(names[random.nextInt(products)], 1, 10.0, time.plusNanos(i * 1000L));
+        }
+
+        System.out.println("Products: " + products + ", sales/day: " + SALES);
+        System.out.println(String.format("%-13s | %-9s | %-11s | %-7s | %-11s | %-8s",
+                "Subscriptions", "Design", "Register ms", "Sales", "ns/sale", "Fired"));
+        System.out.println("--------------------------------------------------------------------------");
+        for (int count : subscriptions) {
+            int[][] pairs = new int[count][2];
+            for (int s = 0; s < count; s++) {
+                pairs[s][0] = random.nextInt(products);
+                pairs[s][1] = random.nextInt(products);
+            }
+
+            // The first sales are run by both designs, to check they fire the same watches
+            long scanFired = scanning(names, pairs, sales, true);
+            long indexFired = indexed(names, pairs, sales, SCAN_SALES, true);
+            if (scanFired != indexFired) {
+                throw new IllegalStateException("Notificações diferentes: " + scanFired + " != " + indexFired);
+            }
+
+            indexed(names, pairs, sales, SALES, false);
+            scanning(names, pairs, sales, false);
+        }
+    }
+
+    /**
+     * Runs rounds of a day with the indexed NotificationManager.
+     *
+     * @return the number of listeners that saw their pair complete in the last round
+     */
+    private static long indexed(String[] names, int[][] pairs, SalesEvent[] sales, int salesPerRound,
+                                boolean quiet) {
+        long fired = 0;
+        double registerMs = 0, saleNs = 0;
+        for (int round = 0; round < (quiet ? 1 : ROUNDS + 1); round++) {
+            NotificationManager manager = new NotificationManager();
+            long[] met = new long[1];
+            NotificationManager.Listener listener = m -> {
+                if (m) met[0]++;
+            };
+
+            long start = System.nanoTime();
+            for (int[] pair : pairs) {
+                manager.watchSimultaneous(names[pair[0]], names[pair[1]], listener);
+            }
+            long registered = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < salesPerRound; i++) {
+                manager.registerSale(sales[i]);
+            }
+            long sold = System.nanoTime() - start;
+            manager.startNewDay();
+
+            // Round 0 is the warm-up
+            if (round > 0) {
+                registerMs += registered / 1e6;
+                saleNs += (double) sold / salesPerRound;
+            }
+            fired = met[0];
+        }
+        if (!quiet) print(pairs.length, "indexed", registerMs / ROUNDS, salesPerRound, saleNs / ROUNDS, fired);
+        return fired;
+    }
+
+    /**
+     * Runs rounds of {@link #SCAN_SALES} sales with the previous design; it is too slow for a full day.
+     *
+     * @return the number of subscriptions signalled in the last round
+     */
+    private static long scanning(String[] names, int[][] pairs, SalesEvent[] sales, boolean quiet) {
+        long fired = 0;
+        double registerMs = 0, saleNs = 0;
+        for (int round = 0; round < (quiet ? 1 : ROUNDS + 1); round++) {
+            ScanningPairs scan = new ScanningPairs();
+
+            long start = System.nanoTime();
+            for (int[] pair : pairs) {
+                scan.watch(names[pair[0]], names[pair[1]]);
+            }
+            long registered = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < SCAN_SALES; i++) {
+                scan.registerSale(sales[i].getName());
+            }
+            long sold = System.nanoTime() - start;
+
+            if (round > 0) {
+                registerMs += registered / 1e6;
+                saleNs += (double) sold / SCAN_SALES;
+            }
+            fired = scan.signalled();
+        }
+        if (!quiet) print(pairs.length, "scan", registerMs / ROUNDS, SCAN_SALES, saleNs / ROUNDS, fired);
+        return fired;
+    }
+
+    private static void print(int subscriptions, String design, double registerMs, int sales, double saleNs, long fired) {
+        System.out.println(String.format("%13d | %-9s | %11.1f | %7d | %11.0f | %8d",
+                subscriptions, design, registerMs, sales, saleNs, fired));
+    }
+}
@@ -0,0 +1,238 @@
+package sd.bench;
+
+import sd.common.Comparison;
+import sd.common.Metric;
+import sd.series.SalesEvent;
+import sd.server.NotificationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the cost per sale of continuous queries in the {@link NotificationManager}, whose
+ * windows are shared and whose thresholds are indexed, against evaluating every query on its own,
+ * reproduced in {@link IsolatedQueries}: one window per query, updated and tested on every sale of
+ * its product.
+ *
+ * Queries mix the four metrics, both comparisons and windows of one minute, five minutes, one
+ * hour and the whole day, with thresholds around the values the metric takes, so they keep
+ * firing during the day. Both designs must fire the same number of times.
+ *
+ * Usage: {@code ./gradlew :server:bench --args="query [products] [queries...]"}
+ */
+public final class QueryBenchmark {
+    private static final int SALES = 200_000;
+    private static final int ROUNDS = 3;
+    private static final long[] WINDOWS = {60, 300, 3600, 0};
+
+    private QueryBenchmark() {
+    }
+
+    /**
+     * One query, as compiled by the server.
+     */
+    private static final class Query {
+        final String product;
+        final byte metric;
+        final long windowSeconds;
+        final byte comparison;
+        final double threshold;
+
+        Query(String product, byte metric, long windowSeconds, byte comparison, double threshold) {
+            this.product = product;
+            this.metric = metric;
+            this.windowSeconds = windowSeconds;
+            this.comparison = comparison;
+            this.threshold = threshold;
+        }
+    }
+
+    /**
+     * Every query with its own window, all of them tested on every sale of their product.
+     */
+    static final class IsolatedQueries {
+        private static final class State {
+            final Query query;
+            final long lengthNanos;
+            final ArrayDeque<SalesEvent> events = new ArrayDeque<>();
+            LocalDateTime newest;
+            long sales, quantity;
+            double volume, price;
+            boolean held;
+
+            State(Query query) {
+                this.query = query;
+                this.lengthNanos = query.windowSeconds * 1_000_000_000L;
+            }
+        }
+
+        private final Map<String, List<State>> byProduct = new HashMap<>();
+        long fired;
+
+        void register(Query query) {
+            byProduct.computeIfAbsent(query.product, k -> new ArrayList<>()).add(new State(query));
+        }
+
+        void registerSale(SalesEvent event) {
+            List<State> states = byProduct.get(event.getName());
+            if (states == null) return;
+            for (State s : states) {
+                s.sales++;
+                s.quantity += event.getQuantity();
+                s.volume += event.getTotalValue();
+                s.price = event.getPrice();
+                if (s.lengthNanos != 0) {
+                    s.events.addLast(event);
+                    if (s.newest == null || event.getDate().isAfter(s.newest)) s.newest = event.getDate();
+                    LocalDateTime limit = s.newest.minusNanos(s.lengthNanos);
+                    while (!s.events.isEmpty() && !s.events.peekFirst().getDate().isAfter(limit)) {
+                        SalesEvent old = s.events.pollFirst();
+                        s.quantity -= old.getQuantity();
+                        s.volume -= old.getTotalValue();
+                    }
+                    if (s.events.isEmpty()) s.volume = 0;
+                }
+
+                double value;
+                switch (s.query.metric) {
+                    case Metric.QUANTITY: value = s.quantity; break;
+                    case Metric.VOLUME: value = s.volume; break;
+                    case Metric.AVERAGE_PRICE: value = (s.quantity != 0) ? s.volume / s.quantity : Double.NaN; break;
+                    default: value = s.price;
+                }
+                boolean holds = (s.query.comparison == Comparison.ABOVE)
+                        ? value > s.query.threshold : value < s.query.threshold;
+                if (holds && !s.held) fired++;
+                s.held = holds;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int products = (args.length >= 1) ? Integer.parseInt(args[0]) : 200;
+        int[] counts = (args.length >= 2) ? new int[args.length - 1] : new int[] {1_000, 10_000, 100_000};
+        for (int i = 1; i < args.length; i++) {
+            counts[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        String[] names = new String[products];
+        for (int p = 0; p < products; p++) {
+            names[p] = "Prod" + p;
+        }
+        Random random = new Random(42);
+        // A day of sales, 0.4 s apart, so a product sells about once every 80 s with 200 products
+        SalesEvent[] sales = new SalesEvent[SALES];
+        LocalDateTime time = LocalDateTime.of(2020, 1, 1, 0, 0);
+        for (int i = 0; i < SALES; i++) {
+            sales[i] = new SalesEvent(names[random.nextInt(products)], 1 + random.nextInt(5),
+                    10 + random.nextInt(91), time.plusNanos(i * 400_000_000L));
+        }
+        double salesPerSecond = (double) SALES / products / (SALES * 0.4);
+
+        System.out.println("Products: " + products + ", sales/day: " + SALES);
+        System.out.println(String.format("%-8s | %-9s | %-11s | %-9s | %-8s",
+                "Queries", "Design", "Register ms", "ns/sale", "Fired"));
+        System.out.println("--------------------------------------------------------");
+        for (int count : counts) {
+            Query[] queries = new Query[count];
+            for (int q = 0; q < count; q++) {
+                byte metric = (byte) random.nextInt(Metric.COUNT);
+                long window = (metric == Metric.PRICE) ? 0 : WINDOWS[random.nextInt(WINDOWS.length)];
+                // Sales expected in the window; the whole day's grows up to a day's worth
+                double expected = Math.max(1, ((window == 0) ? 86_400 : window) * salesPerSecond);
+                double threshold;
+                switch (metric) {
+                    case Metric.QUANTITY: threshold = random.nextDouble() * 6 * expected; break;
+                    case Metric.VOLUME: threshold = random.nextDouble() * 330 * expected; break;
+                    default: threshold = 10 + random.nextInt(91);
+                }
+                byte comparison = random.nextBoolean() ? Comparison.ABOVE : Comparison.BELOW;
+                queries[q] = new Query(names[random.nextInt(products)], metric, window, comparison, threshold);
+            }
+
+            long sharedFired = shared(queries, sales);
+            long isolatedFired = isolated(queries, sales);
+            if (sharedFired != isolatedFired) {
+                throw new IllegalStateException("Notificações diferentes: " + sharedFired + " != " + isolatedFired);
+            }
+        }
+    }
+
+    /**
+     * Runs rounds of a day with the queries registered in a {@link NotificationManager}.
+     *
+     * @return the number of matches in the last round
+     */
+    private static long shared(Query[] queries, SalesEvent[] sales) {
+        long fired = 0;
+        double registerMs = 0, saleNs = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            NotificationManager manager = new NotificationManager();
+            long[] matches = new long[1];
+            Runnable onMatch = () -> matches[0]++;
+
+            long start = System.nanoTime();
+            for (Query q : queries) {
+                manager.subscribeQuery(q.product, q.metric, q.windowSeconds, q.comparison, q.threshold, onMatch);
+            }
+            long registered = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (SalesEvent sale : sales) {
+                manager.registerSale(sale);
+            }
+            long sold = System.nanoTime() - start;
+
+            // Round 0 is the warm-up
+            if (round > 0) {
+                registerMs += registered / 1e6;
+                saleNs += (double) sold / sales.length;
+            }
+            fired = matches[0];
+        }
+        print(queries.length, "shared", registerMs / ROUNDS, saleNs / ROUNDS, fired);
+        return fired;
+    }
+
+    /**
+     * Runs rounds of a day with every query evaluated on its own.
+     *
+     * @return the number of matches in the last round
+     */
+    private static long isolated(Query[] queries, SalesEvent[] sales) {
+        long fired = 0;
+        double registerMs = 0, saleNs = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            IsolatedQueries isolated = new IsolatedQueries();
+
+            long start = System.nanoTime();
+            for (Query q : queries) {
+                isolated.register(q);
+            }
+            long registered = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (SalesEvent sale : sales) {
+                isolated.registerSale(sale);
+            }
+            long sold = System.nanoTime() - start;
+
+            if (round > 0) {
+                registerMs += registered / 1e6;
+                saleNs += (double) sold / sales.length;
+            }
+            fired = isolated.fired;
+        }
+        print(queries.length, "isolated", registerMs / ROUNDS, saleNs / ROUNDS, fired);
+        return fired;
+    }
+
+    private static void print(int queries, String design, double registerMs, double saleNs, long fired) {
+        System.out.println(String.format("%8d | %-9s | %11.1f | %9.0f | %8d", queries, design, registerMs, saleNs, fired));
+    }
+}
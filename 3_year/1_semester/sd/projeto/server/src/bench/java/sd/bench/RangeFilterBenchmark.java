@@ -0,0 +1,157 @@
+package sd.bench;
+
+import sd.client.SalesClient;
+import sd.series.SalesEvent;
+import sd.series.SeriesFileManager;
+import sd.series.TimeSeries;
+import sd.server.NotificationManager;
+import sd.server.ServerCache;
+import sd.server.ServerState;
+import sd.server.ServerWorker;
+import sd.server.UserManager;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares filtering the same products over the last N days with one FILTER_EVENTS request per day
+ * (sequential round trips, one day loaded at a time) against a single FILTER_RANGE request
+ * (days loaded and filtered in parallel, streamed back in date order).
+ *
+ * A temporary data directory is filled with synthetic days and served by an in-process blocking
+ * server on a loopback port. The cache holds far fewer days than the range, so most days are read
+ * from their (memory-mapped) files on every round.
+ *
+ * Usage: {@code ./gradlew :server:bench --args="range [days] [eventsPerDay] [cacheSize]"}
+ */
+public final class RangeFilterBenchmark {
+    private static final int PRODUCTS = 20;
+    private static final int FILTERED_PRODUCTS = 5;
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int ROUNDS = 5;
+
+    private RangeFilterBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int days = (args.length >= 1) ? Integer.parseInt(args[0]) : 90;
+        int eventsPerDay = (args.length >= 2) ? Integer.parseInt(args[1]) : 20_000;
+        int cacheSize = (args.length >= 3) ? Integer.parseInt(args[2]) : 8;
+
+        Path dir = Files.createTempDirectory("range-bench");
+        ExecutorService requests = Executors.newCachedThreadPool();
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            LocalDate today = LocalDate.of(2020, 1, 1).plusDays(days);
+            SeriesFileManager fileManager = new SeriesFileManager(dir.toString());
+            writeDays(fileManager, today, days, eventsPerDay);
+
+            NotificationManager notificationManager = new NotificationManager();
+            ServerState state = new ServerState(notificationManager, new ServerCache(cacheSize, fileManager), days, today);
+            UserManager users = new UserManager();
+            startServer(serverSocket, users, state, notificationManager, requests);
+
+            SalesClient client = new SalesClient();
+            client.connect("localhost", serverSocket.getLocalPort());
+            client.register("bench", "bench");
+            client.login("bench", "bench");
+
+            Set<String> products = new HashSet<>();
+            for (int p = 0; p < FILTERED_PRODUCTS; p++) {
+                products.add("Prod" + p);
+            }
+
+            System.out.println("Days: " + days + ", events/day: " + eventsPerDay + ", cache: " + cacheSize
+                    + ", filtered products: " + FILTERED_PRODUCTS + "/" + PRODUCTS);
+            System.out.println(String.format("%-12s | %-10s | %-10s", "Mode", "ms/query", "Events"));
+            System.out.println("----------------------------------------");
+
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                loop(client, days, products);
+                range(client, days, products);
+            }
+
+            long loopNanos = 0, rangeNanos = 0, loopEvents = 0, rangeEvents = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                loopEvents = loop(client, days, products);
+                loopNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                rangeEvents = range(client, days, products);
+                rangeNanos += System.nanoTime() - start;
+            }
+            if (loopEvents != rangeEvents) {
+                throw new IllegalStateException("Resultados diferentes: " + loopEvents + " != " + rangeEvents);
+            }
+
+            double loopMs = loopNanos / 1e6 / ROUNDS;
+            double rangeMs = rangeNanos / 1e6 / ROUNDS;
+            System.out.println(String.format("%-12s | %10.1f | %10d", "loop", loopMs, loopEvents));
+            System.out.println(String.format("%-12s | %10.1f | %10d", "range", rangeMs, rangeEvents));
+            System.out.println(String.format("Speed-up: %.2fx", loopMs / rangeMs));
+
+            client.close();
+        } finally {
+            requests.shutdownNow();
+            BenchFiles.deleteRecursively(dir);
+        }
+    }
+
+    private static long loop(SalesClient client, int days, Set<String> products) throws IOException, InterruptedException {
+        long events = 0;
+        for (int back = days; back >= 1; back--) {
+            events += client.filterEvents(back, products).size();
+        }
+        return events;
+    }
+
+    private static long range(SalesClient client, int days, Set<String> products) throws IOException, InterruptedException {
+        long events = 0;
+        for (List<String> day : client.filterRange(days, products).values()) {
+            events += day.size();
+        }
+        return events;
+    }
+
+    private static void writeDays(SeriesFileManager fileManager, LocalDate today, int days, int eventsPerDay) throws IOException {
+        for (int back = days; back >= 1; back--) {
+            LocalDate date = today.minusDays(back);
+            TimeSeries series = new TimeSeries(date, true);
+            LocalDateTime time = date.atStartOfDay();
+            for (int i = 0; i < eventsPerDay; i++) {
+                series.addEvent(new SalesEvent("Prod" + (i % PRODUCTS), 1 + i % 5, 10.0 + i % 7, time.plusNanos(i * 1000L)));
+            }
+            series.freeze();
+            fileManager.saveTimeSeries(series, date);
+        }
+    }
+
+    private static void startServer(ServerSocket serverSocket, UserManager users, ServerState state,
+                                    NotificationManager notificationManager, ExecutorService requests) {
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    Thread worker = new Thread(new ServerWorker(socket, users, state, notificationManager, requests, null));
+                    worker.setDaemon(true);
+                    worker.start();
+                }
+            } catch (IOException ignored) {
+                // Server socket closed at the end of the benchmark
+            }
+        }, "bench-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+}
@@ -0,0 +1,120 @@
+package sd.bench;
+
+import sd.series.SeriesFileManager;
+import sd.server.NotificationManager;
+import sd.server.ServerCache;
+import sd.server.ServerState;
+import sd.server.WriteAheadLog;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the cost of logging the sales of the current day: {@link ServerState#addEvent}
+ * throughput without a write-ahead log and under each {@link WriteAheadLog.SyncPolicy}, and the
+ * time a checkpoint of the resulting day takes.
+ *
+ * Every configuration gets a fresh data directory in the temporary directory, so the numbers
+ * depend on the file system behind it (a tmpfs makes every fsync free).
+ *
+ * Usage: {@code ./gradlew :server:bench --args="wal [maxThreads]"}
+ */
+public final class WalBenchmark {
+    private static final long ROUND_MILLIS = 2000;
+    private static final int PRODUCTS = 20;
+
+    private WalBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = (args.length >= 1) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+
+        List<WriteAheadLog.SyncPolicy> policies = new ArrayList<>();
+        policies.add(null);
+        policies.addAll(List.of(WriteAheadLog.SyncPolicy.values()));
+
+        System.out.println(String.format("%-8s | %-9s | %-15s | %-8s | %-14s",
+                "Threads", "WAL", "addEvent", "vs off", "Checkpoint"));
+        System.out.println("-------------------------------------------------------------------");
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            double off = 0;
+            for (WriteAheadLog.SyncPolicy policy : policies) {
+                double[] result = measure(threads, policy);
+                if (policy == null) off = result[0];
+                System.out.println(String.format("%8d | %-9s | %9.0f ops/s | %7.2fx | %s",
+                        threads, (policy == null) ? "off" : policy.name().toLowerCase(), result[0], result[0] / off,
+                        (policy == null) ? "-" : String.format("%8.1f ms", result[1])));
+            }
+            if (threads == maxThreads) break;
+        }
+    }
+
+    /**
+     * Runs a warm-up round and a timed round of concurrent addEvent calls on a fresh server state,
+     * then checkpoints the day.
+     *
+     * @return the throughput of the timed round, in events per second, and the checkpoint time in ms
+     */
+    private static double[] measure(int threads, WriteAheadLog.SyncPolicy policy) throws Exception {
+        Path dir = Files.createTempDirectory("wal-bench");
+        WriteAheadLog wal = (policy != null) ? new WriteAheadLog(dir.resolve("wal"), policy) : null;
+        try {
+            ServerCache cache = new ServerCache(4, new SeriesFileManager(dir.resolve("timeseries").toString()));
+            ServerState state = new ServerState(new NotificationManager(), cache, 0, LocalDate.of(2020, 1, 1), wal);
+
+            round(threads, state, ROUND_MILLIS / 4);
+            double throughput = round(threads, state, ROUND_MILLIS);
+
+            long start = System.nanoTime();
+            state.checkpoint();
+            double checkpointMs = (System.nanoTime() - start) / 1e6;
+
+            cache.clear();
+            return new double[] {throughput, checkpointMs};
+        } finally {
+            if (wal != null) wal.close();
+            BenchFiles.deleteRecursively(dir);
+        }
+    }
+
+    private static double round(int threads, ServerState state, long millis) throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String product = "Prod" + (t % PRODUCTS);
+            Thread worker = new Thread(() -> {
+                long done = 0;
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline[0]) {
+                        for (int i = 0; i < 64; i++) {
+                            state.addEvent(product, 1 + i % 5, 10.0 + i % 7);
+                        }
+                        done += 64;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                ops.add(done);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1_000_000;
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+
+        double seconds = (System.nanoTime() - begin) / 1_000_000_000.0;
+        return ops.sum() / seconds;
+    }
+}
@@ -0,0 +1,136 @@
+package sd.bench;
+
+import sd.series.FilteredEvents;
+import sd.series.SalesEvent;
+import sd.series.SeriesFileManager;
+import sd.series.TimeSeries;
+import sd.server.NotificationManager;
+import sd.server.ServerCache;
+import sd.server.ServerState;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Measures what a restart costs before and after the cache is warm, with read-ahead disabled and
+ * enabled: building the aggregation index from the day summaries (startup), loading the most recent
+ * S days in parallel (warm-up), and filtering every stored day with one single-day filter after
+ * another, oldest first, on a cold cache (sequential scan).
+ *
+ * Each round starts from a new SeriesFileManager and ServerCache over the same files, so nothing is
+ * in memory except what the operating system caches; the numbers therefore show how much of the
+ * loading and decoding read-ahead overlaps, and cold disks additionally overlap their reads.
+ *
+ * Usage: {@code ./gradlew :server:bench --args="warmup [days] [eventsPerDay] [cacheSize] [readAhead]"}
+ */
+public final class WarmupBenchmark {
+    private static final int PRODUCTS = 20;
+    private static final int ROUNDS = 5;
+
+    private WarmupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int days = (args.length >= 1) ? Integer.parseInt(args[0]) : 120;
+        int eventsPerDay = (args.length >= 2) ? Integer.parseInt(args[1]) : 20_000;
+        int cacheSize = (args.length >= 3) ? Integer.parseInt(args[2]) : 16;
+        int readAhead = (args.length >= 4) ? Integer.parseInt(args[3]) : ServerCache.DEFAULT_READ_AHEAD;
+
+        Path dir = Files.createTempDirectory("warmup-bench");
+        try {
+            LocalDate today = LocalDate.of(2020, 1, 1).plusDays(days);
+            writeDays(new SeriesFileManager(dir.toString(), true), today, days, eventsPerDay);
+
+            Set<String> products = new HashSet<>();
+            for (int p = 0; p < PRODUCTS / 4; p++) {
+                products.add("Prod" + p);
+            }
+
+            System.out.println("Days: " + days + ", events/day: " + eventsPerDay + ", cache: " + cacheSize
+                    + ", threads: " + Runtime.getRuntime().availableProcessors());
+            System.out.println(String.format("%-10s | %-10s | %-10s | %-10s", "Read-ahead", "Startup ms", "Warm-up ms", "Scan ms"));
+            System.out.println("-----------------------------------------------------");
+
+            // Warm-up round of each configuration, then timed rounds
+            long expected = (long) days * eventsPerDay * products.size() / PRODUCTS;
+            measure(dir, today, days, cacheSize, 0, products, expected);
+            measure(dir, today, days, cacheSize, readAhead, products, expected);
+            double[] off = new double[3];
+            double[] on = new double[3];
+            for (int round = 0; round < ROUNDS; round++) {
+                add(off, measure(dir, today, days, cacheSize, 0, products, expected));
+                add(on, measure(dir, today, days, cacheSize, readAhead, products, expected));
+            }
+            print("off", off);
+            print(String.valueOf(readAhead), on);
+            System.out.println(String.format("Scan speed-up: %.2fx", off[2] / on[2]));
+        } finally {
+            BenchFiles.deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Opens the data directory with a cold cache and times the three phases.
+     *
+     * @return the startup, warm-up and scan times, in ms
+     */
+    private static double[] measure(Path dir, LocalDate today, int days, int cacheSize, int readAhead,
+                                     Set<String> products, long expected) throws IOException {
+        SeriesFileManager fileManager = new SeriesFileManager(dir.toString(), true);
+        ServerCache cache = new ServerCache(cacheSize, fileManager, readAhead);
+
+        long start = System.nanoTime();
+        new ServerState(new NotificationManager(), cache, days, today);
+        double startupMs = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        if (readAhead > 0) cache.warmUp(today.minusDays(1), cacheSize);
+        double warmupMs = (System.nanoTime() - start) / 1e6;
+
+        // A fresh cache again, so the scan starts cold in both configurations
+        cache = new ServerCache(cacheSize, fileManager, readAhead);
+        ServerState state = new ServerState(new NotificationManager(), cache, days, today);
+        start = System.nanoTime();
+        long events = 0;
+        for (int back = days; back >= 1; back--) {
+            FilteredEvents reply = state.filterEvents(today.minusDays(back), products);
+            reply.writeTo(ByteBuffer.allocate(reply.length()));
+            events += reply.getEventCount();
+        }
+        double scanMs = (System.nanoTime() - start) / 1e6;
+        if (events != expected) {
+            throw new IllegalStateException("Eventos lidos: " + events);
+        }
+
+        cache.clear();
+        return new double[] {startupMs, warmupMs, scanMs};
+    }
+
+    private static void writeDays(SeriesFileManager fileManager, LocalDate today, int days, int eventsPerDay) throws IOException {
+        for (int back = days; back >= 1; back--) {
+            LocalDate date = today.minusDays(back);
+            TimeSeries series = new TimeSeries(date, true);
+            LocalDateTime time = date.atTime(8, 0);
+            for (int i = 0; i < eventsPerDay; i++) {
+                series.addEvent(new SalesEvent("Prod" + (i % PRODUCTS), 1 + i % 5, 10.0 + i % 7, time.plusNanos(i * 250_000L)));
+            }
+            series.freeze();
+            fileManager.saveTimeSeries(series, date);
+        }
+    }
+
+    private static void add(double[] total, double[] round) {
+        for (int i = 0; i < total.length; i++) total[i] += round[i];
+    }
+
+    private static void print(String label, double[] total) {
+        System.out.println(String.format("%-10s | %10.1f | %10.1f | %10.1f", label,
+                total[0] / ROUNDS, total[1] / ROUNDS, total[2] / ROUNDS));
+    }
+}
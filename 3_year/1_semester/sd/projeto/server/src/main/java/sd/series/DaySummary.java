@@ -0,0 +1,164 @@
+package sd.series;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact, immutable per-day index holding the totals of every product sold on a given day.
+ * It is everything the aggregation requests need, so a historical day can be answered from
+ * its small summary file instead of deserializing every SalesEvent of its TimeSeries.
+ * File pattern: "summary_YYYY-MM-DD.dat".
+ */
+public final class DaySummary {
+    private final LocalDate date;
+    private final Map<String, ProductTotals> products;
+
+    /**
+     * Totals of a single product on the summarized day.
+     */
+    private static final class ProductTotals {
+        final int quantity;
+        final double volume;
+        final int count;
+        final double maxPrice;
+
+        ProductTotals(int quantity, double volume, int count, double maxPrice) {
+            this.quantity = quantity;
+            this.volume = volume;
+            this.count = count;
+            this.maxPrice = maxPrice;
+        }
+    }
+
+    private DaySummary(LocalDate date, Map<String, ProductTotals> products) {
+        this.date = date;
+        this.products = products;
+    }
+
+    /**
+     * Builds the summary of a TimeSeries from the running aggregates of its products.
+     *
+     * @param series The series to summarize.
+     * @return The summary of the series.
+     */
+    public static DaySummary of(TimeSeries series) {
+        Map<String, ProductTotals> products = new HashMap<>();
+        for (Map.Entry<String, ProductEvent> entry : series.productEntries()) {
+            ProductEvent pe = entry.getValue();
+            products.put(entry.getKey(), new ProductTotals(
+                    pe.getTotalQuantity(), pe.getTotalVolume(), pe.getEventCount(), pe.getMaxPrice()));
+        }
+        return new DaySummary(series.getDate(), products);
+    }
+
+    /**
+     * Gets the date this summary refers to.
+     *
+     * @return The date.
+     */
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /**
+     * Gets the names of the products sold on the summarized day.
+     *
+     * @return An unmodifiable view of the product names.
+     */
+    public Set<String> getProductNames() {
+        return Collections.unmodifiableSet(products.keySet());
+    }
+
+    /**
+     * Gets the total quantity sold for a product.
+     *
+     * @param product The product name.
+     * @return The total quantity, or 0 if the product was not sold.
+     */
+    public int getQuantity(String product) {
+        ProductTotals t = products.get(product);
+        return (t != null) ? t.quantity : 0;
+    }
+
+    /**
+     * Gets the total monetary volume of a product.
+     *
+     * @param product The product name.
+     * @return The total volume, or 0.0 if the product was not sold.
+     */
+    public double getTotalValue(String product) {
+        ProductTotals t = products.get(product);
+        return (t != null) ? t.volume : 0.0;
+    }
+
+    /**
+     * Gets the number of sales events of a product.
+     *
+     * @param product The product name.
+     * @return The event count, or 0 if the product was not sold.
+     */
+    public int getEventCount(String product) {
+        ProductTotals t = products.get(product);
+        return (t != null) ? t.count : 0;
+    }
+
+    /**
+     * Gets the maximum unit price of a product.
+     *
+     * @param product The product name.
+     * @return The maximum price, or -1.0 if the product was not sold.
+     */
+    public double getMaxPrice(String product) {
+        ProductTotals t = products.get(product);
+        return (t != null) ? t.maxPrice : -1.0;
+    }
+
+    /**
+     * Serializes the summary.
+     * Writes the date, the number of products and, for each product, its name and totals.
+     *
+     * @param out The output stream.
+     * @throws IOException If an I/O error occurs.
+     */
+    void serialize(DataOutputStream out) throws IOException {
+        out.writeLong(date.toEpochDay());
+        out.writeInt(products.size());
+        for (Map.Entry<String, ProductTotals> entry : products.entrySet()) {
+            ProductTotals t = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeInt(t.quantity);
+            out.writeDouble(t.volume);
+            out.writeInt(t.count);
+            out.writeDouble(t.maxPrice);
+        }
+    }
+
+    /**
+     * Deserializes a summary written by {@link #serialize(DataOutputStream)}.
+     *
+     * @param in The input stream.
+     * @return The reconstructed summary.
+     * @throws IOException If an I/O error occurs.
+     */
+    static DaySummary deserialize(DataInputStream in) throws IOException {
+        LocalDate date = LocalDate.ofEpochDay(in.readLong());
+        int size = in.readInt();
+
+        Map<String, ProductTotals> products = new HashMap<>(Math.max(16, size * 2));
+        for (int i = 0; i < size; i++) {
+            String name = in.readUTF();
+            int quantity = in.readInt();
+            double volume = in.readDouble();
+            int count = in.readInt();
+            double maxPrice = in.readDouble();
+            products.put(name, new ProductTotals(quantity, volume, count, maxPrice));
+        }
+        return new DaySummary(date, products);
+    }
+}
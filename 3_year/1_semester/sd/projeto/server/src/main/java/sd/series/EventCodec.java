@@ -0,0 +1,246 @@
+package sd.series;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact encoding of the events of one product, used by the compressed (v3) series files.
+ *
+ * <pre>
+ * block      deflate(raw), without zlib header
+ * raw        varint priceCount, priceCount × double (dictionary, in order of first use),
+ *            count × zigzag varint quantity,
+ *            count × varint price index,
+ *            zigzag varlong first epochNanos, (count - 1) × zigzag varlong delta-of-delta
+ * </pre>
+ *
+ * Sales of a product arrive in time order and often at a steady pace, so the difference between
+ * consecutive gaps is small; a product is sold at a handful of prices, so each price shrinks to a
+ * one-byte index. Columns are stored one after the other, so Deflate sees runs of similar bytes.
+ */
+final class EventCodec {
+
+    private EventCodec() {
+    }
+
+    /**
+     * Result of {@link #encode}: the compressed block and the size it inflates to.
+     */
+    static final class Block {
+        final byte[] data;
+        final int rawLength;
+
+        Block(byte[] data, int rawLength) {
+            this.data = data;
+            this.rawLength = rawLength;
+        }
+    }
+
+    /**
+     * Encodes and compresses the events of one product.
+     *
+     * @param events The events, in order.
+     * @return The compressed block.
+     */
+    static Block encode(FrozenEvents events) {
+        int n = events.size();
+        Writer raw = new Writer(n * 4 + 16);
+
+        Map<Long, Integer> dictionary = new HashMap<>();
+        int[] priceIndex = new int[n];
+        long[] prices = new long[Math.min(n, 16)];
+        for (int i = 0; i < n; i++) {
+            long bits = Double.doubleToLongBits(events.getPrice(i));
+            Integer index = dictionary.get(bits);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(bits, index);
+                if (index == prices.length) prices = Arrays.copyOf(prices, prices.length * 2);
+                prices[index] = bits;
+            }
+            priceIndex[i] = index;
+        }
+
+        raw.writeVarLong(dictionary.size());
+        for (int p = 0; p < dictionary.size(); p++) {
+            raw.writeLong(prices[p]);
+        }
+        for (int i = 0; i < n; i++) {
+            raw.writeVarLong(zigzag(events.getQuantity(i)));
+        }
+        for (int i = 0; i < n; i++) {
+            raw.writeVarLong(priceIndex[i]);
+        }
+        long previous = 0;
+        long previousDelta = 0;
+        for (int i = 0; i < n; i++) {
+            long nanos = events.getEpochNanos(i);
+            if (i == 0) {
+                raw.writeVarLong(zigzag(nanos));
+            } else {
+                long delta = nanos - previous;
+                raw.writeVarLong(zigzag(delta - previousDelta));
+                previousDelta = delta;
+            }
+            previous = nanos;
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(raw.buf, 0, raw.count);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, raw.count / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) out = Arrays.copyOf(out, out.length * 2);
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return new Block(Arrays.copyOf(out, length), raw.count);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflates and decodes the events of one product into heap columns.
+     *
+     * @param name      The product name.
+     * @param block     The compressed block; read with absolute gets, its position is not changed.
+     * @param rawLength The size of the inflated block.
+     * @param count     The number of events.
+     * @return The decoded events.
+     * @throws IOException If the block is corrupted.
+     */
+    static FrozenEvents decode(String name, ByteBuffer block, int rawLength, int count) throws IOException {
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block.duplicate());
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += inflated;
+            }
+            if (length != rawLength) {
+                throw new IOException("Bloco comprimido truncado para o produto " + name);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Bloco comprimido inválido para o produto " + name, e);
+        } finally {
+            inflater.end();
+        }
+
+        Reader in = new Reader(raw);
+        int priceCount = (int) in.readVarLong();
+        if (priceCount < 0 || priceCount > count) {
+            throw new IOException("Dicionário de preços inválido para o produto " + name);
+        }
+        double[] dictionary = new double[priceCount];
+        for (int p = 0; p < priceCount; p++) {
+            dictionary[p] = Double.longBitsToDouble(in.readLong());
+        }
+
+        int[] quantities = new int[count];
+        double[] prices = new double[count];
+        long[] epochNanos = new long[count];
+        for (int i = 0; i < count; i++) {
+            quantities[i] = (int) unzigzag(in.readVarLong());
+        }
+        for (int i = 0; i < count; i++) {
+            long index = in.readVarLong();
+            if (index < 0 || index >= priceCount) {
+                throw new IOException("Índice de preço inválido para o produto " + name);
+            }
+            prices[i] = dictionary[(int) index];
+        }
+        long delta = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                epochNanos[i] = unzigzag(in.readVarLong());
+            } else {
+                delta += unzigzag(in.readVarLong());
+                epochNanos[i] = epochNanos[i - 1] + delta;
+            }
+        }
+        return FrozenEvents.columns(name, quantities, prices, epochNanos);
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Growable byte array with varint and fixed-width writes.
+     */
+    private static final class Writer {
+        byte[] buf;
+        int count;
+
+        Writer(int capacity) {
+            buf = new byte[Math.max(16, capacity)];
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[count++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[count++] = (byte) v;
+        }
+
+        void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[count++] = (byte) (v >>> shift);
+            }
+        }
+
+        private void ensure(int n) {
+            if (count + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+        }
+    }
+
+    /**
+     * Cursor over an inflated block.
+     */
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= buf.length) throw new IOException("Bloco comprimido truncado");
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+            }
+            throw new IOException("Varint inválido");
+        }
+
+        long readLong() throws IOException {
+            if (pos + 8 > buf.length) throw new IOException("Bloco comprimido truncado");
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package sd.series;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Append-only, lock-free log of sales events for one product.
+ *
+ * Events are stored in a chain of fixed-capacity segments. A writer claims a slot with a single
+ * atomic increment on the tail segment and publishes the event into it; when the segment is full,
+ * writers race to link a new one with a compare-and-set. Writers never block each other, and
+ * readers never block writers.
+ *
+ * Iteration is weakly consistent: it sees every event published before it started and may or may
+ * not see events appended concurrently. A slot that was claimed but not yet published is skipped.
+ */
+final class EventLog implements Iterable<SalesEvent> {
+    private static final int FIRST_SEGMENT_SIZE = 16;
+    private static final int MAX_SEGMENT_SIZE = 4096;
+
+    /**
+     * A fixed-capacity block of event slots. Capacity doubles along the chain so that products
+     * with few sales stay small while busy products need few segments.
+     */
+    private static final class Segment {
+        final AtomicReferenceArray<SalesEvent> slots;
+        final AtomicInteger claimed = new AtomicInteger();
+        final AtomicReference<Segment> next = new AtomicReference<>();
+
+        Segment(int capacity) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        int capacity() {
+            return slots.length();
+        }
+
+        /**
+         * Number of slots that may hold an event (claimed slots, capped by the capacity).
+         */
+        int used() {
+            return Math.min(claimed.get(), capacity());
+        }
+    }
+
+    private final Segment head = new Segment(FIRST_SEGMENT_SIZE);
+    private final AtomicReference<Segment> tail = new AtomicReference<>(head);
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Appends an event to the end of the log.
+     *
+     * @param event the event to append
+     */
+    void append(SalesEvent event) {
+        while (true) {
+            Segment t = tail.get();
+            int slot = t.claimed.getAndIncrement();
+            if (slot < t.capacity()) {
+                t.slots.set(slot, event);
+                size.incrementAndGet();
+                return;
+            }
+
+            // Segment full: link a successor (or help whoever already did) and move the tail
+            Segment n = t.next.get();
+            if (n == null) {
+                Segment fresh = new Segment(Math.min(t.capacity() * 2, MAX_SEGMENT_SIZE));
+                n = t.next.compareAndSet(null, fresh) ? fresh : t.next.get();
+            }
+            tail.compareAndSet(t, n);
+        }
+    }
+
+    /**
+     * Returns the number of events published so far.
+     *
+     * @return the event count
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Copies the published events into a new list, in append order.
+     *
+     * @return a snapshot of the log
+     */
+    List<SalesEvent> snapshot() {
+        List<SalesEvent> copy = new ArrayList<>(size());
+        for (SalesEvent e : this) {
+            copy.add(e);
+        }
+        return copy;
+    }
+
+    /**
+     * Iterates over the published events in append order.
+     *
+     * @return a weakly consistent iterator
+     */
+    @Override
+    public Iterator<SalesEvent> iterator() {
+        return new Iterator<SalesEvent>() {
+            private Segment segment = head;
+            private int index = 0;
+            private SalesEvent next = advance();
+
+            private SalesEvent advance() {
+                while (segment != null) {
+                    while (index < segment.used()) {
+                        SalesEvent e = segment.slots.get(index++);
+                        if (e != null) return e;
+                    }
+                    segment = segment.next.get();
+                    index = 0;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public SalesEvent next() {
+                if (next == null) throw new NoSuchElementException();
+                SalesEvent e = next;
+                next = advance();
+                return e;
+            }
+        };
+    }
+}
@@ -0,0 +1,219 @@
+package sd.series;
+
+import sd.middleware.FramePayload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The FILTER_EVENTS reply for one day, encoded on demand in the compacted format read by
+ * {@link TimeSeries#deserializeAllEventsCompacted(java.io.DataInputStream)}:
+ * the product dictionary, the event count, then per event its product id and its fields.
+ *
+ * Only the dictionary is built up front. The event records are encoded straight from the frozen
+ * columns into the sender's buffer as it drains, so a reply costs a constant amount of memory
+ * however many events it carries, and its length is known before the first byte is sent.
+ *
+ * The same events can instead be sent in chunks: the dictionary on its own ({@link #getHeader()}),
+ * then consecutive batches of records ({@link #nextBatch(int)}), each prefixed with its event count.
+ * The batch cursor is not thread-safe; a chunked stream must be driven by one thread at a time.
+ */
+public final class FilteredEvents implements FramePayload {
+    /**
+     * Size of one compacted event: product id (short), quantity (int), price (double),
+     * epoch second (long) and nano (int).
+     */
+    private static final int RECORD_SIZE = 2 + 4 + 8 + 8 + 4;
+
+    private final byte[] header;
+    private final FrozenEvents[] products;
+    private final int eventCount;
+    private final int length;
+
+    // Encoding progress of the single-frame reply
+    private int headerPos = 0;
+    private Records allRecords;
+
+    // Start of the next batch of a chunked reply
+    private int batchProduct = 0;
+    private int batchIndex = 0;
+    private int batched = 0;
+
+    /**
+     * Snapshots the products to send and encodes the dictionary.
+     *
+     * @param products The matching products with at least one event, in dictionary order.
+     */
+    FilteredEvents(List<FrozenEvents> products) {
+        this.products = products.toArray(new FrozenEvents[0]);
+
+        long totalEvents = 0;
+        for (FrozenEvents events : this.products) {
+            totalEvents += events.size();
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(this.products.length);
+            for (FrozenEvents events : this.products) {
+                out.writeUTF(events.getName());
+            }
+            out.writeInt((int) totalEvents);
+            out.flush();
+            this.header = bytes.toByteArray();
+        } catch (IOException e) {
+            // Writing to memory never fails
+            throw new UncheckedIOException(e);
+        }
+
+        long total = header.length + totalEvents * RECORD_SIZE;
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Resposta demasiado grande: " + totalEvents + " eventos");
+        }
+        this.eventCount = (int) totalEvents;
+        this.length = (int) total;
+    }
+
+    /**
+     * Creates the reply of a day without data: an empty dictionary and no events.
+     *
+     * @return An empty reply.
+     */
+    public static FilteredEvents empty() {
+        return new FilteredEvents(new ArrayList<>());
+    }
+
+    /**
+     * Returns the number of events in the reply.
+     *
+     * @return The event count.
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Returns the encoded dictionary and event count, the first frame of a chunked reply.
+     *
+     * @return A copy of the header bytes.
+     */
+    public byte[] getHeader() {
+        return header.clone();
+    }
+
+    /**
+     * Checks whether a chunked reply still has events to send.
+     *
+     * @return True if {@link #nextBatch(int)} would return a non-empty batch.
+     */
+    public boolean hasMoreBatches() {
+        return batched < eventCount;
+    }
+
+    /**
+     * Takes the next batch of a chunked reply and moves the batch cursor past it.
+     * The returned payload is encoded independently, whenever the sender drains it.
+     *
+     * @param maxEvents The maximum number of events in the batch.
+     * @return The batch: its event count (int) followed by the records.
+     */
+    public FramePayload nextBatch(int maxEvents) {
+        int count = Math.min(maxEvents, eventCount - batched);
+        Records batch = new Records(batchProduct, batchIndex, count, true);
+
+        int left = count;
+        while (left > 0) {
+            int available = products[batchProduct].size() - batchIndex;
+            if (available <= left) {
+                left -= available;
+                batchProduct++;
+                batchIndex = 0;
+            } else {
+                batchIndex += left;
+                left = 0;
+            }
+        }
+        batched += count;
+        return batch;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public boolean writeTo(ByteBuffer dst) {
+        if (headerPos < header.length) {
+            int n = Math.min(dst.remaining(), header.length - headerPos);
+            dst.put(header, headerPos, n);
+            headerPos += n;
+            if (headerPos < header.length) return false;
+        }
+
+        if (allRecords == null) {
+            allRecords = new Records(0, 0, eventCount, false);
+        }
+        return allRecords.writeTo(dst);
+    }
+
+    /**
+     * A run of consecutive event records, starting at a given product and event.
+     */
+    private final class Records implements FramePayload {
+        private final int count;
+        private final boolean countPrefix;
+
+        private int product;
+        private int index;
+        private int written = 0;
+        private boolean prefixWritten = false;
+
+        Records(int product, int index, int count, boolean countPrefix) {
+            this.product = product;
+            this.index = index;
+            this.count = count;
+            this.countPrefix = countPrefix;
+        }
+
+        @Override
+        public int length() {
+            return (countPrefix ? 4 : 0) + count * RECORD_SIZE;
+        }
+
+        @Override
+        public boolean writeTo(ByteBuffer dst) {
+            if (countPrefix && !prefixWritten) {
+                if (dst.remaining() < 4) return false;
+                dst.putInt(count);
+                prefixWritten = true;
+            }
+
+            while (written < count) {
+                FrozenEvents events = products[product];
+                if (index == events.size()) {
+                    product++;
+                    index = 0;
+                    continue;
+                }
+                if (dst.remaining() < RECORD_SIZE) return false;
+
+                long nanos = events.getEpochNanos(index);
+                dst.putShort((short) product)
+                        .putInt(events.getQuantity(index))
+                        .putDouble(events.getPrice(index))
+                        .putLong(Math.floorDiv(nanos, FrozenEvents.NANOS_PER_SECOND))
+                        .putInt((int) Math.floorMod(nanos, FrozenEvents.NANOS_PER_SECOND));
+                index++;
+                written++;
+            }
+            return true;
+        }
+    }
+}
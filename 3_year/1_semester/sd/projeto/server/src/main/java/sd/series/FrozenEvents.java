@@ -0,0 +1,312 @@
+package sd.series;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only, columnar storage of the sales of one product on a day that is no longer current.
+ *
+ * Instead of one SalesEvent object (with its own name String and LocalDateTime) per sale, each
+ * sale is reduced to a quantity, a unit price and a timestamp in nanoseconds since the epoch (UTC).
+ * Three storages exist: parallel primitive arrays, for days frozen in memory or read from a legacy
+ * file; a view over the fixed-width records of a memory-mapped v2 series file, which reads
+ * the values in place without copying them onto the heap; and a compressed block of a v3 series
+ * file, inflated into arrays the first time an event is read.
+ * SalesEvent objects are only created on demand, when a caller asks for them.
+ */
+abstract class FrozenEvents {
+    /**
+     * Size of one event record in a v2 series file: quantity (int), price (double), epoch nanos (long).
+     */
+    static final int RECORD_SIZE = 20;
+
+    static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final String name;
+
+    private FrozenEvents(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    abstract int size();
+
+    abstract int getQuantity(int i);
+
+    abstract double getPrice(int i);
+
+    abstract long getEpochNanos(int i);
+
+    /**
+     * Brings the events into memory, so reading them afterwards neither waits for the disk nor
+     * inflates a block: a compressed block is decoded, and mapped records are paged in.
+     * Mapped pages may still be evicted later under memory pressure.
+     */
+    abstract void load();
+
+    /**
+     * Materializes the i-th event.
+     *
+     * @param i The event index.
+     * @return A new SalesEvent with the stored values.
+     */
+    SalesEvent get(int i) {
+        return new SalesEvent(name, getQuantity(i), getPrice(i), fromEpochNanos(getEpochNanos(i)));
+    }
+
+    /**
+     * Materializes every event.
+     *
+     * @return A new list of SalesEvents, in order.
+     */
+    List<SalesEvent> toList() {
+        int n = size();
+        List<SalesEvent> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            list.add(get(i));
+        }
+        return list;
+    }
+
+    /**
+     * Copies a list of events into columnar form.
+     *
+     * @param name   The product name shared by all events.
+     * @param events The events, in order.
+     * @return The frozen columns.
+     */
+    static FrozenEvents of(String name, List<SalesEvent> events) {
+        int n = events.size();
+        int[] quantities = new int[n];
+        double[] prices = new double[n];
+        long[] epochNanos = new long[n];
+
+        for (int i = 0; i < n; i++) {
+            SalesEvent e = events.get(i);
+            quantities[i] = e.getQuantity();
+            prices[i] = e.getPrice();
+            epochNanos[i] = toEpochNanos(e.getDate());
+        }
+        return new Columns(name, quantities, prices, epochNanos);
+    }
+
+    /**
+     * Wraps already decoded columns.
+     *
+     * @param name       The product name.
+     * @param quantities The quantity of each event.
+     * @param prices     The unit price of each event.
+     * @param epochNanos The timestamp of each event, in nanoseconds since the epoch (UTC).
+     * @return The frozen columns, backed by the given arrays.
+     */
+    static FrozenEvents columns(String name, int[] quantities, double[] prices, long[] epochNanos) {
+        return new Columns(name, quantities, prices, epochNanos);
+    }
+
+    /**
+     * Wraps the compressed block of one product inside a mapped v3 series file.
+     * Nothing is inflated until an event is read.
+     *
+     * @param name      The product name.
+     * @param block     A buffer holding exactly the product's {@link EventCodec} block.
+     * @param rawLength The size of the inflated block.
+     * @param count     The number of events.
+     * @return The frozen events, decoded on first use.
+     */
+    static FrozenEvents compressed(String name, ByteBuffer block, int rawLength, int count) {
+        return new Compressed(name, block, rawLength, count);
+    }
+
+    /**
+     * Wraps the event records of one product inside a mapped v2 series file.
+     *
+     * @param name    The product name.
+     * @param records A buffer holding exactly the product's records, {@link #RECORD_SIZE} bytes each.
+     * @return The frozen events, read in place.
+     */
+    static FrozenEvents mapped(String name, ByteBuffer records) {
+        return new Mapped(name, records);
+    }
+
+    /**
+     * Reads {@code count} legacy, non-compacted event records straight into columns,
+     * without creating SalesEvents.
+     *
+     * @param in    The input stream.
+     * @param name  The product name.
+     * @param count The number of records to read.
+     * @return The frozen columns.
+     * @throws IOException If an I/O error occurs.
+     */
+    static FrozenEvents deserialize(DataInputStream in, String name, int count) throws IOException {
+        int[] quantities = new int[count];
+        double[] prices = new double[count];
+        long[] epochNanos = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            in.readUTF();
+            quantities[i] = in.readInt();
+            prices[i] = in.readDouble();
+            long epochSecond = in.readLong();
+            int nano = in.readInt();
+            epochNanos[i] = epochSecond * NANOS_PER_SECOND + nano;
+        }
+        return new Columns(name, quantities, prices, epochNanos);
+    }
+
+    static long toEpochNanos(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC) * NANOS_PER_SECOND + date.getNano();
+    }
+
+    static LocalDateTime fromEpochNanos(long nanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, NANOS_PER_SECOND),
+                (int) Math.floorMod(nanos, NANOS_PER_SECOND), ZoneOffset.UTC);
+    }
+
+    /**
+     * Heap storage: three parallel primitive arrays.
+     */
+    private static final class Columns extends FrozenEvents {
+        private final int[] quantities;
+        private final double[] prices;
+        private final long[] epochNanos;
+
+        Columns(String name, int[] quantities, double[] prices, long[] epochNanos) {
+            super(name);
+            this.quantities = quantities;
+            this.prices = prices;
+            this.epochNanos = epochNanos;
+        }
+
+        @Override
+        int size() {
+            return quantities.length;
+        }
+
+        @Override
+        int getQuantity(int i) {
+            return quantities[i];
+        }
+
+        @Override
+        double getPrice(int i) {
+            return prices[i];
+        }
+
+        @Override
+        long getEpochNanos(int i) {
+            return epochNanos[i];
+        }
+
+        @Override
+        void load() {
+        }
+    }
+
+    /**
+     * Compressed storage: the block is inflated on the first access and the decoded columns kept.
+     * Concurrent first accesses may each decode the block; they produce equal columns and the
+     * last one published wins, so no lock is needed.
+     */
+    private static final class Compressed extends FrozenEvents {
+        private final ByteBuffer block;
+        private final int rawLength;
+        private final int count;
+        private volatile FrozenEvents decoded;
+
+        Compressed(String name, ByteBuffer block, int rawLength, int count) {
+            super(name);
+            this.block = block;
+            this.rawLength = rawLength;
+            this.count = count;
+        }
+
+        private FrozenEvents decoded() {
+            FrozenEvents columns = decoded;
+            if (columns == null) {
+                try {
+                    columns = EventCodec.decode(getName(), block, rawLength, count);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                decoded = columns;
+            }
+            return columns;
+        }
+
+        @Override
+        int size() {
+            return count;
+        }
+
+        @Override
+        int getQuantity(int i) {
+            return decoded().getQuantity(i);
+        }
+
+        @Override
+        double getPrice(int i) {
+            return decoded().getPrice(i);
+        }
+
+        @Override
+        long getEpochNanos(int i) {
+            return decoded().getEpochNanos(i);
+        }
+
+        @Override
+        void load() {
+            decoded();
+        }
+    }
+
+    /**
+     * Mapped storage: fixed-width records read with absolute gets, so the buffer is shared safely.
+     */
+    private static final class Mapped extends FrozenEvents {
+        private final ByteBuffer records;
+
+        Mapped(String name, ByteBuffer records) {
+            super(name);
+            this.records = records;
+        }
+
+        @Override
+        int size() {
+            return records.capacity() / RECORD_SIZE;
+        }
+
+        @Override
+        int getQuantity(int i) {
+            return records.getInt(i * RECORD_SIZE);
+        }
+
+        @Override
+        double getPrice(int i) {
+            return records.getDouble(i * RECORD_SIZE + 4);
+        }
+
+        @Override
+        long getEpochNanos(int i) {
+            return records.getLong(i * RECORD_SIZE + 12);
+        }
+
+        @Override
+        void load() {
+            // Small files are read onto the heap instead of mapped
+            if (records instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) records).load();
+            }
+        }
+    }
+}
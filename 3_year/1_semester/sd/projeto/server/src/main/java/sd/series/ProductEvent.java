@@ -1,170 +1,230 @@
 package sd.series;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A thread-safe container that aggregates all sales events for a specific product.
- * It uses a ReentrantReadWriteLock to allow multiple concurrent readers (calculating stats)
- * while ensuring exclusive access for writers (adding new events).
+ * While its day is current, events are kept in a lock-free, append-only {@link EventLog}, so
+ * concurrent writers (adding new events) and readers (calculating stats) never block one another.
+ * Once the day is closed the container is frozen into the compact, read-only {@link FrozenEvents}
+ * columns, which is also the form in which historical days are loaded from disk.
+ *
+ * Totals and the maximum price are maintained incrementally as events are appended
+ * (or computed once when frozen events are loaded), so every aggregation is O(1) instead of
+ * a scan over all the sales of the day. The adders are contention-friendly, so parallel
+ * writers of the same product do not serialize on a single counter.
  */
 public class ProductEvent {
-    private final List<SalesEvent> events;
-    private final ReentrantReadWriteLock.ReadLock readLock;
-    private final ReentrantReadWriteLock.WriteLock writeLock;
+    // At least one of the two is always set: freeze publishes frozen before clearing events and
+    // thaw publishes events before clearing frozen, so readers check events first
+    private volatile EventLog events;
+    private volatile FrozenEvents frozen;
+
+    // Running aggregates, updated on every append
+    private final LongAdder totalQuantity;
+    private final DoubleAdder totalVolume;
+    private final DoubleAccumulator maxPrice;
 
     /**
-     * Initializes an empty ProductEvent container with fair locking mechanisms.
+     * Initializes an empty ProductEvent container.
      */
     public ProductEvent() {
-        this.events = new ArrayList<>();
-        ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
-        this.readLock = rwLock.readLock();
-        this.writeLock = rwLock.writeLock();
+        this.events = new EventLog();
+        this.totalQuantity = new LongAdder();
+        this.totalVolume = new DoubleAdder();
+        this.maxPrice = new DoubleAccumulator(Math::max, -1.0);
+    }
+
+    /**
+     * Creates a frozen container from columnar events, computing its aggregates once.
+     *
+     * @param columns The frozen events.
+     */
+    private ProductEvent(FrozenEvents columns) {
+        this(columns, 0, 0.0, -1.0);
+        for (int i = 0; i < columns.size(); i++) {
+            totalQuantity.add(columns.getQuantity(i));
+            totalVolume.add(columns.getPrice(i) * columns.getQuantity(i));
+            maxPrice.accumulate(columns.getPrice(i));
+        }
+    }
+
+    /**
+     * Creates a frozen container whose aggregates are already known.
+     *
+     * @param columns  The frozen events.
+     * @param quantity The total quantity.
+     * @param volume   The total volume.
+     * @param max      The maximum price, or -1.0 if there are no events.
+     */
+    private ProductEvent(FrozenEvents columns, long quantity, double volume, double max) {
+        this.frozen = columns;
+        this.totalQuantity = new LongAdder();
+        this.totalVolume = new DoubleAdder();
+        this.maxPrice = new DoubleAccumulator(Math::max, -1.0);
+
+        totalQuantity.add(quantity);
+        totalVolume.add(volume);
+        maxPrice.accumulate(max);
     }
 
     /**
-     * Adds a new sales event to the list in a thread-safe manner.
-     * Acquires the write lock to ensure exclusivity.
+     * Creates a frozen container over events read from a v2 series file, whose product directory
+     * already stores the aggregates, so the records are not scanned (nor even paged in) on load.
+     *
+     * @param columns  The frozen events.
+     * @param quantity The total quantity.
+     * @param volume   The total volume.
+     * @param max      The maximum price, or -1.0 if there are no events.
+     * @return A frozen ProductEvent.
+     */
+    static ProductEvent frozen(FrozenEvents columns, long quantity, double volume, double max) {
+        return new ProductEvent(columns, quantity, volume, max);
+    }
+
+    /**
+     * Appends a new sales event and folds it into the running aggregates, without taking any lock.
      *
      * @param event The sales event to add.
+     * @throws IllegalStateException If the container is frozen.
      */
     public void addEvent(SalesEvent event) {
-        writeLock.lock();
-        try {
-            events.add(event);
-        } finally {
-            writeLock.unlock();
+        EventLog log = events;
+        if (log == null) {
+            throw new IllegalStateException("Série histórica é só de leitura");
+        }
+        log.append(event);
+        totalQuantity.add(event.getQuantity());
+        totalVolume.add(event.getTotalValue());
+        maxPrice.accumulate(event.getPrice());
+    }
+
+    /**
+     * Converts the events into the compact read-only columnar layout.
+     * Must only be called once no more events can be added (the day is closed).
+     *
+     * @param name The product name.
+     */
+    void freeze(String name) {
+        EventLog log = events;
+        if (log == null) return;
+
+        frozen = FrozenEvents.of(name, log.snapshot());
+        events = null;
+    }
+
+    /**
+     * Converts frozen events back into an appendable log, for a day that becomes current again
+     * (e.g. the current day loaded from disk at startup).
+     */
+    void thaw() {
+        FrozenEvents columns = frozen;
+        if (columns == null) return;
+
+        EventLog log = new EventLog();
+        for (int i = 0; i < columns.size(); i++) {
+            log.append(columns.get(i));
         }
+        events = log;
+        frozen = null;
     }
 
     /**
      * Retrieves a defensive copy of the list of events.
-     * Acquires the read lock to allow concurrent access.
      *
-     * @return A new ArrayList containing all sales events.
+     * @return A new list containing all sales events published so far.
      */
     public List<SalesEvent> getEvent() {
-        readLock.lock();
-        try {
-            return new ArrayList<>(events);
-        } finally {
-            readLock.unlock();
-        }
+        EventLog log = events;
+        return (log != null) ? log.snapshot() : frozen.toList();
     }
 
     /**
      * Checks if there are any events recorded for this product.
-     * Thread-safe (Read Lock).
      *
      * @return True if the list is empty, false otherwise.
      */
     public boolean isEmpty() {
-        readLock.lock();
-        try {
-            return events.isEmpty();
-        } finally {
-            readLock.unlock();
-        }
+        return getEventCount() == 0;
     }
 
     /**
-     * Calculates the total quantity of items sold for this product.
-     * Iterates through all events under a read lock.
+     * Returns the number of sales events recorded for this product.
+     *
+     * @return The event count.
+     */
+    public int getEventCount() {
+        EventLog log = events;
+        return (log != null) ? log.size() : frozen.size();
+    }
+
+    /**
+     * Returns the running total quantity of items sold for this product.
      *
      * @return The sum of quantities.
      */
     public int getTotalQuantity() {
-        readLock.lock();
-        try {
-            int sum = 0;
-            for (SalesEvent e : events) {
-                sum += e.getQuantity();
-            }
-            return sum;
-        } finally {
-            readLock.unlock();
-        }
+        return totalQuantity.intValue();
     }
 
     /**
-     * Calculates the total monetary volume accumulated by this product.
-     * Iterates through all events under a read lock.
+     * Returns the running total monetary volume accumulated by this product.
      *
      * @return The sum of total values of all events.
      */
     public double getTotalVolume() {
-        readLock.lock();
-        try {
-            double sum = 0;
-            for (SalesEvent e : events) {
-                sum += e.getTotalValue();
-            }
-            return sum;
-        } finally {
-            readLock.unlock();
-        }
+        return totalVolume.sum();
     }
 
     /**
-     * Finds the maximum price per unit recorded for this product.
-     * Thread-safe (Read Lock).
+     * Returns the maximum price per unit recorded for this product.
      *
      * @return The maximum price found, or -1.0 if no events exist.
      */
     public double getMaxPrice() {
-        readLock.lock();
-        try {
-            double max = -1.0;
-            for (SalesEvent e : events) {
-                if (e.getPrice() > max) {
-                    max = e.getPrice();
-                }
-            }
-            return max;
-        } finally {
-            readLock.unlock();
-        }
+        return maxPrice.get();
     }
 
     /**
-     * Serializes all events associated with this product.
+     * Returns the events in columnar form, for writing them to disk.
+     * A frozen container returns its columns; a live one returns a snapshot, so the result never
+     * changes even if new sales arrive meanwhile.
      *
-     * @param out The output stream.
-     * @throws IOException If an I/O error occurs.
+     * @param name The product name.
+     * @return The frozen events.
      */
-    protected void serialize(DataOutputStream out) throws IOException {
-        readLock.lock();
-        try {
-            out.writeInt(events.size());
-            for (SalesEvent se : events) {
-                se.serialize(out, false);
-            }
-        } finally {
-            readLock.unlock();
-        }
+    FrozenEvents columns(String name) {
+        EventLog log = events;
+        return (log != null) ? FrozenEvents.of(name, log.snapshot()) : frozen;
+    }
+
+    /**
+     * Copies the events published so far into a new, frozen container.
+     *
+     * @param name The product name.
+     * @return A frozen copy; later appends to this container do not change it.
+     */
+    ProductEvent snapshot(String name) {
+        return new ProductEvent(columns(name));
     }
 
     /**
-     * Deserializes a ProductEvent and its contained sales events.
+     * Deserializes a ProductEvent and its contained sales events from a legacy series file.
+     * The events are read straight into the frozen columnar layout; call {@link #thaw()}
+     * if the series is the current day.
      *
-     * @param in The input stream.
-     * @return A populated ProductEvent object.
+     * @param in   The input stream.
+     * @param name The product name.
+     * @return A populated, frozen ProductEvent object.
      * @throws IOException If an I/O error occurs.
      */
-    protected static ProductEvent deserialize(DataInputStream in) throws IOException {
-        ProductEvent productEvent = new ProductEvent();
+    protected static ProductEvent deserialize(DataInputStream in, String name) throws IOException {
         int num_events = in.readInt();
-
-        for (int i = 0; i < num_events; i++) {
-            SalesEvent event = SalesEvent.deserialize(in, null, false);
-            productEvent.addEvent(event);
-        }
-
-        return productEvent;
+        return new ProductEvent(FrozenEvents.deserialize(in, name, num_events));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,219 @@
+package sd.series;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent manifest of the days stored in a data directory: for each day with a series or a
+ * summary file, the size of each file, or {@link #ABSENT}.
+ *
+ * <pre>
+ * catalog.dat  int magic ("SDSC"), int version, int count,
+ *              per day: long epochDay, long seriesSize, long summarySize, byte pending,
+ *              int crc32 of everything before it
+ * </pre>
+ *
+ * It is read once when the {@link SeriesFileManager} is created, so existence checks, the day
+ * count and the latest date are answered from memory, and a day that was never saved (e.g., a
+ * day with no sales) is known to be missing without touching the disk.
+ *
+ * Every change rewrites the whole manifest to a temporary file, forces it and renames it into
+ * place, so a crash or a power loss leaves either the old or the new version. The manager marks a day as pending before it
+ * renames the day's files and clears the mark after, so only pending days can disagree with the
+ * directory after a crash, and only those are checked again at startup.
+ *
+ * Lookups are lock-free; changes are serialized by a ReentrantLock.
+ */
+final class SeriesCatalog {
+    static final String FILE_NAME = "catalog.dat";
+
+    /**
+     * Size recorded for a file that does not exist.
+     */
+    static final long ABSENT = -1;
+
+    private static final int MAGIC = 0x53445343;
+    private static final int VERSION = 1;
+
+    /**
+     * What the manifest knows about one day.
+     */
+    static final class Entry {
+        final long seriesSize;
+        final long summarySize;
+        final boolean pending;
+
+        Entry(long seriesSize, long summarySize, boolean pending) {
+            this.seriesSize = seriesSize;
+            this.summarySize = summarySize;
+            this.pending = pending;
+        }
+
+        boolean hasSeries() {
+            return seriesSize != ABSENT;
+        }
+
+        boolean hasSummary() {
+            return summarySize != ABSENT;
+        }
+    }
+
+    private final Path file;
+    private final ConcurrentSkipListMap<LocalDate, Entry> entries = new ConcurrentSkipListMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    SeriesCatalog(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the manifest from disk, replacing what is in memory.
+     *
+     * @return False if there is no manifest or it is corrupted, in which case it must be rebuilt.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    boolean load() throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (bytes.length < 16) return false;
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+
+            int count = in.readInt();
+            if (count < 0 || bytes.length != 12 + count * 25L + 4) return false;
+
+            Map<LocalDate, Entry> loaded = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                LocalDate date = LocalDate.ofEpochDay(in.readLong());
+                loaded.put(date, new Entry(in.readLong(), in.readLong(), in.readBoolean()));
+            }
+            if (in.readInt() != (int) crc.getValue()) return false;
+
+            entries.clear();
+            entries.putAll(loaded);
+            return true;
+        }
+    }
+
+    /**
+     * Returns what the manifest knows about a day.
+     *
+     * @param date The day.
+     * @return The entry, or null if the day has no files.
+     */
+    Entry get(LocalDate date) {
+        return entries.get(date);
+    }
+
+    /**
+     * Returns every day in the manifest, in date order. The view is live and lock-free.
+     *
+     * @return The entries by date.
+     */
+    NavigableMap<LocalDate, Entry> entries() {
+        return Collections.unmodifiableNavigableMap(entries);
+    }
+
+    /**
+     * Changes the entry of a day and writes the manifest.
+     *
+     * @param date   The day.
+     * @param change Computes the new entry from the current one (null if absent); returning null,
+     *               or an entry without files, removes the day.
+     * @throws IOException If the manifest cannot be written.
+     */
+    void update(LocalDate date, UnaryOperator<Entry> change) throws IOException {
+        lock.lock();
+        try {
+            Entry updated = change.apply(entries.get(date));
+            if (updated == null || (!updated.hasSeries() && !updated.hasSummary())) {
+                entries.remove(date);
+            } else {
+                entries.put(date, updated);
+            }
+            write();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces every entry and writes the manifest, e.g. after rebuilding it from a directory scan.
+     *
+     * @param rebuilt The new entries.
+     * @throws IOException If the manifest cannot be written.
+     */
+    void replaceAll(Map<LocalDate, Entry> rebuilt) throws IOException {
+        lock.lock();
+        try {
+            entries.clear();
+            entries.putAll(rebuilt);
+            write();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the entries in memory. Called with the lock held.
+     */
+    private void write() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + entries.size() * 25);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (Map.Entry<LocalDate, Entry> e : entries.entrySet()) {
+            out.writeLong(e.getKey().toEpochDay());
+            out.writeLong(e.getValue().seriesSize);
+            out.writeLong(e.getValue().summarySize);
+            out.writeBoolean(e.getValue().pending);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        SeriesFileManager.syncDirectory(file.getParent());
+    }
+}
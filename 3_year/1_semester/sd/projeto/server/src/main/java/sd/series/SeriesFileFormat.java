@@ -0,0 +1,289 @@
+package sd.series;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Random-access (v2) and compressed (v3) layouts of a series file, read through a memory map.
+ *
+ * <pre>
+ * header     int magic ("SDS2"), int version, long epochDay, byte currentDay,
+ *            int productCount, long recordsStart
+ * directory  per product: UTF name, long offset (from recordsStart), int count,
+ *            int quantity, double volume, double maxPrice
+ *            v3 only, after offset: int blockLength, int rawLength
+ * records    v2: per event, grouped by product: int quantity, double price, long epochNanos
+ *            v3: per product, an {@link EventCodec} block
+ * </pre>
+ *
+ * The directory holds each product's aggregates and where its records start, so loading a day only
+ * parses the directory: the records stay in the mapped file and a page is only read from disk when
+ * a FILTER_EVENTS (or the thaw of the current day) actually touches that product. In v3 that first
+ * touch also inflates the product's block onto the heap; in exchange the file is several times
+ * smaller, which matters when long histories are read cold from disk.
+ *
+ * Files written before this format start with the product count instead of the magic number and
+ * are still read, through {@link TimeSeries#deserialize(DataInputStream)}.
+ *
+ * Small files are read into a heap buffer instead of being mapped, and so is every file on
+ * Windows: a mapping stays alive until it is garbage collected, and Windows refuses to replace a
+ * mapped file, which every re-save of a loaded day (checkpoints, log recovery, format upgrades)
+ * does by renaming a new file over it.
+ */
+final class SeriesFileFormat {
+    static final int MAGIC = 0x53445332;
+    static final int VERSION = 2;
+    static final int COMPRESSED_VERSION = 3;
+
+    /**
+     * Version reported for files written before the magic number existed.
+     */
+    static final int LEGACY_VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 1 + 4 + 8;
+
+    /**
+     * Files below this size are read into the heap: a mapping costs more than it saves for them.
+     */
+    static final long MAP_THRESHOLD = 1 << 20;
+
+    // Windows cannot rename a file over one that is still mapped
+    private static final boolean CAN_REPLACE_MAPPED = File.separatorChar != '\\';
+
+    private SeriesFileFormat() {
+    }
+
+    /**
+     * Writes a series in the v2 format.
+     *
+     * @param series The series to write.
+     * @param file   The destination file, overwritten if it exists.
+     * @throws IOException If an I/O error occurs.
+     */
+    static void write(TimeSeries series, Path file) throws IOException {
+        write(series, file, false);
+    }
+
+    /**
+     * Writes a series in the v2 or the compressed v3 format. Products are snapshotted first, so
+     * concurrent sales of the current day cannot make the directory disagree with the records.
+     *
+     * @param series     The series to write.
+     * @param file       The destination file, overwritten if it exists.
+     * @param compressed True to write v3.
+     * @throws IOException If an I/O error occurs.
+     */
+    static void write(TimeSeries series, Path file, boolean compressed) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<FrozenEvents> columns = new ArrayList<>();
+        for (Map.Entry<String, ProductEvent> entry : series.productEntries()) {
+            names.add(entry.getKey());
+            columns.add(entry.getValue().columns(entry.getKey()));
+        }
+
+        List<EventCodec.Block> blocks = new ArrayList<>();
+        if (compressed) {
+            for (FrozenEvents events : columns) {
+                blocks.add(EventCodec.encode(events));
+            }
+        }
+
+        ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+        DataOutputStream directory = new DataOutputStream(directoryBytes);
+        long offset = 0;
+        for (int p = 0; p < names.size(); p++) {
+            FrozenEvents events = columns.get(p);
+            long quantity = 0;
+            double volume = 0.0;
+            double max = -1.0;
+            for (int i = 0; i < events.size(); i++) {
+                quantity += events.getQuantity(i);
+                volume += events.getPrice(i) * events.getQuantity(i);
+                max = Math.max(max, events.getPrice(i));
+            }
+
+            directory.writeUTF(names.get(p));
+            directory.writeLong(offset);
+            if (compressed) {
+                directory.writeInt(blocks.get(p).data.length);
+                directory.writeInt(blocks.get(p).rawLength);
+            }
+            directory.writeInt(events.size());
+            directory.writeInt((int) quantity);
+            directory.writeDouble(volume);
+            directory.writeDouble(max);
+            offset += compressed ? blocks.get(p).data.length : (long) events.size() * FrozenEvents.RECORD_SIZE;
+        }
+        directory.flush();
+
+        // Forced before returning: callers rename the file into place and may then drop the only
+        // other copy of its sales (the write-ahead log segments)
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeInt(compressed ? COMPRESSED_VERSION : VERSION);
+            out.writeLong(series.getDate().toEpochDay());
+            out.writeBoolean(series.isCurrentDay());
+            out.writeInt(names.size());
+            out.writeLong(HEADER_SIZE + directoryBytes.size());
+            directoryBytes.writeTo(out);
+
+            for (EventCodec.Block block : blocks) {
+                out.write(block.data);
+            }
+            if (!compressed) {
+                for (FrozenEvents events : columns) {
+                    for (int i = 0; i < events.size(); i++) {
+                        out.writeInt(events.getQuantity(i));
+                        out.writeDouble(events.getPrice(i));
+                        out.writeLong(events.getEpochNanos(i));
+                    }
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Reads a series file of either format.
+     *
+     * @param file The series file.
+     * @return The series; frozen unless it is marked as the current day.
+     * @throws IOException If an I/O error occurs or the file is malformed.
+     */
+    static TimeSeries read(Path file) throws IOException {
+        return read(file, CAN_REPLACE_MAPPED);
+    }
+
+    /**
+     * Reads a series file of either format, optionally without mapping it.
+     *
+     * @param file     The series file.
+     * @param allowMap False to read the file into the heap, e.g. when it is about to be replaced.
+     * @return The series; frozen unless it is marked as the current day.
+     * @throws IOException If an I/O error occurs or the file is malformed.
+     */
+    static TimeSeries read(Path file, boolean allowMap) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (version(channel) == LEGACY_VERSION) {
+                channel.position(0);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                return TimeSeries.deserialize(in);
+            }
+
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Ficheiro de série demasiado grande: " + file);
+            }
+            if (allowMap && size >= MAP_THRESHOLD) {
+                // The mapping stays valid after the channel is closed
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return readMapped(map, file);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    throw new IOException("Ficheiro de série truncado: " + file);
+                }
+            }
+            buffer.clear();
+            return readMapped(buffer, file);
+        }
+    }
+
+    /**
+     * Returns the format version of a series file.
+     *
+     * @param file The series file.
+     * @return {@link #VERSION}, {@link #COMPRESSED_VERSION}, or {@link #LEGACY_VERSION} if it has no magic number.
+     * @throws IOException If an I/O error occurs.
+     */
+    static int version(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return version(channel);
+        }
+    }
+
+    private static int version(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return LEGACY_VERSION;
+            }
+        }
+        return (header.getInt(0) == MAGIC) ? header.getInt(4) : LEGACY_VERSION;
+    }
+
+    /**
+     * Builds a series over a v2 or v3 file, mapped or read into the heap, parsing only the header
+     * and the directory.
+     */
+    private static TimeSeries readMapped(ByteBuffer map, Path file) throws IOException {
+        if (map.capacity() < HEADER_SIZE) {
+            throw new IOException("Cabeçalho de série inválido: " + file);
+        }
+        int version = map.getInt(4);
+        if (version != VERSION && version != COMPRESSED_VERSION) {
+            throw new IOException("Versão de série não suportada (" + version + "): " + file);
+        }
+        LocalDate date = LocalDate.ofEpochDay(map.getLong(8));
+        boolean isCurrentDay = map.get(16) != 0;
+        int productCount = map.getInt(17);
+        long recordsStart = map.getLong(21);
+        if (recordsStart < HEADER_SIZE || recordsStart > map.capacity()) {
+            throw new IOException("Diretório de série inválido: " + file);
+        }
+
+        byte[] directoryBytes = new byte[(int) recordsStart - HEADER_SIZE];
+        map.get(HEADER_SIZE, directoryBytes);
+        DataInputStream directory = new DataInputStream(new ByteArrayInputStream(directoryBytes));
+
+        TimeSeries series = new TimeSeries(date, isCurrentDay);
+        for (int p = 0; p < productCount; p++) {
+            String name = directory.readUTF();
+            long offset = directory.readLong();
+            int blockLength = (version == COMPRESSED_VERSION) ? directory.readInt() : 0;
+            int rawLength = (version == COMPRESSED_VERSION) ? directory.readInt() : 0;
+            int count = directory.readInt();
+            int quantity = directory.readInt();
+            double volume = directory.readDouble();
+            double max = directory.readDouble();
+
+            long start = recordsStart + offset;
+            long length = (version == COMPRESSED_VERSION) ? blockLength : (long) count * FrozenEvents.RECORD_SIZE;
+            if (offset < 0 || count < 0 || length < 0 || rawLength < 0 || start + length > map.capacity()) {
+                throw new IOException("Registos fora do ficheiro para o produto " + name + ": " + file);
+            }
+            ByteBuffer records = map.slice((int) start, (int) length);
+            FrozenEvents events = (version == COMPRESSED_VERSION)
+                    ? FrozenEvents.compressed(name, records, rawLength, count)
+                    : FrozenEvents.mapped(name, records);
+            series.putProduct(name, ProductEvent.frozen(events, quantity, volume, max));
+        }
+
+        // Products are loaded frozen; only a still-open day needs appendable logs
+        if (isCurrentDay) {
+            series.thaw();
+        }
+        return series;
+    }
+}
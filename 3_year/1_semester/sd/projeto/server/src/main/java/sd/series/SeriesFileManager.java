@@ -1,17 +1,39 @@
 package sd.series;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Handles the persistence layer for TimeSeries objects.
  * Responsible for reading from and writing to binary files on the disk, organized by date.
  * File pattern: "series_YYYY-MM-DD.dat".
+ * Every saved series is accompanied by its DaySummary ("summary_YYYY-MM-DD.dat"), which
+ * aggregations read instead of the full series.
+ * Series are written in the random-access {@link SeriesFileFormat} and loaded through a memory map
+ * (into the heap for small files, and on Windows);
+ * files in the legacy format are still read, and {@link #upgradeFormat()} rewrites them.
+ * A manager created with compression writes the smaller v3 variant of the format instead; both
+ * variants are always read, so the setting can change between runs.
+ * Files are written to a temporary file and then renamed over the old one, so a series that is
+ * currently mapped (or a crash mid-write) never sees a half-written file.
+ *
+ * Which days exist is kept in a {@link SeriesCatalog} ("catalog.dat"), read once when the manager
+ * is created and updated around every save, so no lookup, count or startup query scans the
+ * directory or checks a file's existence. Without a readable catalog the directory is scanned
+ * once to rebuild it; deleting catalog.dat forces that rescan after files are changed by hand.
  */
 public final class SeriesFileManager {
     private final Path dataDirectory;
+    private final boolean compressed;
+    private final SeriesCatalog catalog;
 
     /**
      * Default constructor. Uses the standard relative path for data storage.
@@ -30,8 +52,66 @@ public final class SeriesFileManager {
      * @throws IOException If the directory cannot be created.
      */
     public SeriesFileManager(String basePath) throws IOException {
+        this(basePath, false);
+    }
+
+    /**
+     * Constructor allowing a custom base path and the compressed file format.
+     * Creates the directory if it does not exist.
+     *
+     * @param basePath   The path string to the data directory.
+     * @param compressed True to write series in the compressed (v3) format.
+     * @throws IOException If the directory cannot be created.
+     */
+    public SeriesFileManager(String basePath, boolean compressed) throws IOException {
         this.dataDirectory = Paths.get(basePath);
+        this.compressed = compressed;
         Files.createDirectories(dataDirectory);
+
+        this.catalog = new SeriesCatalog(dataDirectory.resolve(SeriesCatalog.FILE_NAME));
+        if (!catalog.load()) {
+            rebuildCatalog();
+        } else {
+            checkPendingDays();
+        }
+    }
+
+    /**
+     * Rebuilds the catalog from a scan of the data directory.
+     *
+     * @throws IOException If the directory cannot be listed or the catalog cannot be written.
+     */
+    private void rebuildCatalog() throws IOException {
+        Map<LocalDate, SeriesCatalog.Entry> entries = new HashMap<>();
+        for (LocalDate date : scanDates("series_*.dat")) {
+            entries.put(date, entryOnDisk(date));
+        }
+        for (LocalDate date : scanDates("summary_*.dat")) {
+            entries.putIfAbsent(date, entryOnDisk(date));
+        }
+        catalog.replaceAll(entries);
+    }
+
+    /**
+     * Settles the days whose save was interrupted by a crash, by looking at their files.
+     *
+     * @throws IOException If the catalog cannot be written.
+     */
+    private void checkPendingDays() throws IOException {
+        for (Map.Entry<LocalDate, SeriesCatalog.Entry> e : catalog.entries().entrySet()) {
+            if (e.getValue().pending) {
+                SeriesCatalog.Entry onDisk = entryOnDisk(e.getKey());
+                catalog.update(e.getKey(), old -> onDisk);
+            }
+        }
+    }
+
+    private SeriesCatalog.Entry entryOnDisk(LocalDate date) throws IOException {
+        return new SeriesCatalog.Entry(sizeOnDisk(getFilePath(date)), sizeOnDisk(getSummaryPath(date)), false);
+    }
+
+    private static long sizeOnDisk(Path path) throws IOException {
+        return Files.exists(path) ? Files.size(path) : SeriesCatalog.ABSENT;
     }
 
     /**
@@ -46,21 +126,180 @@ public final class SeriesFileManager {
     }
 
     /**
-     * Saves a TimeSeries object to disk.
-     * Uses a BufferedOutputStream for performance optimization.
+     * Generates the summary file path for a specific date.
+     *
+     * @param date The date to generate the filename for.
+     * @return The Path object representing the summary file location.
+     */
+    private Path getSummaryPath(LocalDate date) {
+        String filename = String.format("summary_%04d-%02d-%02d.dat", date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+        return dataDirectory.resolve(filename);
+    }
+
+    /**
+     * Generates the temporary path a file is written to before being renamed into place.
+     *
+     * @param filePath The final file path.
+     * @return The temporary path, in the same directory.
+     */
+    private Path getTempPath(Path filePath) {
+        return filePath.resolveSibling(filePath.getFileName() + ".tmp");
+    }
+
+    /**
+     * Moves a fully written temporary file over its final path, atomically where supported.
+     *
+     * @param tmpPath  The temporary file.
+     * @param filePath The final file path.
+     * @throws IOException If the file cannot be moved.
+     */
+    private void replace(Path tmpPath, Path filePath) throws IOException {
+        try {
+            Files.move(tmpPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Forces the entries of a directory to disk, so files created, renamed or deleted in it
+     * survive a power loss and not only a crash of the process. Skipped on Windows, where a
+     * directory cannot be opened as a channel.
+     *
+     * @param directory The directory.
+     * @throws IOException If the directory cannot be forced.
+     */
+    public static void syncDirectory(Path directory) throws IOException {
+        if (File.separatorChar == '\\') return;
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Saves a TimeSeries object to disk, followed by its DaySummary.
+     * Both files and their renames are on disk when this returns.
      *
      * @param series The TimeSeries object to save.
      * @param date   The date associated with the series.
      * @throws IOException If an I/O error occurs during writing.
      */
     public void saveTimeSeries(TimeSeries series, LocalDate date) throws IOException {
-        Path filePath = getFilePath(date);
-        // Uses BufferedOutputStream for performance
-        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(filePath)))) {
-            series.serialize(out);
+        Path tmpPath = getTempPath(getFilePath(date));
+        SeriesFileFormat.write(series, tmpPath, compressed);
+        Path summaryTmpPath = writeSummary(DaySummary.of(series), date);
+        install(date, tmpPath, summaryTmpPath);
+    }
+
+    /**
+     * Renames the temporary files of a day into place, recording them in the catalog. The day is
+     * marked pending while the renames happen, so a crash in between is settled at the next start.
+     *
+     * @param date           The day.
+     * @param seriesTmpPath  The temporary series file, or null to keep the current one.
+     * @param summaryTmpPath The temporary summary file, or null to keep the current one.
+     * @throws IOException If a file cannot be renamed or the catalog cannot be written.
+     */
+    private void install(LocalDate date, Path seriesTmpPath, Path summaryTmpPath) throws IOException {
+        long seriesSize = (seriesTmpPath != null) ? Files.size(seriesTmpPath) : SeriesCatalog.ABSENT;
+        long summarySize = (summaryTmpPath != null) ? Files.size(summaryTmpPath) : SeriesCatalog.ABSENT;
+
+        catalog.update(date, old -> merge(old, seriesSize, summarySize, true));
+        if (seriesTmpPath != null) replace(seriesTmpPath, getFilePath(date));
+        if (summaryTmpPath != null) replace(summaryTmpPath, getSummaryPath(date));
+        syncDirectory(dataDirectory);
+        catalog.update(date, old -> merge(old, seriesSize, summarySize, false));
+    }
+
+    private static SeriesCatalog.Entry merge(SeriesCatalog.Entry old, long seriesSize, long summarySize, boolean pending) {
+        long oldSeries = (old != null) ? old.seriesSize : SeriesCatalog.ABSENT;
+        long oldSummary = (old != null) ? old.summarySize : SeriesCatalog.ABSENT;
+        return new SeriesCatalog.Entry(
+                (seriesSize != SeriesCatalog.ABSENT) ? seriesSize : oldSeries,
+                (summarySize != SeriesCatalog.ABSENT) ? summarySize : oldSummary,
+                pending);
+    }
+
+    /**
+     * Saves a DaySummary to disk.
+     *
+     * @param summary The summary to save.
+     * @param date    The date associated with the summary.
+     * @throws IOException If an I/O error occurs during writing.
+     */
+    public void saveSummary(DaySummary summary, LocalDate date) throws IOException {
+        install(date, null, writeSummary(summary, date));
+    }
+
+    /**
+     * Writes a summary to its temporary file.
+     *
+     * @return The temporary file.
+     */
+    private Path writeSummary(DaySummary summary, LocalDate date) throws IOException {
+        Path tmpPath = getTempPath(getSummaryPath(date));
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            summary.serialize(out);
+            out.flush();
+            channel.force(true);
+        }
+        return tmpPath;
+    }
+
+    /**
+     * Loads the DaySummary of a date if its summary file exists.
+     *
+     * @param date The date to load.
+     * @return The deserialized DaySummary, or null if the summary file does not exist.
+     * @throws IOException If an I/O error occurs during reading.
+     */
+    public DaySummary loadSummary(LocalDate date) throws IOException {
+        SeriesCatalog.Entry entry = catalog.get(date);
+        if (entry == null || !entry.hasSummary()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(getSummaryPath(date))))) {
+            return DaySummary.deserialize(in);
+        } catch (NoSuchFileException e) {
+            forgetMissing(date);
+            return null;
         }
     }
 
+    /**
+     * Brings the catalog entry of a day back in line with the disk after one of its files was
+     * found missing (e.g., deleted by hand).
+     */
+    private void forgetMissing(LocalDate date) throws IOException {
+        System.err.println("Aviso: ficheiros de " + date + " em falta; catálogo corrigido");
+        SeriesCatalog.Entry onDisk = entryOnDisk(date);
+        catalog.update(date, old -> onDisk);
+    }
+
+    /**
+     * Generates the missing summary files for every series file in the data directory.
+     * Used to upgrade data written before summaries existed.
+     *
+     * @return The number of summaries generated.
+     * @throws IOException If a series cannot be read or a summary cannot be written.
+     */
+    public int backfillSummaries() throws IOException {
+        int generated = 0;
+        for (LocalDate date : listSeriesDates()) {
+            if (catalog.get(date).hasSummary()) continue;
+
+            TimeSeries series = loadTimeSeries(date);
+            if (series != null) {
+                saveSummary(DaySummary.of(series), date);
+                generated++;
+            }
+        }
+        return generated;
+    }
+
     /**
      * Loads a TimeSeries object from disk if it exists.
      *
@@ -69,15 +308,42 @@ public final class SeriesFileManager {
      * @throws IOException If an I/O error occurs during reading.
      */
     public TimeSeries loadTimeSeries(LocalDate date) throws IOException {
-        Path filePath = getFilePath(date);
+        SeriesCatalog.Entry entry = catalog.get(date);
+        if (entry == null || !entry.hasSeries()) {
+            return null;
+        }
 
-        if (!Files.exists(filePath)) {
+        try {
+            return SeriesFileFormat.read(getFilePath(date));
+        } catch (NoSuchFileException e) {
+            forgetMissing(date);
             return null;
         }
+    }
 
-        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(filePath)))) {
-            return TimeSeries.deserialize(in);
+    /**
+     * Rewrites every series file in an older format than the one this manager writes: legacy files,
+     * and also v2 files if this manager compresses. Compressed files are never expanded back.
+     * Summaries are left untouched, since their content does not change.
+     *
+     * @return The number of series files converted.
+     * @throws IOException If a series cannot be read or written.
+     */
+    public int upgradeFormat() throws IOException {
+        int converted = 0;
+        for (LocalDate date : listSeriesDates()) {
+            Path filePath = getFilePath(date);
+            int target = compressed ? SeriesFileFormat.COMPRESSED_VERSION : SeriesFileFormat.VERSION;
+            if (SeriesFileFormat.version(filePath) >= target) continue;
+
+            // Read without a mapping, which would keep the file from being replaced on Windows
+            TimeSeries series = SeriesFileFormat.read(filePath, false);
+            Path tmpPath = getTempPath(filePath);
+            SeriesFileFormat.write(series, tmpPath, compressed);
+            install(date, tmpPath, null);
+            converted++;
         }
+        return converted;
     }
 
     /**
@@ -87,52 +353,67 @@ public final class SeriesFileManager {
      * @return True if the file exists, false otherwise.
      */
     public boolean existsTimeSeries(LocalDate date) {
-        return Files.exists(getFilePath(date));
+        SeriesCatalog.Entry entry = catalog.get(date);
+        return entry != null && entry.hasSeries();
     }
 
     /**
-     * Counts how many historical data files exist in the data directory.
-     * Matches files against the "series_*.dat" pattern.
+     * Counts how many days have a series file, from the catalog.
      *
-     * @return The count of files found.
-     * @throws IOException If an I/O error occurs during directory listing.
+     * @return The count of series files.
      */
-    public int countHistoricalDays() throws IOException {
-        int count = 0;
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataDirectory, "series_*.dat")) {
-            for (Path ignored : stream) {
-                count++;
-            }
-        }
-        return count;
+    public int countHistoricalDays() {
+        return listSeriesDates().size();
     }
 
     /**
-     * Scans the directory to find the most recent date saved on disk.
-     * Parses filenames to determine the dates. Handles parsing errors gracefully.
+     * Finds the most recent date with a series file, from the catalog.
      *
-     * @return The latest LocalDate found, or null if no valid files exist or an error occurs.
+     * @return The latest LocalDate found, or null if no series was saved.
      */
     public LocalDate getLastSavedDate() {
-        LocalDate maxDate = null;
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataDirectory, "series_*.dat")) {
+        for (Map.Entry<LocalDate, SeriesCatalog.Entry> e : catalog.entries().descendingMap().entrySet()) {
+            if (e.getValue().hasSeries()) return e.getKey();
+        }
+        return null;
+    }
+
+    /**
+     * Lists the dates of every series file, from the catalog.
+     *
+     * @return The dates, in order.
+     */
+    private List<LocalDate> listSeriesDates() {
+        List<LocalDate> dates = new ArrayList<>();
+        for (Map.Entry<LocalDate, SeriesCatalog.Entry> e : catalog.entries().entrySet()) {
+            if (e.getValue().hasSeries()) dates.add(e.getKey());
+        }
+        return dates;
+    }
+
+    /**
+     * Lists the dates of the files of the data directory matching a pattern.
+     * Parses filenames to determine the dates, ignoring poorly formatted files.
+     *
+     * @param pattern The glob of the files, "series_*.dat" or "summary_*.dat".
+     * @return The dates found, in no particular order.
+     * @throws IOException If an I/O error occurs during directory listing.
+     */
+    private List<LocalDate> scanDates(String pattern) throws IOException {
+        int prefix = pattern.indexOf('*');
+        List<LocalDate> dates = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataDirectory, pattern)) {
             for (Path entry : stream) {
                 String filename = entry.getFileName().toString();
-                if (filename.length() >= 17) {
+                if (filename.length() >= prefix + 10) {
                     try {
-                        String dateStr = filename.substring(7, 17);
-                        LocalDate date = LocalDate.parse(dateStr);
-                        if (maxDate == null || date.isAfter(maxDate)) {
-                            maxDate = date;
-                        }
+                        dates.add(LocalDate.parse(filename.substring(prefix, prefix + 10)));
                     } catch (DateTimeParseException | IndexOutOfBoundsException e) {
                         // Ignores poorly formatted files
                     }
                 }
             }
-        } catch (IOException e) {
-            return null;
         }
-        return maxDate;
+        return dates;
     }
 }
\ No newline at end of file
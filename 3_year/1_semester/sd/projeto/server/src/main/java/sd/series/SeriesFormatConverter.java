@@ -0,0 +1,40 @@
+package sd.series;
+
+import java.io.IOException;
+
+/**
+ * Command-line tool that rewrites every stored series still in the legacy file format
+ * in the random-access format read through a memory map, or with {@code --compress} every series
+ * not yet compressed in the compressed variant of that format.
+ * Optional: the server reads every format and rewrites a day whenever it saves it again.
+ *
+ * Usage: {@code ./gradlew :server:convertSeries [--args="[data directory] [--compress]"]}
+ */
+public final class SeriesFormatConverter {
+
+    private SeriesFormatConverter() {
+    }
+
+    /**
+     * Entry point of the conversion tool.
+     *
+     * @param args command-line arguments: [data directory] (default: data/timeseries), [--compress]
+     */
+    public static void main(String[] args) {
+        boolean compress = false;
+        String dir = "data/timeseries";
+        for (String arg : args) {
+            if (arg.equals("--compress")) compress = true;
+            else dir = arg;
+        }
+
+        try {
+            SeriesFileManager fileManager = new SeriesFileManager(dir, compress);
+            int converted = fileManager.upgradeFormat();
+            System.out.println("Séries convertidas: " + converted + " (" + dir + ")");
+        } catch (IOException e) {
+            System.err.println("Erro ao converter séries: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
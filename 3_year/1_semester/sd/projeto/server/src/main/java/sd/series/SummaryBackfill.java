@@ -0,0 +1,34 @@
+package sd.series;
+
+import java.io.IOException;
+
+/**
+ * Command-line tool that generates the summary file of every stored series that does not have one yet.
+ * Needed once for data directories written before DaySummary existed; the server also builds a missing
+ * summary lazily the first time an aggregation needs it.
+ *
+ * Usage: {@code ./gradlew :server:backfillSummaries [--args="<data directory>"]}
+ */
+public final class SummaryBackfill {
+
+    private SummaryBackfill() {
+    }
+
+    /**
+     * Entry point of the backfill tool.
+     *
+     * @param args command-line arguments: [data directory] (default: data/timeseries)
+     */
+    public static void main(String[] args) {
+        String dir = (args.length >= 1) ? args[0] : "data/timeseries";
+
+        try {
+            SeriesFileManager fileManager = new SeriesFileManager(dir);
+            int generated = fileManager.backfillSummaries();
+            System.out.println("Sumários gerados: " + generated + " (" + dir + ")");
+        } catch (IOException e) {
+            System.err.println("Erro ao gerar sumários: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
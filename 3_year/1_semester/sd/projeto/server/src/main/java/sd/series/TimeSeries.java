@@ -1,23 +1,25 @@
 package sd.series;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * Represents the complete set of sales data for a specific day (LocalDate).
  * It maps product names to their respective ProductEvent containers.
  * This class handles the daily aggregation logic and supports both full and filtered serialization.
+ *
+ * Ingestion is striped per product: the map is a ConcurrentHashMap and each ProductEvent is an
+ * append-only lock-free log, so sales of different products (and even of the same product)
+ * are recorded in parallel without a series-wide lock.
  */
 public class TimeSeries {
     private final Map<String, ProductEvent> events;
     private final LocalDate date;
-    private final ReentrantLock lock;
-    private boolean isCurrentDay;
+    private volatile boolean isCurrentDay;
 
     /**
      * Constructs a TimeSeries for a specific date.
@@ -26,9 +28,8 @@ public class TimeSeries {
      * @param isCurrentDay Flag indicating if this is the currently active day (allowing updates).
      */
     public TimeSeries(LocalDate date, boolean isCurrentDay) {
-        this.events = new HashMap<>();
+        this.events = new ConcurrentHashMap<>();
         this.date = date;
-        this.lock = new ReentrantLock();
         this.isCurrentDay = isCurrentDay;
     }
 
@@ -48,12 +49,7 @@ public class TimeSeries {
      * @return True if it is the current day, false otherwise.
      */
     public boolean isCurrentDay() {
-        lock.lock();
-        try {
-            return isCurrentDay;
-        } finally {
-            lock.unlock();
-        }
+        return isCurrentDay;
     }
 
     /**
@@ -62,12 +58,7 @@ public class TimeSeries {
      * @param currentDay The new status.
      */
     public void setCurrentDay(boolean currentDay) {
-        lock.lock();
-        try {
-            this.isCurrentDay = currentDay;
-        } finally {
-            lock.unlock();
-        }
+        this.isCurrentDay = currentDay;
     }
 
     /**
@@ -82,6 +73,19 @@ public class TimeSeries {
         pe.addEvent(event);
     }
 
+    /**
+     * Returns the number of sales events recorded across all products.
+     *
+     * @return The event count.
+     */
+    public long getEventCount() {
+        long count = 0;
+        for (ProductEvent pe : events.values()) {
+            count += pe.getEventCount();
+        }
+        return count;
+    }
+
     /**
      * Retrieves a flattened list of all events across all products.
      * Thread-safe.
@@ -89,14 +93,9 @@ public class TimeSeries {
      * @return A list of all SalesEvents in this series.
      */
     public List<SalesEvent> getAllEvents() {
-        lock.lock();
-        try {
-            return events.values().stream().
-                    flatMap(pe -> pe.getEvent().stream())
-                    .collect(Collectors.toList());
-        } finally {
-            lock.unlock();
-        }
+        return events.values().stream().
+                flatMap(pe -> pe.getEvent().stream())
+                .collect(Collectors.toList());
     }
 
     /**
@@ -117,12 +116,7 @@ public class TimeSeries {
      * @return A Set of strings representing product names.
      */
     public Set<String> getAllProductNames() {
-        lock.lock();
-        try {
-            return new HashSet<>(events.keySet());
-        } finally {
-            lock.unlock();
-        }
+        return new HashSet<>(events.keySet());
     }
 
     /**
@@ -158,27 +152,75 @@ public class TimeSeries {
         return (pe != null) ? pe.getMaxPrice() : -1.0;
     }
 
+    /**
+     * Closes the day: marks it as no longer current and converts every product to the compact,
+     * read-only columnar layout. Must be called once no more events can be added.
+     */
+    public void freeze() {
+        isCurrentDay = false;
+        for (Map.Entry<String, ProductEvent> entry : events.entrySet()) {
+            entry.getValue().freeze(entry.getKey());
+        }
+    }
+
+    /**
+     * Makes every product appendable again, for a day that is (again) the current one.
+     */
+    public void thaw() {
+        isCurrentDay = true;
+        for (ProductEvent pe : events.values()) {
+            pe.thaw();
+        }
+    }
+
+    /**
+     * Copies the events published so far into a new series of the same day, with frozen products.
+     * Used to checkpoint the current day: the copy can be written to disk while sales keep being
+     * added to this series. To be consistent, it must be taken while no sale is being added.
+     *
+     * @return The copy, flagged as current if this series is.
+     */
+    public TimeSeries snapshot() {
+        TimeSeries copy = new TimeSeries(date, isCurrentDay);
+        for (Map.Entry<String, ProductEvent> entry : events.entrySet()) {
+            copy.putProduct(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return copy;
+    }
+
+    /**
+     * Snapshot of the product entries, used to build the DaySummary of this series.
+     *
+     * @return A copy of the product name to ProductEvent entries.
+     */
+    List<Map.Entry<String, ProductEvent>> productEntries() {
+        return new ArrayList<>(events.entrySet());
+    }
+
+    /**
+     * Adds a product loaded from disk. Used by the series file readers while building the series.
+     *
+     * @param product      The product name.
+     * @param productEvent The product's events.
+     */
+    void putProduct(String product, ProductEvent productEvent) {
+        events.put(product, productEvent);
+    }
+
     /**
      * Helper method to retrieve or create a ProductEvent.
-     * Uses the class lock to ensure thread safety during map modification.
+     * The common case (product already present) is a plain lock-free lookup; only the first
+     * sale of a product falls back to computeIfAbsent, which locks a single map bin.
      *
      * @param product The product name.
      * @return The existing or newly created ProductEvent.
      */
     private ProductEvent getOrCreateProductEvent(String product) {
-        lock.lock();
-        try {
-            ProductEvent pe = events.get(product);
-            if (pe != null) {
-                return pe;
-            }
-
-            pe = new ProductEvent();
-            events.put(product, pe);
+        ProductEvent pe = events.get(product);
+        if (pe != null) {
             return pe;
-        } finally {
-            lock.unlock();
         }
+        return events.computeIfAbsent(product, k -> new ProductEvent());
     }
 
     /**
@@ -189,85 +231,40 @@ public class TimeSeries {
      * @return The ProductEvent or null if not found.
      */
     private ProductEvent getProductEvent(String product) {
-        lock.lock();
-        try { return events.get(product); }
-        finally { lock.unlock(); }
-    }
-
-    /**
-     * Serializes the entire TimeSeries object.
-     * Writes the map size, all product entries, the date, and the current day flag.
-     *
-     * @param out The output stream.
-     * @throws IOException If an I/O error occurs.
-     */
-    protected void serialize(DataOutputStream out) throws IOException {
-        lock.lock();
-        try {
-            out.writeInt(events.size());
-            for (Map.Entry<String, ProductEvent> entry : events.entrySet()) {
-                out.writeUTF(entry.getKey());
-                entry.getValue().serialize(out);
-            }
-
-            out.writeLong(date.toEpochDay());
-            out.writeBoolean(isCurrentDay);
-        } finally {
-            lock.unlock();
-        }
+        return events.get(product);
     }
 
-    // Point 4 - Person D (Nelson) - Kept as requested
     /**
-     * Serializes only events matching the provided product filter using a compacted format.
-     * Creates a dictionary of products to replace string names with short IDs in the output.
+     * Prepares the reply with the events matching the provided product filter, in the compacted format.
+     * A dictionary of products replaces string names with short IDs in the output. The events are
+     * not copied: the reply encodes them from the product columns while it is being sent. They are
+     * loaded here, on the caller's thread, so encoding them never waits for the disk or the decoder,
+     * even on the event loop of the non-blocking server.
      *
      * @param productFilter Set of product names to include.
-     * @param out           Output stream.
-     * @throws IOException If an I/O error occurs.
+     * @return The reply, ready to be streamed.
      */
-    public void serializeFilteredEventsCompacted(Set<String> productFilter, DataOutputStream out) throws IOException {
-        lock.lock();
-        try {
-            List<SalesEvent> filteredEvents = new ArrayList<>();
-
-            for (Map.Entry<String, ProductEvent> entry : events.entrySet()) {
-                String productName = entry.getKey();
-                if (productFilter.contains(productName)) {
-                    filteredEvents.addAll(entry.getValue().getEvent());
-                }
-            }
-
-            Map<String, Integer> productDictionary = new HashMap<>();
-            List<String> uniqueProducts = new ArrayList<>();
-
-            for (SalesEvent event : filteredEvents) {
-                String productName = event.getName();
-                if (!productDictionary.containsKey(productName)) {
-                    productDictionary.put(productName, uniqueProducts.size());
-                    uniqueProducts.add(productName);
+    public FilteredEvents filterEvents(Set<String> productFilter) {
+        List<FrozenEvents> matching = new ArrayList<>();
+
+        for (Map.Entry<String, ProductEvent> entry : events.entrySet()) {
+            String productName = entry.getKey();
+            if (productFilter.contains(productName)) {
+                FrozenEvents columns = entry.getValue().columns(productName);
+                if (columns.size() > 0) {
+                    columns.load();
+                    matching.add(columns);
                 }
             }
-
-            out.writeInt(uniqueProducts.size());
-            for (String product : uniqueProducts) {
-                out.writeUTF(product);
-            }
-
-            out.writeInt(filteredEvents.size());
-            for (SalesEvent event : filteredEvents) {
-                int productId = productDictionary.get(event.getName());
-                out.writeShort(productId);
-                event.serialize(out, true);
-            }
-
-        } finally {
-            lock.unlock();
         }
+
+        return new FilteredEvents(matching);
     }
 
     /**
-     * Deserializes a TimeSeries object from a stream.
+     * Deserializes a TimeSeries object from a stream in the legacy (pre-v2) series file format:
+     * the product count, each product name followed by its events, the epoch day and the current day flag.
+     * Historical days are read directly into the compact frozen layout.
      *
      * @param in The input stream.
      * @return The reconstructed TimeSeries.
@@ -279,7 +276,7 @@ public class TimeSeries {
 
         for (int i = 0; i < numProducts; i++) {
             String product_name = in.readUTF();
-            ProductEvent productEvent = ProductEvent.deserialize(in);
+            ProductEvent productEvent = ProductEvent.deserialize(in, product_name);
             eventsMap.put(product_name, productEvent);
         }
 
@@ -287,13 +284,18 @@ public class TimeSeries {
         boolean isCurrentDay = in.readBoolean();
 
         TimeSeries timeSeries = new TimeSeries(date, isCurrentDay);
-        timeSeries.events.putAll(eventsMap);
+        eventsMap.forEach(timeSeries::putProduct);
+
+        // Products are loaded frozen; only a still-open day needs appendable logs
+        if (isCurrentDay) {
+            timeSeries.thaw();
+        }
 
         return timeSeries;
     }
 
     /**
-     * Deserializes the compacted event list format created by serializeFilteredEventsCompacted.
+     * Deserializes the compacted event list format written by {@link FilteredEvents}.
      *
      * @param in The input stream.
      * @return A list of SalesEvents.
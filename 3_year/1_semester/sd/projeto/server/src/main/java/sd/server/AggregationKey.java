@@ -0,0 +1,50 @@
+package sd.server;
+
+import java.util.Objects;
+
+/**
+ * Key of the aggregation cache: a product and the size of its window in days.
+ * The type is deliberately not part of the key, because the cached {@link AggregationWindow}
+ * holds the partials that answer all four aggregation types.
+ */
+public final class AggregationKey {
+    private final String product;
+    private final int days;
+
+    /**
+     * Creates a key.
+     *
+     * @param product The product name.
+     * @param days    The number of previous days in the window.
+     */
+    public AggregationKey(String product, int days) {
+        this.product = product;
+        this.days = days;
+    }
+
+    public String getProduct() {
+        return product;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AggregationKey)) return false;
+        AggregationKey other = (AggregationKey) o;
+        return days == other.days && product.equals(other.product);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(product, days);
+    }
+
+    @Override
+    public String toString() {
+        return product + "/" + days;
+    }
+}
@@ -0,0 +1,44 @@
+package sd.server;
+
+import sd.common.Tag;
+
+/**
+ * The aggregation operations offered to clients, each bound to its request tag.
+ */
+public enum AggregationType {
+    QUANTITY(Tag.AG_QUANTITY),
+    VOLUME(Tag.AG_VOLUME),
+    AVERAGE(Tag.AG_AVG),
+    MAX(Tag.AG_MAX);
+
+    private final int tag;
+
+    AggregationType(int tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * Gets the request tag of this aggregation.
+     *
+     * @return The tag.
+     */
+    public int getTag() {
+        return tag;
+    }
+
+    /**
+     * Resolves the aggregation requested by a tag.
+     *
+     * @param tag The request tag.
+     * @return The matching aggregation type.
+     * @throws IllegalArgumentException If the tag is not an aggregation tag.
+     */
+    public static AggregationType fromTag(int tag) {
+        for (AggregationType type : values()) {
+            if (type.tag == tag) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Tag de agregação inválida: " + tag);
+    }
+}
@@ -0,0 +1,45 @@
+package sd.server;
+
+/**
+ * Immutable partial totals of one product over a window of days: quantity, volume and maximum price.
+ * Every aggregation type is derived from these partials, so one cache entry serves all of them.
+ */
+public final class AggregationWindow {
+    private final long quantity;
+    private final double volume;
+    private final double maxPrice;
+
+    /**
+     * Creates the partials of a window.
+     *
+     * @param quantity The total quantity sold.
+     * @param volume   The total volume.
+     * @param maxPrice The maximum unit price, or -1.0 if nothing was sold.
+     */
+    public AggregationWindow(long quantity, double volume, double maxPrice) {
+        this.quantity = quantity;
+        this.volume = volume;
+        this.maxPrice = maxPrice;
+    }
+
+    /**
+     * Computes the result of an aggregation over this window.
+     *
+     * @param type The aggregation type.
+     * @return The result; 0.0 when the product was not sold in the window.
+     */
+    public double result(AggregationType type) {
+        switch (type) {
+            case QUANTITY:
+                return quantity;
+            case VOLUME:
+                return volume;
+            case AVERAGE:
+                return (quantity > 0) ? volume / quantity : 0.0;
+            case MAX:
+                return Math.max(0.0, maxPrice);
+            default:
+                throw new IllegalArgumentException("Tipo de agregação inválido: " + type);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package sd.server;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Bounded LRU cache whose hits never take an exclusive lock.
+ *
+ * Entries live in a ConcurrentHashMap, so a hit is a plain concurrent lookup. The recency order is
+ * kept separately in an access-ordered LinkedHashMap guarded by {@code evictionLock}. Hits do not
+ * touch it: they record the key in a small lossy ring buffer and, once in a while, the thread that
+ * wins a {@code tryLock} replays the buffer into the LRU order in one batch. Losing a few recorded
+ * hits when the buffer wraps only makes the eviction order slightly less precise.
+ *
+ * Insertions and evictions take {@code evictionLock}. The {@link EvictionHandler} runs while
+ * it is held, so it must not block; it may veto an eviction. ServerCache uses it to hand evicted
+ * series with unsaved changes to its write-behind queue, which keeps them reachable until they are
+ * on disk.
+ *
+ * Loads run outside {@code evictionLock}: concurrent misses of the same key wait for a single load,
+ * while misses of different keys load in parallel (e.g. the days of a range filter).
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+class ConcurrentLruCache<K, V> {
+    private static final int READ_BUFFER_SIZE = 64; // power of two, indexed with the low 6 bits
+    private static final int DRAIN_MASK = 63; // drain on about one hit in 64, i.e. once per buffer-ful
+
+    /**
+     * Loads a value on a cache miss.
+     */
+    interface Loader<K, V> {
+        /**
+         * @return the loaded value, or null if it does not exist (nothing is cached)
+         */
+        V load(K key) throws IOException;
+    }
+
+    /**
+     * Called before an entry is evicted to make room.
+     */
+    interface EvictionHandler<K, V> {
+        /**
+         * @return true to evict the entry, false to keep it in the cache for now
+         */
+        boolean onEvict(K key, V value);
+    }
+
+    private final int maxSize;
+    private final EvictionHandler<K, V> evictionHandler;
+
+    private final ConcurrentHashMap<K, V> data;
+    private final AtomicReferenceArray<K> readBuffer;
+
+    // Loads in progress, so concurrent misses of a key share one load
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading;
+
+    // Recency order, guarded by evictionLock
+    private final ReentrantLock evictionLock;
+    private final LinkedHashMap<K, Boolean> order;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxSize         the maximum number of entries
+     * @param evictionHandler the callback run before each eviction
+     */
+    ConcurrentLruCache(int maxSize, EvictionHandler<K, V> evictionHandler) {
+        this.maxSize = maxSize;
+        this.evictionHandler = evictionHandler;
+        this.data = new ConcurrentHashMap<>(Math.max(16, maxSize * 2));
+        this.readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        this.loading = new ConcurrentHashMap<>();
+        this.evictionLock = new ReentrantLock();
+        this.order = new LinkedHashMap<>(Math.max(16, maxSize * 2), 0.75f, true);
+    }
+
+    /**
+     * Creates an empty cache that evicts without any callback.
+     *
+     * @param maxSize the maximum number of entries
+     */
+    ConcurrentLruCache(int maxSize) {
+        this(maxSize, (k, v) -> true);
+    }
+
+    /**
+     * Looks up a value and records the hit. Never blocks.
+     *
+     * @param key the key
+     * @return the cached value, or null on a miss
+     */
+    V get(K key) {
+        V value = data.get(key);
+        if (value != null) {
+            recordHit(key);
+        }
+        return value;
+    }
+
+    /**
+     * Looks up a value without affecting its recency.
+     *
+     * @param key the key
+     * @return the cached value, or null if absent
+     */
+    V peek(K key) {
+        return data.get(key);
+    }
+
+    /**
+     * Returns the cached value, loading and inserting it on a miss.
+     * A key is never loaded twice concurrently: later misses wait for the load in progress.
+     * A value put while the load was running wins over the loaded one.
+     *
+     * @param key    the key
+     * @param loader the logic that loads a missing value
+     * @return the value, or null if the loader found nothing
+     * @throws IOException if the loader fails
+     */
+    V getOrLoad(K key, Loader<K, V> loader) throws IOException {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> running = loading.putIfAbsent(key, load);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            // A load that finished between the miss and the claim already inserted the value
+            value = data.get(key);
+            if (value == null) {
+                value = loader.load(key);
+                if (value != null) {
+                    value = insertIfAbsent(key, value);
+                }
+            }
+            load.complete(value);
+            return value;
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, load);
+        }
+    }
+
+    /**
+     * Waits for a load started by another thread.
+     */
+    private V await(CompletableFuture<V> load) throws IOException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Inserts a loaded value unless another one was put meanwhile.
+     *
+     * @return the value now cached
+     */
+    private V insertIfAbsent(K key, V value) {
+        evictionLock.lock();
+        try {
+            V current = data.get(key);
+            if (current != null) {
+                return current;
+            }
+            insert(key, value);
+            return value;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Inserts or replaces a value, evicting the least recently used entries if needed.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    void put(K key, V value) {
+        evictionLock.lock();
+        try {
+            insert(key, value);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a value, without calling the eviction handler.
+     *
+     * @param key the key
+     */
+    void remove(K key) {
+        evictionLock.lock();
+        try {
+            data.remove(key);
+            order.remove(key);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces every cached value in place, keeping the recency order.
+     *
+     * @param function computes the new value from the key and the old value
+     */
+    void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        evictionLock.lock();
+        try {
+            data.replaceAll(function);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes every entry, without calling the eviction handler.
+     */
+    void clear() {
+        evictionLock.lock();
+        try {
+            data.clear();
+            order.clear();
+            for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+                readBuffer.set(i, null);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the size
+     */
+    int size() {
+        return data.size();
+    }
+
+    /**
+     * Records a hit in the read buffer and occasionally replays the buffer into the LRU order.
+     *
+     * @param key the key that was hit
+     */
+    private void recordHit(K key) {
+        // One random draw picks both the slot and whether this hit triggers a drain
+        int r = ThreadLocalRandom.current().nextInt();
+        readBuffer.lazySet(r & (READ_BUFFER_SIZE - 1), key);
+
+        if (((r >>> 6) & DRAIN_MASK) == 0 && evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies the buffered hits to the LRU order. Caller must hold evictionLock.
+     */
+    private void drainReadBuffer() {
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            K key = readBuffer.getAndSet(i, null);
+            if (key != null && data.containsKey(key)) {
+                order.get(key);
+            }
+        }
+    }
+
+    /**
+     * Inserts a value and evicts down to maxSize. Caller must hold evictionLock.
+     */
+    private void insert(K key, V value) {
+        data.put(key, value);
+        order.put(key, Boolean.TRUE);
+
+        if (data.size() <= maxSize) return;
+
+        drainReadBuffer();
+        Iterator<Map.Entry<K, Boolean>> it = order.entrySet().iterator();
+        while (data.size() > maxSize && it.hasNext()) {
+            K eldest = it.next().getKey();
+            if (eldest.equals(key)) continue;
+
+            V eldestValue = data.get(eldest);
+            if (eldestValue != null && !evictionHandler.onEvict(eldest, eldestValue)) {
+                // Kept on request (e.g. failed write-back); stop evicting for now
+                break;
+            }
+            it.remove();
+            data.remove(eldest);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package sd.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A small pool of direct buffers used to stream large replies to non-blocking channels.
+ *
+ * Direct buffers are written to the socket without the extra copy the JDK makes for heap buffers,
+ * but they are expensive to allocate and are only freed by the garbage collector, so they are
+ * reused instead. At most {@code maxPooled} idle buffers are kept; any beyond that are dropped.
+ */
+class DirectBufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<ByteBuffer> idle = new ArrayDeque<>();
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param bufferSize the capacity of each buffer
+     * @param maxPooled  the maximum number of idle buffers kept
+     */
+    DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Takes an idle buffer, or allocates one if none is available.
+     *
+     * @return a cleared direct buffer
+     */
+    ByteBuffer acquire() {
+        lock.lock();
+        try {
+            ByteBuffer buf = idle.poll();
+            if (buf != null) {
+                buf.clear();
+                return buf;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. It must not be used afterwards.
+     *
+     * @param buf the buffer
+     */
+    void release(ByteBuffer buf) {
+        lock.lock();
+        try {
+            if (idle.size() < maxPooled) {
+                idle.push(buf);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package sd.server;
+
+import sd.common.Tag;
+import sd.middleware.FrameSender;
+import sd.series.FilteredEvents;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Server side of one chunked FILTER_EVENTS_STREAM reply.
+ *
+ * The reply is the dictionary frame, then batches of at most {@link #BATCH_EVENTS} events, then an
+ * empty frame marking the end, all under the request's correlation id. Batches are only sent
+ * against credits granted by the client (one credit per batch), so a slow client never makes the
+ * server queue more than its window, and no thread waits for the client in the meantime: a batch
+ * is sent by whichever request thread delivers the credit that allows it.
+ */
+class FilterStream {
+    /**
+     * Maximum number of events per batch frame.
+     */
+    static final int BATCH_EVENTS = 4096;
+
+    private final FrameSender conn;
+    private final int id;
+    private final FilteredEvents events;
+
+    // Guards the batch cursor of events, so concurrent credits send batches in order
+    private final ReentrantLock lock = new ReentrantLock();
+    private int credits = 0;
+    private boolean finished = false;
+
+    /**
+     * Creates the stream of a request.
+     *
+     * @param conn   the channel used to reply
+     * @param id     the correlation id of the request
+     * @param events the events to send
+     */
+    FilterStream(FrameSender conn, int id, FilteredEvents events) {
+        this.conn = conn;
+        this.id = id;
+        this.events = events;
+    }
+
+    /**
+     * Sends the dictionary frame and the batches allowed by the initial window.
+     *
+     * @param window the number of batches the client accepts before granting more
+     * @return true if the stream already ended
+     * @throws IOException if a frame cannot be sent
+     */
+    boolean start(int window) throws IOException {
+        lock.lock();
+        try {
+            conn.send(Tag.FILTER_EVENTS_STREAM, id, events.getHeader());
+            return grant(window);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds credits and sends the batches they allow, followed by the end marker once no events are left.
+     *
+     * @param n the number of batches granted
+     * @return true if the stream has ended
+     * @throws IOException if a frame cannot be sent
+     */
+    boolean grant(int n) throws IOException {
+        lock.lock();
+        try {
+            if (finished) return true;
+
+            credits += n;
+            while (credits > 0 && events.hasMoreBatches()) {
+                conn.send(Tag.FILTER_EVENTS_STREAM, id, events.nextBatch(BATCH_EVENTS));
+                credits--;
+            }
+            if (!events.hasMoreBatches()) {
+                finish();
+            }
+            return finished;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the stream early, at the client's request, by sending the end marker.
+     *
+     * @throws IOException if the end marker cannot be sent
+     */
+    void cancel() throws IOException {
+        lock.lock();
+        try {
+            if (!finished) finish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finish() throws IOException {
+        finished = true;
+        conn.send(Tag.FILTER_EVENTS_STREAM, id, new byte[0]);
+    }
+}
@@ -0,0 +1,124 @@
+package sd.server;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically logs the garbage collector activity of the server, to measure the allocation
+ * pressure of a workload (e.g., while a StressTestClient test runs).
+ *
+ * Every interval it prints the collections and collection time since the last report and an
+ * estimate of the bytes allocated in between: the heap reclaimed by each collection, reported
+ * through GC notifications, plus the growth of the heap since the last report.
+ */
+final class GcMonitor {
+    private final long intervalMillis;
+    private final AtomicLong reclaimed = new AtomicLong();
+
+    private long lastCollections;
+    private long lastCollectionMillis;
+    private long lastReclaimed;
+    private long lastUsed;
+
+    private GcMonitor(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Starts a daemon thread reporting every {@code seconds} seconds.
+     *
+     * @param seconds the report interval
+     */
+    static void start(int seconds) {
+        if (seconds <= 0) throw new IllegalArgumentException("Intervalo inválido: " + seconds);
+
+        GcMonitor monitor = new GcMonitor(seconds * 1000L);
+        monitor.listen();
+        Thread reporter = new Thread(monitor::report, "gc-monitor");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    /**
+     * Adds the heap freed by every collection to {@code reclaimed}.
+     */
+    private void listen() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gc instanceof NotificationEmitter)) continue;
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                long before = used(info.getGcInfo().getMemoryUsageBeforeGc());
+                long after = used(info.getGcInfo().getMemoryUsageAfterGc());
+                reclaimed.addAndGet(Math.max(0, before - after));
+            }, null, null);
+        }
+    }
+
+    private static long used(Map<String, MemoryUsage> pools) {
+        long total = 0;
+        for (MemoryUsage usage : pools.values()) {
+            total += usage.getUsed();
+        }
+        return total;
+    }
+
+    private void report() {
+        lastUsed = heapUsed();
+        lastCollections = collections();
+        lastCollectionMillis = collectionMillis();
+
+        while (true) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long used = heapUsed();
+            long collections = collections();
+            long collectionMillis = collectionMillis();
+            long freed = reclaimed.get();
+            long allocated = (freed - lastReclaimed) + (used - lastUsed);
+
+            System.out.printf("GC: %d coleções, %d ms, ~%.1f MB alocados (%.1f MB/s), heap %.1f MB%n",
+                    collections - lastCollections, collectionMillis - lastCollectionMillis,
+                    allocated / 1e6, allocated / 1e6 / (intervalMillis / 1000.0), used / 1e6);
+
+            lastUsed = used;
+            lastCollections = collections;
+            lastCollectionMillis = collectionMillis;
+            lastReclaimed = freed;
+        }
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long collections() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long collectionMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,137 @@
+package sd.server;
+
+import sd.series.DaySummary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of the daily totals of every product over the stored history, used to answer
+ * the N-day aggregations without visiting each day.
+ *
+ * Days are numbered from the oldest indexed day (0) to the last closed day. For every product the
+ * index keeps prefix sums of quantity and volume, so any window costs two subtractions, and an
+ * append-only sparse table of daily maximum prices, so the maximum of any window costs two lookups.
+ * Products only store days from their first sale onwards, and days on which a product did not sell
+ * are filled in lazily the next time it sells, so closing a day only touches the products sold on it.
+ *
+ * Not thread-safe: ServerState reads it under its read lock and extends it under its write lock.
+ */
+class HistoryIndex {
+    private final Map<String, ProductHistory> products = new HashMap<>();
+    private int days = 0;
+
+    /**
+     * Cumulative daily totals of a single product, starting at the first day it was sold.
+     */
+    private static final class ProductHistory {
+        final int firstDay;
+        int size = 0;
+
+        // cumQuantity[i] / cumVolume[i] hold the totals of the first i days
+        long[] cumQuantity = new long[8];
+        double[] cumVolume = new double[8];
+
+        // maxPrice.get(k)[j] is the maximum of the 2^k days ending at day j
+        final List<double[]> maxPrice = new ArrayList<>();
+
+        ProductHistory(int firstDay) {
+            this.firstDay = firstDay;
+        }
+
+        /**
+         * Appends one day of totals.
+         */
+        void append(long quantity, double volume, double max) {
+            if (size + 1 >= cumQuantity.length) {
+                cumQuantity = Arrays.copyOf(cumQuantity, cumQuantity.length * 2);
+                cumVolume = Arrays.copyOf(cumVolume, cumVolume.length * 2);
+            }
+            cumQuantity[size + 1] = cumQuantity[size] + quantity;
+            cumVolume[size + 1] = cumVolume[size] + volume;
+
+            int j = size;
+            for (int k = 0; (1 << k) <= j + 1; k++) {
+                if (k == maxPrice.size()) {
+                    maxPrice.add(new double[cumQuantity.length]);
+                }
+                double[] level = maxPrice.get(k);
+                if (j >= level.length) {
+                    level = Arrays.copyOf(level, cumQuantity.length);
+                    maxPrice.set(k, level);
+                }
+                if (k == 0) {
+                    level[j] = max;
+                } else {
+                    double[] prev = maxPrice.get(k - 1);
+                    level[j] = Math.max(prev[j], prev[j - (1 << (k - 1))]);
+                }
+            }
+            size++;
+        }
+
+        long quantity(int from, int to) {
+            return cumQuantity[to + 1] - cumQuantity[from];
+        }
+
+        double volume(int from, int to) {
+            return cumVolume[to + 1] - cumVolume[from];
+        }
+
+        double maxPrice(int from, int to) {
+            int k = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+            double[] level = maxPrice.get(k);
+            return Math.max(level[to], level[from + (1 << k) - 1]);
+        }
+    }
+
+    /**
+     * Appends the next day to the index.
+     *
+     * @param summary The totals of the day, or null if nothing was stored for it.
+     */
+    void appendDay(DaySummary summary) {
+        if (summary != null) {
+            for (String product : summary.getProductNames()) {
+                ProductHistory history = products.computeIfAbsent(product, k -> new ProductHistory(days));
+                while (history.firstDay + history.size < days) {
+                    history.append(0, 0.0, -1.0);
+                }
+                history.append(summary.getQuantity(product), summary.getTotalValue(product), summary.getMaxPrice(product));
+            }
+        }
+        days++;
+    }
+
+    /**
+     * Partial totals of a product over the last {@code window} indexed days.
+     *
+     * @param product The product name.
+     * @param window  The number of most recent days to include.
+     * @return The quantity, volume and maximum price of the window.
+     */
+    AggregationWindow window(String product, int window) {
+        ProductHistory h = products.get(product);
+        int[] range = localRange(h, window);
+        if (range == null) {
+            return new AggregationWindow(0, 0.0, -1.0);
+        }
+        return new AggregationWindow(h.quantity(range[0], range[1]), h.volume(range[0], range[1]), h.maxPrice(range[0], range[1]));
+    }
+
+    /**
+     * Maps the window of the last {@code window} days onto the stored days of a product.
+     *
+     * @return The inclusive local range, or null if the product has no stored day inside the window.
+     */
+    private int[] localRange(ProductHistory h, int window) {
+        if (h == null || window <= 0 || h.size == 0) return null;
+
+        int from = Math.max(days - window, h.firstDay) - h.firstDay;
+        int to = h.size - 1;
+        return (from <= to) ? new int[]{from, to} : null;
+    }
+}
@@ -0,0 +1,476 @@
+package sd.server;
+
+import sd.middleware.FramePayload;
+import sd.middleware.FrameSender;
+import sd.middleware.TaggedConnection;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-client state of the non-blocking server.
+ *
+ * Incrementally decodes the tag/id/length/payload frame format from a non-blocking
+ * {@link SocketChannel} and dispatches each decoded frame to the bound {@link ServerWorker},
+ * which runs it on the shared bounded worker pool. Reading is paused while too many
+ * requests of this connection are still in progress.
+ *
+ * Replies are queued and written by the selector thread once the channel becomes writable,
+ * so worker threads never block on a slow client. Small replies are encoded straight into a
+ * pooled direct buffer the connection holds while it has replies waiting, and consecutive ones share
+ * it, so they are written together and allocate nothing. A reply that does not fit, or that comes
+ * after a streamed one still waiting, gets a heap buffer of its own. A streamed {@link FramePayload}
+ * is queued as is and encoded by the selector thread into a pooled direct buffer, one chunk each
+ * time the previous one has been written, so a large reply holds a single buffer however big it is.
+ * Its data is already in memory when it is queued (see {@link FramePayload#writeTo}), so encoding
+ * it only copies bytes and never stalls the other connections.
+ */
+class NioConnection implements FrameSender {
+    /**
+     * Largest payload accepted from a client. Larger frames are treated as a protocol violation.
+     */
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Buffers used to stream large replies, shared by every connection.
+     */
+    private static final DirectBufferPool STREAM_BUFFERS = new DirectBufferPool(64 * 1024, 32);
+
+    /**
+     * Buffers that collect small replies, shared by every connection. Small enough that thousands
+     * of connections with replies waiting hold little memory, large enough for hundreds of replies.
+     */
+    private static final int REPLY_BUFFER_SIZE = 4 * 1024;
+    private static final DirectBufferPool REPLY_BUFFERS = new DirectBufferPool(REPLY_BUFFER_SIZE, 256);
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private ServerWorker worker;
+
+    // Decoding state, only touched by the selector thread
+    private final ByteBuffer header = ByteBuffer.allocate(12);
+    private ByteBuffer payload;
+    private int payloadTag;
+    private int payloadId;
+
+    // Shared state, guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Outbound> outbound = new ArrayDeque<>();
+    private final ReplyBuffer replies = new ReplyBuffer(null);
+    private int inFlight = 0;
+    private boolean readPaused = false;
+    private boolean closed = false;
+
+    /**
+     * Creates the state for a freshly accepted channel.
+     *
+     * @param channel the non-blocking client channel
+     * @param key     the selection key of the channel
+     */
+    NioConnection(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+    }
+
+    /**
+     * Binds the worker that handles this connection's requests.
+     *
+     * @param worker the request handler
+     */
+    void bind(ServerWorker worker) {
+        this.worker = worker;
+    }
+
+    /**
+     * Reads every byte currently available on the channel and dispatches complete frames.
+     * Called by the selector thread only.
+     *
+     * @throws IOException if the client disconnected or sent a malformed frame
+     */
+    void onReadable() throws IOException {
+        while (true) {
+            if (payload == null) {
+                if (channel.read(header) < 0) throw new EOFException();
+                if (header.hasRemaining()) return;
+
+                header.flip();
+                payloadTag = header.getInt();
+                payloadId = header.getInt();
+                int len = header.getInt();
+                header.clear();
+
+                if (len < 0 || len > MAX_FRAME_SIZE) {
+                    throw new IOException("Tamanho de frame inválido: " + len);
+                }
+                payload = ByteBuffer.allocate(len);
+            }
+
+            if (payload.hasRemaining() && channel.read(payload) < 0) throw new EOFException();
+            if (payload.hasRemaining()) return;
+
+            TaggedConnection.Frame frame = new TaggedConnection.Frame(payloadTag, payloadId, payload.array());
+            payload = null;
+            if (!admit()) return;
+            worker.dispatch(frame, this::completed);
+            if (isReadPaused()) return;
+        }
+    }
+
+    /**
+     * Writes as much of the pending output as the channel accepts.
+     * Called by the selector thread only.
+     *
+     * @throws IOException if writing to the channel fails
+     */
+    void onWritable() throws IOException {
+        lock.lock();
+        try {
+            while (!outbound.isEmpty()) {
+                if (!outbound.peek().writeTo(channel)) return;
+                outbound.poll();
+            }
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a reply frame and asks the selector to flush it.
+     * Safe to call from any thread.
+     *
+     * @param tag  the numerical identifier associated with the message
+     * @param id   the correlation id of the request being answered
+     * @param data the byte array containing the data to be sent
+     * @throws IOException if the connection is already closed
+     */
+    @Override
+    public void send(int tag, int id, byte[] data) throws IOException {
+        lock.lock();
+        try {
+            reserve(12 + data.length).putInt(tag).putInt(id).putInt(data.length).put(data);
+        } finally {
+            lock.unlock();
+        }
+        key.selector().wakeup();
+    }
+
+    /**
+     * Queues a one-byte reply, encoded straight into the reply buffer.
+     *
+     * @param tag   the numerical identifier associated with the message
+     * @param id    the correlation id of the request being answered
+     * @param value the byte to send
+     * @throws IOException if the connection is already closed
+     */
+    @Override
+    public void sendByte(int tag, int id, byte value) throws IOException {
+        lock.lock();
+        try {
+            reserve(12 + 1).putInt(tag).putInt(id).putInt(1).put(value);
+        } finally {
+            lock.unlock();
+        }
+        key.selector().wakeup();
+    }
+
+    /**
+     * Queues an int reply, encoded straight into the reply buffer.
+     *
+     * @param tag   the numerical identifier associated with the message
+     * @param id    the correlation id of the request being answered
+     * @param value the int to send
+     * @throws IOException if the connection is already closed
+     */
+    @Override
+    public void sendInt(int tag, int id, int value) throws IOException {
+        lock.lock();
+        try {
+            reserve(12 + 4).putInt(tag).putInt(id).putInt(4).putInt(value);
+        } finally {
+            lock.unlock();
+        }
+        key.selector().wakeup();
+    }
+
+    /**
+     * Queues a long reply, encoded straight into the reply buffer.
+     *
+     * @param tag   the numerical identifier associated with the message
+     * @param id    the correlation id of the request being answered
+     * @param value the long to send
+     * @throws IOException if the connection is already closed
+     */
+    @Override
+    public void sendLong(int tag, int id, long value) throws IOException {
+        lock.lock();
+        try {
+            reserve(12 + 8).putInt(tag).putInt(id).putInt(8).putLong(value);
+        } finally {
+            lock.unlock();
+        }
+        key.selector().wakeup();
+    }
+
+    /**
+     * Queues a string reply, encoded straight into the reply buffer.
+     *
+     * @param tag   the numerical identifier associated with the message
+     * @param id    the correlation id of the request being answered
+     * @param value the string to send
+     * @throws IOException if the string is too long to encode, or the connection is already closed
+     */
+    @Override
+    public void sendUTF(int tag, int id, String value) throws IOException {
+        int length = 2 + FrameSender.utfLength(value);
+        lock.lock();
+        try {
+            ByteBuffer buf = reserve(12 + length).putInt(tag).putInt(id).putInt(length);
+            FrameSender.putUTF(buf, value);
+        } finally {
+            lock.unlock();
+        }
+        key.selector().wakeup();
+    }
+
+    /**
+     * Queues a streamed reply frame and asks the selector to flush it.
+     * The payload is only encoded as the channel drains. Safe to call from any thread.
+     *
+     * @param tag     the numerical identifier associated with the message
+     * @param id      the correlation id of the request being answered
+     * @param payload the payload, encoded by the selector thread
+     * @throws IOException if the connection is already closed
+     */
+    @Override
+    public void send(int tag, int id, FramePayload payload) throws IOException {
+        enqueue(new StreamedFrame(tag, id, payload));
+    }
+
+    /**
+     * Finds room for a small reply at the end of the outbound queue and enables write interest.
+     * The reply is appended to the connection's reply buffer when it is the last queued reply,
+     * or when nothing is queued and it takes one from the pool; otherwise it gets a buffer of its own.
+     * Called with the lock held; the caller wakes the selector up once it is released.
+     *
+     * @param size the size of the encoded frame
+     * @return a buffer with at least {@code size} bytes free, where the frame must be written
+     * @throws IOException if the connection is already closed
+     */
+    private ByteBuffer reserve(int size) throws IOException {
+        if (closed) throw new IOException("Ligação fechada");
+        ReplyBuffer target = replies;
+        if (replies.buf == null && size <= REPLY_BUFFER_SIZE) {
+            replies.buf = REPLY_BUFFERS.acquire();
+            outbound.add(replies);
+        } else if (outbound.peekLast() != replies || replies.buf.remaining() < size) {
+            target = new ReplyBuffer(ByteBuffer.allocate(size));
+            outbound.add(target);
+        }
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+        return target.buf;
+    }
+
+    /**
+     * Appends a reply to the outbound queue and enables write interest.
+     *
+     * @param frame the reply
+     * @throws IOException if the connection is already closed
+     */
+    private void enqueue(Outbound frame) throws IOException {
+        lock.lock();
+        try {
+            if (closed) throw new IOException("Ligação fechada");
+            outbound.add(frame);
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        } finally {
+            lock.unlock();
+        }
+        key.selector().wakeup();
+    }
+
+    /**
+     * Closes the channel and discards pending output. Idempotent.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            for (Outbound frame : outbound) {
+                frame.release();
+            }
+            outbound.clear();
+        } finally {
+            lock.unlock();
+        }
+
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        if (worker != null) worker.disconnected();
+    }
+
+    /**
+     * Counts a decoded frame as in flight, pausing reads once the connection reaches
+     * {@link ServerWorker#MAX_IN_FLIGHT} pending requests, so a fast client cannot make
+     * the server buffer an unbounded amount of work.
+     *
+     * @return false if the connection is already closed and the frame must be dropped
+     */
+    private boolean admit() {
+        lock.lock();
+        try {
+            if (closed) return false;
+            inFlight++;
+            if (inFlight >= ServerWorker.MAX_IN_FLIGHT && !readPaused) {
+                readPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by the worker when a request finishes. Resumes reading once enough requests completed.
+     */
+    private void completed() {
+        lock.lock();
+        try {
+            inFlight--;
+            if (readPaused && inFlight < ServerWorker.MAX_IN_FLIGHT / 2 && key.isValid()) {
+                readPaused = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                key.selector().wakeup();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether reading is currently paused by back-pressure.
+     *
+     * @return true if the selector should stop reading from this channel
+     */
+    private boolean isReadPaused() {
+        lock.lock();
+        try {
+            return readPaused;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A reply waiting in the outbound queue.
+     */
+    private interface Outbound {
+        /**
+         * Writes as much of the reply as the channel accepts.
+         *
+         * @return true once the whole reply has been written
+         */
+        boolean writeTo(SocketChannel channel) throws IOException;
+
+        /**
+         * Frees any pooled resources of a reply that will not be written.
+         */
+        void release();
+    }
+
+    /**
+     * Small replies encoded in full when they were queued, kept in write mode so more can be
+     * appended while the ones before them are written. The connection's own instance returns
+     * its pooled buffer once drained; the others hold a heap buffer for a single reply.
+     */
+    private final class ReplyBuffer implements Outbound {
+        private ByteBuffer buf;
+
+        ReplyBuffer(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            buf.flip();
+            channel.write(buf);
+            buf.compact();
+            if (buf.position() > 0) return false;
+            release();
+            return true;
+        }
+
+        @Override
+        public void release() {
+            if (this == replies && buf != null) {
+                REPLY_BUFFERS.release(buf);
+                buf = null;
+            }
+        }
+    }
+
+    /**
+     * A reply whose payload is encoded chunk by chunk into a pooled direct buffer,
+     * taken on the first write and returned once the last chunk is out.
+     */
+    private static final class StreamedFrame implements Outbound {
+        private final int tag;
+        private final int id;
+        private final FramePayload payload;
+        private ByteBuffer chunk;
+        private boolean encoded = false;
+
+        StreamedFrame(int tag, int id, FramePayload payload) {
+            this.tag = tag;
+            this.id = id;
+            this.payload = payload;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            if (chunk == null) {
+                chunk = STREAM_BUFFERS.acquire();
+                chunk.putInt(tag).putInt(id).putInt(payload.length());
+                encoded = payload.writeTo(chunk);
+                chunk.flip();
+            }
+
+            while (true) {
+                channel.write(chunk);
+                if (chunk.hasRemaining()) return false;
+                if (encoded) {
+                    release();
+                    return true;
+                }
+                chunk.clear();
+                encoded = payload.writeTo(chunk);
+                chunk.flip();
+            }
+        }
+
+        @Override
+        public void release() {
+            if (chunk != null) {
+                STREAM_BUFFERS.release(chunk);
+                chunk = null;
+            }
+        }
+    }
+}
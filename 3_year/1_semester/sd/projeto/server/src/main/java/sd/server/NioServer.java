@@ -0,0 +1,113 @@
+package sd.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Non-blocking front-end of the server, selected with {@code --mode=nio}.
+ *
+ * A single selector thread accepts connections, decodes the tag/id/length/payload frames
+ * and flushes replies for every client. Decoded requests are handled by a bounded pool of
+ * worker threads, so the number of server threads no longer grows with the number of
+ * connected clients. Blocking notification waits (SIMUL_SALES, CONSEC_SALES) are moved to a
+ * separate per-task executor (virtual threads when available), otherwise a handful of idle
+ * subscribers could occupy the whole pool and starve the ADD_EVENT requests that would wake them up.
+ */
+public class NioServer {
+    private final int port;
+    private final UserManager userManager;
+    private final ServerState serverState;
+    private final NotificationManager notificationManager;
+
+    private final ExecutorService workers;
+    private final ExecutorService waiters;
+
+    /**
+     * Creates a non-blocking server.
+     *
+     * @param port                the listening port
+     * @param workerThreads       the number of threads used to handle decoded requests
+     * @param userManager         the user authentication service
+     * @param serverState         the shared server state
+     * @param notificationManager the notification manager
+     */
+    public NioServer(int port, int workerThreads, UserManager userManager, ServerState serverState, NotificationManager notificationManager) {
+        this.port = port;
+        this.userManager = userManager;
+        this.serverState = serverState;
+        this.notificationManager = notificationManager;
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+        this.waiters = ServerThreads.newPerTaskExecutor();
+    }
+
+    /**
+     * Runs the selector loop. Only returns if the selector or the listening channel fail.
+     *
+     * @throws IOException if the listening channel cannot be opened or the selector fails
+     */
+    public void serve() throws IOException {
+        try (Selector selector = Selector.open();
+             ServerSocketChannel server = ServerSocketChannel.open()) {
+
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (true) {
+                selector.select();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept(server, selector);
+                        continue;
+                    }
+
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) connection.onReadable();
+                        if (key.isValid() && key.isWritable()) connection.onWritable();
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+            waiters.shutdownNow();
+        }
+    }
+
+    /**
+     * Accepts a pending connection and registers it with the selector.
+     *
+     * @param server   the listening channel
+     * @param selector the selector driving the event loop
+     * @throws IOException if the accepted channel cannot be configured
+     */
+    private void accept(ServerSocketChannel server, Selector selector) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+
+        channel.configureBlocking(false);
+
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        NioConnection connection = new NioConnection(channel, key);
+        connection.bind(new ServerWorker(connection, userManager, serverState, notificationManager, workers, waiters));
+        key.attach(connection);
+
+        System.out.println("Novo cliente conectou-se!");
+    }
+}
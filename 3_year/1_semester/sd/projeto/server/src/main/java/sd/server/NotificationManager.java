@@ -5,38 +5,114 @@ import sd.series.SalesEvent;
 import java.util.*;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 /**
  * Manages blocking notifications for specific sales events (simultaneous and consecutive).
  * Thread-safe implementation using ReentrantLock and Condition variables.
+ * Waiting goes through Condition.await rather than Object.wait inside synchronized blocks,
+ * so subscribers running on virtual threads unmount while parked instead of pinning a carrier.
+ *
+ * Pending watches are indexed so that a sale only touches the watches it can complete:
+ * a pair is filed under each of its products not yet sold today, so only the first sale of a
+ * product in a day looks at pairs at all, and each pair is moved or completed at most twice;
+ * a streak is filed under its product and threshold, so a sale looks up the one threshold equal
+ * to the current run. Completed watches are removed as they fire.
+ *
+ * Besides the blocking waits, watches can be registered with a {@link Listener}, without a
+ * thread parked per watch, and subscriptions keep a watch armed until they are cancelled: a
+ * streak watch is filed again as soon as it fires, and every subscription is armed again for
+ * the new day by {@link #startNewDay()}.
+ *
+ * Continuous queries over windows of a product's sales (see {@link QueryEngine}) are evaluated
+ * on every sale as well, under the same lock.
  */
 public class NotificationManager {
+
+    /**
+     * Receives the outcome of a watch. Runs once, on the thread that registered the sale or
+     * started the new day, with the manager's lock held, so it must be short and must not block.
+     */
+    public interface Listener {
+        /**
+         * @param met True if the condition was met, false if the day ended first.
+         */
+        void done(boolean met);
+    }
+
     private final ReentrantLock lock;
 
-    // Sets of products sold in the current day to check for simultaneous sales
-    private final Set<String> productsSoldToday;
-    // Conditions for clients waiting for a specific pair of products
-    private final Map<Set<String>, Condition> simulConditions;
+    // Quantity sold in the current day of every product sold, to check for simultaneous sales and totals
+    private final Map<String, long[]> soldToday;
+    // Pending pairs, filed under each product of the pair not sold yet, then by the other product
+    private final Map<String, Map<String, PairWatch>> pairWatches;
 
     // State for tracking consecutive sales of a single product
     private String lastProductSold;
     private int currentConsecutiveCount;
-    // Conditions for clients waiting for 'n' consecutive sales of a product
-    private final Map<String, List<Condition>> consecConditions;
-    private final Map<Condition, Integer> consecThresholds;
+    // Listeners waiting for a run of consecutive sales, by product and then by run length
+    private final Map<String, Map<Integer, List<Listener>>> streakWatches;
+
+    // Listeners waiting for the quantity sold today of a product to reach a total, by product and total
+    private final Map<String, TreeMap<Long, List<Listener>>> quantityWatches;
 
-    // Epoch to handle the "End of Day" logic, ensuring waiting threads are released
-    private int currentDayEpoch;
+    // Subscriptions, armed again at the start of every day
+    private final Set<Subscription> subscriptions;
+
+    // Continuous queries, which stay registered across days
+    private final QueryEngine queries;
+
+    /**
+     * The listeners waiting for one pair of products.
+     */
+    private static final class PairWatch {
+        final String first;
+        final String second;
+        final List<Listener> listeners = new ArrayList<>();
+
+        PairWatch(String first, String second) {
+            this.first = first;
+            this.second = second;
+        }
+    }
+
+    /**
+     * A watch kept armed until cancelled. {@code first} registers the watch of the day, firing at
+     * once if its condition already holds; {@code next}, if any, files it again after it fires,
+     * for conditions that can hold more than once a day.
+     */
+    private final class Subscription {
+        final Function<Listener, Runnable> first;
+        final Function<Listener, Runnable> next;
+        final Runnable onMatch;
+        Runnable cancel;
+
+        Subscription(Function<Listener, Runnable> first, Function<Listener, Runnable> next, Runnable onMatch) {
+            this.first = first;
+            this.next = next;
+            this.onMatch = onMatch;
+        }
+
+        void arm(Function<Listener, Runnable> watch) {
+            cancel = watch.apply(met -> {
+                // The end of the day only matters to one-shot watches
+                if (!met) return;
+                if (next != null) arm(next);
+                onMatch.run();
+            });
+        }
+    }
 
     public NotificationManager() {
         this.lock = new ReentrantLock();
-        this.productsSoldToday = new HashSet<>();
-        this.simulConditions = new HashMap<>();
-        this.consecConditions = new HashMap<>();
-        this.consecThresholds = new HashMap<>();
+        this.soldToday = new HashMap<>();
+        this.pairWatches = new HashMap<>();
+        this.streakWatches = new HashMap<>();
+        this.quantityWatches = new HashMap<>();
+        this.subscriptions = new HashSet<>();
+        this.queries = new QueryEngine();
         this.lastProductSold = null;
         this.currentConsecutiveCount = 0;
-        this.currentDayEpoch = 0;
     }
 
     /**
@@ -48,40 +124,90 @@ public class NotificationManager {
     public void registerSale(SalesEvent event) {
         lock.lock();
         try {
-            String product = event.getName();
-
-            // 1. Handle Simultaneous Sales
-            productsSoldToday.add(product);
-            for (Map.Entry<Set<String>, Condition> entry : simulConditions.entrySet()) {
-                Set<String> pair = entry.getKey();
-                // If both products in the pair have been sold today, wake up waiting threads
-                if (productsSoldToday.containsAll(pair)) {
-                    entry.getValue().signalAll();
-                }
-            }
+            recordSale(event);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            // 2. Handle Consecutive Sales
-            if (product.equals(lastProductSold)) {
-                currentConsecutiveCount++;
-            } else {
-                lastProductSold = product;
-                currentConsecutiveCount = 1;
+    /**
+     * Registers a batch of sales, in order, under a single acquisition of the lock.
+     *
+     * @param events The sales events that just occurred.
+     */
+    public void registerSales(List<SalesEvent> events) {
+        lock.lock();
+        try {
+            for (SalesEvent event : events) {
+                recordSale(event);
             }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            if (consecConditions.containsKey(product)) {
-                List<Condition> conditions = consecConditions.get(product);
-                for (Condition cond : conditions) {
-                    Integer n = consecThresholds.get(cond);
-                    // Signal if the consecutive count reaches the client's requested threshold
-                    if (n != null && currentConsecutiveCount >= n) {
-                        cond.signalAll();
+    /**
+     * Updates the notification state for one sale and fires the watches whose condition is met.
+     * Caller must hold the lock.
+     *
+     * @param event The sales event.
+     */
+    private void recordSale(SalesEvent event) {
+        String product = event.getName();
+
+        long[] sold = soldToday.get(product);
+        boolean firstSale = (sold == null);
+        if (firstSale) {
+            sold = new long[1];
+            soldToday.put(product, sold);
+        }
+        sold[0] += event.getQuantity();
+
+        // 1. Handle Simultaneous Sales: only the first sale of the day can complete a pair
+        if (firstSale) {
+            Map<String, PairWatch> partners = pairWatches.remove(product);
+            if (partners != null) {
+                for (Map.Entry<String, PairWatch> entry : partners.entrySet()) {
+                    String other = entry.getKey();
+                    // Pairs still missing the other product stay filed under it
+                    if (soldToday.containsKey(other)) {
+                        unfile(other, product);
+                        fire(entry.getValue().listeners, true);
                     }
                 }
             }
+        }
 
-        } finally {
-            lock.unlock();
+        // 2. Handle Consecutive Sales
+        if (product.equals(lastProductSold)) {
+            currentConsecutiveCount++;
+        } else {
+            lastProductSold = product;
+            currentConsecutiveCount = 1;
+        }
+
+        // The run grows by one per sale, so only the watches for exactly this length are new
+        Map<Integer, List<Listener>> streaks = streakWatches.get(product);
+        if (streaks != null) {
+            List<Listener> reached = streaks.remove(currentConsecutiveCount);
+            if (reached != null) {
+                if (streaks.isEmpty()) streakWatches.remove(product);
+                fire(reached, true);
+            }
+        }
+
+        // 3. Handle Quantity Totals: every total up to the new one is reached
+        TreeMap<Long, List<Listener>> totals = quantityWatches.get(product);
+        if (totals != null && totals.firstKey() <= sold[0]) {
+            SortedMap<Long, List<Listener>> reached = totals.headMap(sold[0], true);
+            List<List<Listener>> fired = new ArrayList<>(reached.values());
+            reached.clear();
+            if (totals.isEmpty()) quantityWatches.remove(product);
+            for (List<Listener> listeners : fired) fire(listeners, true);
         }
+
+        // 4. Handle Continuous Queries
+        queries.onSale(event);
     }
 
     /**
@@ -95,32 +221,7 @@ public class NotificationManager {
     public boolean waitForSimultaneous(String p1, String p2) throws InterruptedException {
         lock.lock();
         try {
-            int entryEpoch = this.currentDayEpoch;
-
-            Set<String> pair = new HashSet<>();
-            pair.add(p1);
-            pair.add(p2);
-
-            // Check if condition is already met
-            if (productsSoldToday.containsAll(pair)) {
-                return true;
-            }
-
-            // Create or get the condition for this pair
-            Condition cond = simulConditions.computeIfAbsent(pair, k -> lock.newCondition());
-
-            // Wait until products are sold OR the day changes (epoch mismatch)
-            while (!productsSoldToday.containsAll(pair) && entryEpoch == currentDayEpoch) {
-                cond.await();
-            }
-
-            // If the day changed while waiting, the condition failed
-            if (entryEpoch != currentDayEpoch) {
-                return false;
-            }
-
-            return true;
-
+            return await(listener -> watchSimultaneous(p1, p2, listener));
         } finally {
             lock.unlock();
         }
@@ -137,68 +238,340 @@ public class NotificationManager {
     public String waitForConsecutive(String product, int n) throws InterruptedException {
         lock.lock();
         try {
-            int entryEpoch = this.currentDayEpoch;
+            return await(listener -> watchConsecutive(product, n, listener)) ? product : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Watches for two products to be sold in the current day, without blocking.
+     * If both were already sold, the listener runs before this returns.
+     *
+     * @param p1       Name of the first product.
+     * @param p2       Name of the second product.
+     * @param listener Told whether both were sold before the day ended.
+     * @return Cancels the watch if it has not fired yet; the listener is then never called.
+     */
+    public Runnable watchSimultaneous(String p1, String p2, Listener listener) {
+        lock.lock();
+        try {
+            boolean sold1 = soldToday.containsKey(p1);
+            boolean sold2 = soldToday.containsKey(p2);
 
             // Check if condition is already met
-            if (product.equals(lastProductSold) && currentConsecutiveCount >= n) {
-                return product;
+            if (sold1 && sold2) {
+                listener.done(true);
+                return () -> { };
             }
 
-            // Register a new condition for this specific request
-            Condition cond = lock.newCondition();
-            consecConditions.computeIfAbsent(product, k -> new ArrayList<>()).add(cond);
-            consecThresholds.put(cond, n);
+            // File the pair under each product still missing, sharing one entry per pair
+            PairWatch watch = null;
+            if (!sold1) watch = file(p1, p2, watch);
+            if (!sold2) watch = file(p2, p1, watch);
+            watch.listeners.add(listener);
+
+            PairWatch registered = watch;
+            return () -> {
+                lock.lock();
+                try {
+                    if (registered.listeners.remove(listener) && registered.listeners.isEmpty()) {
+                        unfile(registered.first, registered.second);
+                        unfile(registered.second, registered.first);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            };
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            // Wait until threshold is reached OR the day changes
-            while (entryEpoch == currentDayEpoch && !(product.equals(lastProductSold) && currentConsecutiveCount >= n)) {
-                cond.await();
+    /**
+     * Watches for 'n' consecutive sales of 'product', without blocking.
+     * If the current run already reached 'n', the listener runs before this returns.
+     *
+     * @param product  The product name to monitor.
+     * @param n        The number of consecutive sales required.
+     * @param listener Told whether the run was reached before the day ended.
+     * @return Cancels the watch if it has not fired yet; the listener is then never called.
+     */
+    public Runnable watchConsecutive(String product, int n, Listener listener) {
+        lock.lock();
+        try {
+            // Check if condition is already met
+            if (product.equals(lastProductSold) && currentConsecutiveCount >= n) {
+                listener.done(true);
+                return () -> { };
             }
 
-            // Cleanup condition registration
-            consecThresholds.remove(cond);
-            if (consecConditions.containsKey(product)) {
-                consecConditions.get(product).remove(cond);
+            return fileStreak(product, n, listener);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Files a streak watch for the next run of 'product' that reaches 'n', even if the current one
+     * already did. Caller must hold the lock.
+     *
+     * @return Cancels the watch.
+     */
+    private Runnable fileStreak(String product, int n, Listener listener) {
+        // Any run of this product reaches at least one sale
+        int threshold = Math.max(n, 1);
+        streakWatches.computeIfAbsent(product, k -> new HashMap<>())
+                .computeIfAbsent(threshold, k -> new ArrayList<>())
+                .add(listener);
+
+        return () -> {
+            lock.lock();
+            try {
+                Map<Integer, List<Listener>> streaks = streakWatches.get(product);
+                List<Listener> listeners = (streaks != null) ? streaks.get(threshold) : null;
+                if (listeners != null && listeners.remove(listener) && listeners.isEmpty()) {
+                    streaks.remove(threshold);
+                    if (streaks.isEmpty()) streakWatches.remove(product);
+                }
+            } finally {
+                lock.unlock();
             }
+        };
+    }
 
-            // If the day changed, return null
-            if (entryEpoch != currentDayEpoch) {
-                return null;
+    /**
+     * Watches for the quantity of 'product' sold in the current day to reach 'quantity', without
+     * blocking. If it already did, the listener runs before this returns.
+     *
+     * @param product  The product name to monitor.
+     * @param quantity The total quantity required.
+     * @param listener Told whether the total was reached before the day ended.
+     * @return Cancels the watch if it has not fired yet; the listener is then never called.
+     */
+    public Runnable watchQuantity(String product, long quantity, Listener listener) {
+        lock.lock();
+        try {
+            // Check if condition is already met
+            long[] sold = soldToday.get(product);
+            if (sold != null && sold[0] >= quantity) {
+                listener.done(true);
+                return () -> { };
             }
 
-            return product;
+            quantityWatches.computeIfAbsent(product, k -> new TreeMap<>())
+                    .computeIfAbsent(quantity, k -> new ArrayList<>())
+                    .add(listener);
+
+            return () -> {
+                lock.lock();
+                try {
+                    TreeMap<Long, List<Listener>> totals = quantityWatches.get(product);
+                    List<Listener> listeners = (totals != null) ? totals.get(quantity) : null;
+                    if (listeners != null && listeners.remove(listener) && listeners.isEmpty()) {
+                        totals.remove(quantity);
+                        if (totals.isEmpty()) quantityWatches.remove(product);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            };
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Subscribes to two products being sold in the same day: runs 'onMatch' once on every day
+     * both are sold, until cancelled.
+     *
+     * @param p1      Name of the first product.
+     * @param p2      Name of the second product.
+     * @param onMatch Run with the manager's lock held each time the condition is met; must not block.
+     * @return Cancels the subscription.
+     */
+    public Runnable subscribeSimultaneous(String p1, String p2, Runnable onMatch) {
+        return subscribe(new Subscription(l -> watchSimultaneous(p1, p2, l), null, onMatch));
+    }
 
+    /**
+     * Subscribes to runs of 'n' consecutive sales of 'product': runs 'onMatch' each time a run
+     * reaches 'n' (once per run), until cancelled.
+     *
+     * @param product The product name to monitor.
+     * @param n       The number of consecutive sales required.
+     * @param onMatch Run with the manager's lock held each time the condition is met; must not block.
+     * @return Cancels the subscription.
+     */
+    public Runnable subscribeConsecutive(String product, int n, Runnable onMatch) {
+        return subscribe(new Subscription(l -> watchConsecutive(product, n, l), l -> fileStreak(product, n, l), onMatch));
+    }
+
+    /**
+     * Subscribes to the daily quantity of 'product' reaching 'quantity': runs 'onMatch' once on
+     * every day the total is reached, until cancelled.
+     *
+     * @param product  The product name to monitor.
+     * @param quantity The total quantity required.
+     * @param onMatch  Run with the manager's lock held each time the condition is met; must not block.
+     * @return Cancels the subscription.
+     */
+    public Runnable subscribeQuantity(String product, long quantity, Runnable onMatch) {
+        return subscribe(new Subscription(l -> watchQuantity(product, quantity, l), null, onMatch));
+    }
+
+    /**
+     * Subscribes to a continuous query: runs 'onMatch' each time a sale makes 'metric' of the
+     * sales of 'product' over the window cross 'threshold' in the direction of 'comparison', and
+     * right away if the condition already holds, until cancelled. See {@link QueryEngine}.
+     *
+     * @param product       The product name to monitor.
+     * @param metric        The {@link sd.common.Metric} compared.
+     * @param windowSeconds The length of the window, or 0 for the whole day; must be 0 for PRICE.
+     * @param comparison    The {@link sd.common.Comparison} with the threshold.
+     * @param threshold     The threshold.
+     * @param onMatch       Run with the manager's lock held each time the condition is met; must not block.
+     * @return Cancels the subscription.
+     * @throws IllegalArgumentException If the query is malformed.
+     */
+    public Runnable subscribeQuery(String product, byte metric, long windowSeconds, byte comparison,
+                                   double threshold, Runnable onMatch) {
+        lock.lock();
+        try {
+            Runnable cancel = queries.register(product, metric, windowSeconds, comparison, threshold, onMatch);
+            return () -> {
+                lock.lock();
+                try {
+                    cancel.run();
+                } finally {
+                    lock.unlock();
+                }
+            };
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Arms a subscription for the current day and keeps it until cancelled.
+     */
+    private Runnable subscribe(Subscription subscription) {
+        lock.lock();
+        try {
+            subscriptions.add(subscription);
+            subscription.arm(subscription.first);
+            return () -> {
+                lock.lock();
+                try {
+                    if (subscriptions.remove(subscription)) subscription.cancel.run();
+                } finally {
+                    lock.unlock();
+                }
+            };
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a watch whose listener wakes the calling thread, and waits until it fires.
+     * Caller must hold the lock. The watch is cancelled if the wait is interrupted.
+     *
+     * @param register Registers the watch with the given listener and returns its cancellation.
+     * @return The outcome passed to the listener.
+     */
+    private boolean await(Function<Listener, Runnable> register) throws InterruptedException {
+        Condition cond = lock.newCondition();
+        // [0] = fired, [1] = met
+        boolean[] outcome = new boolean[2];
+        Runnable cancel = register.apply(met -> {
+            outcome[0] = true;
+            outcome[1] = met;
+            cond.signal();
+        });
+
+        try {
+            while (!outcome[0]) {
+                cond.await();
+            }
+        } catch (InterruptedException e) {
+            cancel.run();
+            throw e;
+        }
+        return outcome[1];
+    }
+
+    /**
+     * Files a pair under one of its products, creating the pair's entry if none is given.
+     */
+    private PairWatch file(String product, String other, PairWatch watch) {
+        Map<String, PairWatch> partners = pairWatches.computeIfAbsent(product, k -> new HashMap<>());
+        PairWatch existing = partners.get(other);
+        if (existing != null) return existing;
+
+        if (watch == null) watch = new PairWatch(product, other);
+        partners.put(other, watch);
+        return watch;
+    }
+
+    /**
+     * Removes a pair from under one of its products, if it is filed there.
+     */
+    private void unfile(String product, String other) {
+        Map<String, PairWatch> partners = pairWatches.get(product);
+        if (partners != null && partners.remove(other) != null && partners.isEmpty()) {
+            pairWatches.remove(product);
+        }
+    }
+
+    private static void fire(List<Listener> listeners, boolean met) {
+        for (Listener listener : listeners) {
+            listener.done(met);
+        }
+    }
+
     /**
      * Resets the state for a new day and wakes up all waiting threads.
-     * Waiting threads will return false/null as the day epoch has changed.
+     * Waiting threads return false/null, and every pending listener is told the day ended.
      */
     public void startNewDay() {
         lock.lock();
         try {
-            this.currentDayEpoch++;
-
-            // Wake up everyone waiting for simultaneous sales
-            for (Condition c : simulConditions.values()) c.signalAll();
-            // Wake up everyone waiting for consecutive sales
-            for (List<Condition> list : consecConditions.values()) {
-                for (Condition c : list) c.signalAll();
+            // Release everyone waiting for simultaneous sales; a pair may be filed under both products
+            Set<PairWatch> pairs = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Map<String, PairWatch> partners : pairWatches.values()) {
+                pairs.addAll(partners.values());
+            }
+            // Release everyone waiting for consecutive sales or totals
+            List<List<Listener>> others = new ArrayList<>();
+            for (Map<Integer, List<Listener>> byLength : streakWatches.values()) {
+                others.addAll(byLength.values());
+            }
+            for (TreeMap<Long, List<Listener>> byTotal : quantityWatches.values()) {
+                others.addAll(byTotal.values());
             }
 
             // Reset state
-            productsSoldToday.clear();
-            simulConditions.clear();
+            soldToday.clear();
+            pairWatches.clear();
 
             lastProductSold = null;
             currentConsecutiveCount = 0;
-            consecConditions.clear();
-            consecThresholds.clear();
+            streakWatches.clear();
+            quantityWatches.clear();
+
+            for (PairWatch pair : pairs) fire(pair.listeners, false);
+            for (List<Listener> listeners : others) fire(listeners, false);
+
+            queries.startNewDay();
+
+            // Subscriptions start watching the new day
+            for (Subscription subscription : subscriptions) {
+                subscription.arm(subscription.first);
+            }
 
         } finally {
             lock.unlock();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,126 @@
+package sd.server;
+
+import sd.common.Status;
+import sd.common.Tag;
+import sd.middleware.FrameSender;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Server side of one SUBSCRIBE request: a subscription in the {@link NotificationManager} whose
+ * matches are pushed to the client as NOTIFY frames under the request's correlation id, until
+ * the client sends UNSUBSCRIBE or disconnects.
+ *
+ * Each NOTIFY frame carries the number of matches so far (int), so the client can tell how many
+ * times the condition was met. Matches are counted on the thread that registered the sale, with
+ * the manager's lock held, and the frames are sent by a task on the request executor, so a slow
+ * client never delays a sale. Whichever task runs first sends every match counted so far, in order.
+ *
+ * Once the UNSUBSCRIBE reply is sent, no NOTIFY frame for the subscription follows it.
+ */
+class NotificationStream {
+    private final FrameSender conn;
+    private final int id;
+    private final Executor executor;
+
+    // Guards sending, so frames go out in order and none follows the cancellation
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile int matches = 0;
+    private int sent = 0;
+    private boolean started = false;
+    private boolean cancelled = false;
+    private Runnable unsubscribe;
+
+    /**
+     * Creates the stream of a request.
+     *
+     * @param conn     the channel used to reply and push notifications
+     * @param id       the correlation id of the SUBSCRIBE request
+     * @param executor the executor that runs the sends
+     */
+    NotificationStream(FrameSender conn, int id, Executor executor) {
+        this.conn = conn;
+        this.id = id;
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribes, then acknowledges the request. A condition that already holds is pushed right after
+     * the acknowledgement, since no frame is sent before it.
+     *
+     * @param subscribe registers the subscription with the given match callback and returns its cancellation
+     * @throws IOException if the acknowledgement cannot be sent
+     * @throws IllegalArgumentException if the subscription is malformed; nothing is sent then
+     */
+    void start(Function<Runnable, Runnable> subscribe) throws IOException {
+        lock.lock();
+        try {
+            // The connection may have closed before the request ran
+            if (cancelled) return;
+            unsubscribe = subscribe.apply(this::matched);
+            conn.sendByte(Tag.SUBSCRIBE, id, Status.OK);
+            started = true;
+            sendPending();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts a match and schedules its frame. Runs with the notification manager's lock held.
+     */
+    private void matched() {
+        matches++;
+        try {
+            executor.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            // Server shutting down: the client loses the connection anyway
+        }
+    }
+
+    /**
+     * Sends a frame for every match not sent yet.
+     */
+    private void flush() {
+        lock.lock();
+        try {
+            sendPending();
+        } catch (IOException e) {
+            System.err.println("Falha ao enviar notificação: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the frames not sent yet, once the request was acknowledged. Called with the lock held.
+     */
+    private void sendPending() throws IOException {
+        while (started && !cancelled && sent < matches) {
+            sent++;
+            conn.sendInt(Tag.NOTIFY, id, sent);
+        }
+    }
+
+    /**
+     * Cancels the subscription. Matches counted but not yet sent are dropped.
+     * The manager's lock is only taken after this stream's is released, since matches are
+     * counted with the manager's lock held.
+     */
+    void cancel() {
+        Runnable subscription;
+        lock.lock();
+        try {
+            if (cancelled) return;
+            cancelled = true;
+            subscription = unsubscribe;
+        } finally {
+            lock.unlock();
+        }
+        if (subscription != null) subscription.run();
+    }
+}
@@ -0,0 +1,261 @@
+package sd.server;
+
+import sd.common.Comparison;
+import sd.common.Metric;
+import sd.series.SalesEvent;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Continuous queries over the sales of the current day, such as "the volume of X in the last hour
+ * exceeds V" or "the price of X rises above P", evaluated incrementally as sales arrive.
+ *
+ * A query is compiled, when it is registered, into a {@link Metric} of a window and a threshold:
+ * <ul>
+ *   <li>windows are shared: the queries on the same product and window length read the same
+ *       running sums, so a sale updates each window of its product once, however many queries
+ *       use it;</li>
+ *   <li>thresholds are indexed: the queries on one metric of a window are kept sorted by
+ *       threshold, so a sale only visits the queries whose condition it makes true, which lie
+ *       between the metric's previous and new value.</li>
+ * </ul>
+ *
+ * Queries are edge-triggered: a query fires when a sale makes its condition true, and again only
+ * after a later sale made it false. A query whose condition already holds fires when registered.
+ * Conditions are only evaluated on sales of the product, so a window that empties with time is
+ * noticed at the product's next sale. Windows are measured on the time of the sales, end at the
+ * latest one, and start empty every day; a window created during the day starts empty too.
+ *
+ * Not thread-safe: the {@link NotificationManager} calls it with its lock held.
+ */
+final class QueryEngine {
+
+    /**
+     * Longest window, in seconds. Windows never span more than the current day.
+     */
+    static final long MAX_WINDOW_SECONDS = 24 * 60 * 60;
+
+    /**
+     * The running sums of the sales of one product over a window, shared by every query on it.
+     */
+    private static final class Window {
+        // 0: the whole day, so sales are never evicted
+        final long lengthNanos;
+        final ArrayDeque<SalesEvent> events = new ArrayDeque<>();
+        LocalDateTime newest;
+        long sales;
+        long quantity;
+        double volume;
+        double price;
+        // Queries on each metric, by metric
+        final Trigger[] triggers = new Trigger[Metric.COUNT];
+
+        Window(long lengthSeconds) {
+            this.lengthNanos = lengthSeconds * 1_000_000_000L;
+        }
+
+        void add(SalesEvent event) {
+            sales++;
+            quantity += event.getQuantity();
+            volume += event.getTotalValue();
+            price = event.getPrice();
+            if (lengthNanos == 0) return;
+
+            events.addLast(event);
+            // Sales recorded concurrently may be slightly out of time order
+            if (newest == null || event.getDate().isAfter(newest)) newest = event.getDate();
+            LocalDateTime limit = newest.minusNanos(lengthNanos);
+            while (!events.isEmpty() && !events.peekFirst().getDate().isAfter(limit)) {
+                SalesEvent old = events.pollFirst();
+                quantity -= old.getQuantity();
+                volume -= old.getTotalValue();
+            }
+            // Drop the rounding left by the subtractions
+            if (events.isEmpty()) volume = 0;
+        }
+
+        /**
+         * @return The value of the metric, or NaN if it is undefined (no sale yet today).
+         */
+        double value(int metric) {
+            if (sales == 0) return Double.NaN;
+            switch (metric) {
+                case Metric.QUANTITY:
+                    return quantity;
+                case Metric.VOLUME:
+                    return volume;
+                case Metric.AVERAGE_PRICE:
+                    return (quantity != 0) ? volume / quantity : Double.NaN;
+                default:
+                    return price;
+            }
+        }
+
+        void reset() {
+            events.clear();
+            newest = null;
+            sales = 0;
+            quantity = 0;
+            volume = 0;
+            for (Trigger trigger : triggers) {
+                if (trigger != null) trigger.last = Double.NaN;
+            }
+        }
+
+        boolean isEmpty() {
+            for (Trigger trigger : triggers) {
+                if (trigger != null) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The queries on one metric of a window, by threshold, and the value the metric had when they
+     * were last evaluated.
+     */
+    private static final class Trigger {
+        double last;
+        final TreeMap<Double, List<Runnable>> above = new TreeMap<>();
+        final TreeMap<Double, List<Runnable>> below = new TreeMap<>();
+
+        Trigger(double current) {
+            this.last = current;
+        }
+
+        /**
+         * Moves the metric to its new value and collects the queries whose condition became true.
+         *
+         * @return 'fired', or a new list if it was null and a query fired.
+         */
+        List<Runnable> update(double value, List<Runnable> fired) {
+            double old = last;
+            last = value;
+            if (Double.isNaN(value) || value == old) return fired;
+
+            // "value > t" just became true for old <= t < value; with no previous value, for every t < value
+            NavigableMap<Double, List<Runnable>> rose = Double.isNaN(old) ? above.headMap(value, false)
+                    : (value > old) ? above.subMap(old, true, value, false) : Collections.emptyNavigableMap();
+            // "value < t" just became true for value < t <= old; with no previous value, for every t > value
+            NavigableMap<Double, List<Runnable>> fell = Double.isNaN(old) ? below.tailMap(value, false)
+                    : (value < old) ? below.subMap(value, false, old, true) : Collections.emptyNavigableMap();
+
+            if (rose.isEmpty() && fell.isEmpty()) return fired;
+            if (fired == null) fired = new ArrayList<>();
+            for (List<Runnable> listeners : rose.values()) fired.addAll(listeners);
+            for (List<Runnable> listeners : fell.values()) fired.addAll(listeners);
+            return fired;
+        }
+
+        boolean isEmpty() {
+            return above.isEmpty() && below.isEmpty();
+        }
+    }
+
+    // Windows in use, by product and then by length in seconds
+    private final Map<String, Map<Long, Window>> windows = new HashMap<>();
+
+    /**
+     * Registers a query. If its condition already holds, 'onMatch' runs before this returns.
+     *
+     * @param product       The product whose sales are watched.
+     * @param metric        The {@link Metric} compared.
+     * @param windowSeconds The length of the window, or 0 for the whole day; must be 0 for PRICE.
+     * @param comparison    The {@link Comparison} with the threshold.
+     * @param threshold     The threshold.
+     * @param onMatch       Run each time a sale makes the condition true; must not block.
+     * @return Cancels the query.
+     * @throws IllegalArgumentException If the query is malformed.
+     */
+    Runnable register(String product, byte metric, long windowSeconds, byte comparison, double threshold,
+                      Runnable onMatch) {
+        if (product == null || metric < 0 || metric >= Metric.COUNT) {
+            throw new IllegalArgumentException("Métrica inválida");
+        }
+        if (windowSeconds < 0 || windowSeconds > MAX_WINDOW_SECONDS || (metric == Metric.PRICE && windowSeconds != 0)) {
+            throw new IllegalArgumentException("Janela inválida");
+        }
+        if (comparison != Comparison.ABOVE && comparison != Comparison.BELOW) {
+            throw new IllegalArgumentException("Comparação inválida");
+        }
+        if (Double.isNaN(threshold)) {
+            throw new IllegalArgumentException("Limite inválido");
+        }
+
+        Window window = windows.computeIfAbsent(product, k -> new HashMap<>())
+                .computeIfAbsent(windowSeconds, Window::new);
+        Trigger trigger = window.triggers[metric];
+        if (trigger == null) {
+            trigger = new Trigger(window.value(metric));
+            window.triggers[metric] = trigger;
+        }
+        boolean above = (comparison == Comparison.ABOVE);
+        List<Runnable> listeners = (above ? trigger.above : trigger.below)
+                .computeIfAbsent(threshold, k -> new ArrayList<>());
+        listeners.add(onMatch);
+
+        // Check if condition is already met
+        double current = trigger.last;
+        if (above ? current > threshold : current < threshold) {
+            onMatch.run();
+        }
+
+        Trigger filed = trigger;
+        return () -> {
+            TreeMap<Double, List<Runnable>> byThreshold = above ? filed.above : filed.below;
+            List<Runnable> same = byThreshold.get(threshold);
+            if (same == null || !same.remove(onMatch)) return;
+            if (same.isEmpty()) byThreshold.remove(threshold);
+            if (!filed.isEmpty()) return;
+
+            // Nobody reads the metric, or maybe the window, anymore
+            window.triggers[metric] = null;
+            if (!window.isEmpty()) return;
+            Map<Long, Window> byLength = windows.get(product);
+            byLength.remove(windowSeconds);
+            if (byLength.isEmpty()) windows.remove(product);
+        };
+    }
+
+    /**
+     * Adds a sale to the windows of its product and runs the queries it makes true, once every
+     * window is up to date.
+     *
+     * @param event The sales event.
+     */
+    void onSale(SalesEvent event) {
+        Map<Long, Window> byLength = windows.get(event.getName());
+        if (byLength == null) return;
+
+        List<Runnable> fired = null;
+        for (Window window : byLength.values()) {
+            window.add(event);
+            for (int metric = 0; metric < Metric.COUNT; metric++) {
+                Trigger trigger = window.triggers[metric];
+                if (trigger != null) fired = trigger.update(window.value(metric), fired);
+            }
+        }
+        // Listeners may cancel queries, so they only run after the walk
+        if (fired == null) return;
+        for (Runnable onMatch : fired) onMatch.run();
+    }
+
+    /**
+     * Empties every window for a new day. The queries stay registered.
+     */
+    void startNewDay() {
+        for (Map<Long, Window> byLength : windows.values()) {
+            for (Window window : byLength.values()) {
+                window.reset();
+            }
+        }
+    }
+}
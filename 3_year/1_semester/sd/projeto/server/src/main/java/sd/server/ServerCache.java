@@ -1,229 +1,466 @@
 package sd.server;
 
+import sd.series.DaySummary;
 import sd.series.SeriesFileManager;
 import sd.series.TimeSeries;
 import java.io.IOException;
 import java.time.LocalDate;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
 
 /**
- * Implements an LRU (Least Recently Used) cache strategy for TimeSeries objects using LinkedHashMap.
+ * Implements an LRU (Least Recently Used) cache strategy for TimeSeries objects.
  * It manages memory usage by keeping frequently accessed days in memory and evicting older ones.
  * Crucially, it handles data persistence: when a modified series is evicted from the cache,
  * it is automatically saved to disk via the SeriesFileManager.
+ * Saves go through a {@link WriteBehindQueue}, so no lock is ever held across disk writes;
+ * a series waiting in that queue is still found by lookups. Series are queued while the cache's
+ * locks are held, which never blocks; back-pressure from a slow disk is applied by
+ * {@link #getSeries}, the lookup whose misses evict, once it holds no lock.
+ *
+ * Every cache is a {@link ConcurrentLruCache}: hits are lock-free lookups whose recency is applied
+ * later in batches, so concurrent readers no longer serialize on a write lock. Evictions are still
+ * serialized per cache, and misses only per key. All locks are ReentrantLocks, never monitors, so virtual threads
+ * that block on them (or on the disk reads done while holding them) do not pin their carrier thread.
+ *
+ * The series of the current day is pinned outside the LRU map. It receives every ADD_EVENT,
+ * so looking it up and marking it dirty are plain volatile accesses, and it can never be
+ * chosen for eviction.
+ *
+ * Aggregations over historical days go through a separate LRU of DaySummary objects, so a
+ * miss costs reading one small summary file rather than deserializing a whole TimeSeries.
+ *
+ * When the sales of the current day go to a {@link WriteAheadLog}, the pinned series is never
+ * queued for saving: its file is written only by explicit checkpoints ({@link #saveCheckpoint}).
+ *
+ * Days can be loaded ahead of use on a small pool of daemon threads: {@link #warmUp} fills the cache
+ * with the most recent days before the server accepts connections, and {@link #prefetchSeries} /
+ * {@link #prefetchSummary} start loading the next days of a sequential scan while the caller is
+ * still busy with the current one. A prefetch and a later lookup of the same day share one load.
  */
 public class ServerCache {
+    /**
+     * Number of days loaded ahead of a sequential scan, unless configured otherwise.
+     */
+    public static final int DEFAULT_READ_AHEAD = 4;
+
     private final int maxSize;
     private final int aggrLimit;
+    private final int summaryLimit;
     private final SeriesFileManager fileManager;
+    private final WriteBehindQueue writeBehind;
     private final Set<LocalDate> modifiedSeries;
 
-    private final LinkedHashMap<LocalDate, TimeSeries> seriesCache;
-    private final LinkedHashMap<String, Double> aggregationCache;
+    // Loads warm-up and read-ahead days; threads exit when idle
+    private final ThreadPoolExecutor prefetchPool;
+    private final int readAhead;
+
+    private final ConcurrentLruCache<LocalDate, TimeSeries> seriesCache;
+    private final ConcurrentLruCache<AggregationKey, AggregationWindow> aggregationCache;
+    private final ConcurrentLruCache<LocalDate, DaySummary> summaryCache;
 
-    private final ReentrantReadWriteLock rwLock;
-    private final ReentrantReadWriteLock.ReadLock readLock;
-    private final ReentrantReadWriteLock.WriteLock writeLock;
+    // Serializes the operations that move series in or out of the pinned slot
+    private final ReentrantLock lock;
+
+    // Pinned current day, outside the LRU
+    private volatile TimeSeries currentSeries;
+    private volatile boolean currentModified;
+
+    // The current day is persisted by checkpoints of the write-ahead log rather than by the queue
+    private volatile boolean currentLogged;
 
     /**
-     * Initializes the server cache.
+     * Initializes the server cache with the default read-ahead.
      *
      * @param maxSize     The maximum number of TimeSeries objects to keep in memory.
      * @param fileManager The file manager used for persisting evicted or saved series.
      */
     public ServerCache(int maxSize, SeriesFileManager fileManager) {
+        this(maxSize, fileManager, DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * Initializes the server cache.
+     *
+     * @param maxSize     The maximum number of TimeSeries objects to keep in memory.
+     * @param fileManager The file manager used for persisting evicted or saved series.
+     * @param readAhead   The number of days to load ahead of a sequential scan, 0 to disable it.
+     *                    Capped at half the cache, so prefetched days do not evict each other.
+     */
+    public ServerCache(int maxSize, SeriesFileManager fileManager, int readAhead) {
         this.maxSize = maxSize;
         this.aggrLimit = maxSize * 100;
+        this.summaryLimit = maxSize * 10;
         this.fileManager = fileManager;
-        this.modifiedSeries = new HashSet<>();
-
-        // accessOrder = true is fundamental for LRU to work
-        this.seriesCache = new LinkedHashMap<LocalDate, TimeSeries>(this.maxSize, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<LocalDate, TimeSeries> eldest) {
-                if (size() > maxSize) {
-                    try {
-                        // If the element being removed has unsaved changes, write to disk.
-                        // Thanks to the 'trick' in markModified, the 'eldest' will almost never be the current day.
-                        if (modifiedSeries.contains(eldest.getKey())) {
-                            fileManager.saveTimeSeries(eldest.getValue(), eldest.getKey());
-                            modifiedSeries.remove(eldest.getKey());
-                        }
-                        return true;
-                    } catch (IOException e) {
-                        System.err.println("ERRO CRÍTICO: Não foi possível persistir série " + eldest.getKey() + ": " + e.getMessage());
-                        System.err.println("⚠️  Série mantida em cache para prevenir perda de dados.");
-                        return false;
-                    }
-                }
-                return false;
-            }
-        };
+        this.writeBehind = new WriteBehindQueue(fileManager, Math.max(4, maxSize));
+        this.modifiedSeries = ConcurrentHashMap.newKeySet();
 
-        this.aggregationCache = new LinkedHashMap<String, Double>(aggrLimit, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
-                return size() > aggrLimit;
+        this.seriesCache = new ConcurrentLruCache<>(this.maxSize, (date, series) -> {
+            // If the element being removed has unsaved changes, hand it to the write-behind queue,
+            // which keeps it reachable until it is on disk. Queuing does not block under evictionLock.
+            // The current day is pinned outside this map, so it is never the 'eldest'.
+            if (modifiedSeries.remove(date)) {
+                writeBehind.enqueue(date, series);
             }
-        };
+            return true;
+        });
+
+        this.aggregationCache = new ConcurrentLruCache<>(aggrLimit);
+
+        // Summaries never hold unsaved data, so eviction simply drops them
+        this.summaryCache = new ConcurrentLruCache<>(summaryLimit);
 
-        this.rwLock = new ReentrantReadWriteLock();
-        this.readLock = this.rwLock.readLock();
-        this.writeLock = this.rwLock.writeLock();
+        this.lock = new ReentrantLock();
+
+        this.readAhead = Math.max(0, Math.min(readAhead, maxSize / 2));
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        this.prefetchPool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "series-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.prefetchPool.allowCoreThreadTimeOut(true);
     }
 
     /**
      * Retrieves a TimeSeries from the cache.
-     * If missing from the cache, attempts to load it from disk using the FileManager.
-     * Acquires a write lock because LinkedHashMap with accessOrder=true modifies its internal
-     * structure on retrieval, which is not thread-safe.
+     * If missing from the cache, takes it from the write-behind queue or loads it from disk.
+     * A hit takes no lock; concurrent misses of the same day share one load, so a day is never
+     * loaded twice, while different days load in parallel. If the write-behind queue is over its
+     * capacity, e.g. because the load evicted modified series, waits for it to drain first.
      *
      * @param date The date of the series to retrieve.
      * @return The TimeSeries object, or null if it cannot be found or loaded.
      * @throws IOException If an error occurs loading from disk.
      */
     public TimeSeries getSeries(LocalDate date) throws IOException {
-        // IMPORTANT: With accessOrder=true, get() alters the map structure.
-        // Therefore, we are forced to use WriteLock, otherwise memory corruption occurs under concurrency.
-        writeLock.lock();
-        try {
-            TimeSeries series = seriesCache.get(date);
-            if (series != null) {
-                return series;
+        TimeSeries pinned = currentSeries;
+        if (pinned != null && pinned.getDate().equals(date)) {
+            return pinned;
+        }
+
+        TimeSeries series = seriesCache.getOrLoad(date, this::loadSeries);
+        writeBehind.awaitCapacity();
+        return series;
+    }
+
+    /**
+     * Loads a series that is not cached, preferring a version still waiting to be written.
+     *
+     * @param date The date of the series.
+     * @return The series, or null if it does not exist.
+     * @throws IOException If an error occurs loading from disk.
+     */
+    private TimeSeries loadSeries(LocalDate date) throws IOException {
+        TimeSeries queued = writeBehind.pending(date);
+        return (queued != null) ? queued : fileManager.loadTimeSeries(date);
+    }
+
+    /**
+     * Loads the series of the most recent days into the cache in parallel and waits for them, so the
+     * first requests after a restart do not pay for the disk. Days without a file are skipped.
+     *
+     * @param newest The most recent day to load.
+     * @param days   How many days to load, counting back from {@code newest}; capped at the cache size.
+     * @return The number of series loaded.
+     * @throws IOException If a day cannot be loaded, or the thread is interrupted while waiting.
+     */
+    public int warmUp(LocalDate newest, int days) throws IOException {
+        List<Future<TimeSeries>> loads = new ArrayList<>();
+        for (int back = 0; back < Math.min(days, maxSize); back++) {
+            LocalDate date = newest.minusDays(back);
+            if (fileManager.existsTimeSeries(date)) {
+                loads.add(prefetchPool.submit(() -> getSeries(date)));
             }
+        }
 
-            series = fileManager.loadTimeSeries(date);
-            if (series != null) {
-                seriesCache.put(date, series);
+        int loaded = 0;
+        for (Future<TimeSeries> load : loads) {
+            try {
+                if (load.get() != null) loaded++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrompido durante o pré-carregamento", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
             }
-            return series;
-        } finally {
-            writeLock.unlock();
         }
+        return loaded;
     }
 
     /**
-     * Puts a TimeSeries into the cache and immediately persists it to disk.
+     * Returns how many days a sequential scan should load ahead of the day it is on.
+     *
+     * @return The read-ahead distance, 0 if disabled.
+     */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Starts loading a series in the background unless it is already in memory. Never blocks.
+     * A failed prefetch is ignored: the lookup that needs the day loads it again and reports the error.
+     *
+     * @param date The date of the series.
+     */
+    public void prefetchSeries(LocalDate date) {
+        if (readAhead == 0 || seriesCache.peek(date) != null) return;
+        TimeSeries pinned = currentSeries;
+        if (pinned != null && pinned.getDate().equals(date)) return;
+
+        prefetchPool.execute(() -> {
+            try {
+                getSeries(date);
+            } catch (IOException | RuntimeException ignored) {
+                // Reported by the foreground load
+            }
+        });
+    }
+
+    /**
+     * Starts loading the summary of a historical day in the background unless it is already in
+     * memory. Never blocks; failures are left to the foreground load, as in {@link #prefetchSeries}.
+     *
+     * @param date The date of the summary.
+     */
+    public void prefetchSummary(LocalDate date) {
+        if (readAhead == 0 || summaryCache.peek(date) != null) return;
+
+        prefetchPool.execute(() -> {
+            try {
+                getSummary(date);
+            } catch (IOException | RuntimeException ignored) {
+                // Reported by the foreground load
+            }
+        });
+    }
+
+    /**
+     * Puts a TimeSeries into the cache and schedules it to be persisted.
      * Used when a series is newly created or fully overwritten.
      *
      * @param date   The date associated with the series.
      * @param series The TimeSeries object.
-     * @throws IOException If an error occurs saving to disk.
      */
-    public void putSeries(LocalDate date, TimeSeries series) throws IOException {
-        writeLock.lock();
+    public void putSeries(LocalDate date, TimeSeries series) {
+        putSeries(date, series, null);
+    }
+
+    /**
+     * Puts a TimeSeries into the cache and schedules it to be persisted, running an action once
+     * it is on disk (e.g., truncating the write-ahead log of that day).
+     *
+     * @param date        The date associated with the series.
+     * @param series      The TimeSeries object.
+     * @param onPersisted The action to run after the save, on the write-behind thread, or null.
+     */
+    public void putSeries(LocalDate date, TimeSeries series, Runnable onPersisted) {
+        lock.lock();
         try {
-            fileManager.saveTimeSeries(series, date);
+            writeBehind.enqueue(date, series, onPersisted);
+            modifiedSeries.remove(date);
             seriesCache.put(date, series);
+            summaryCache.remove(date);
+
+            // The day is being closed: it goes back into the LRU like any other
+            TimeSeries pinned = currentSeries;
+            if (pinned != null && pinned.getDate().equals(date)) {
+                currentSeries = null;
+                currentModified = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the DaySummary of a historical day, for aggregations.
+     * Tries the summary cache, then a series already in memory, then the summary file. Data written
+     * before summaries existed falls back to loading the series once and writing its summary.
+     * Must not be used for the current day, whose totals still change.
+     *
+     * @param date The date of the summary to retrieve.
+     * @return The DaySummary, or null if no data exists for that date.
+     * @throws IOException If an error occurs loading from disk.
+     */
+    public DaySummary getSummary(LocalDate date) throws IOException {
+        return summaryCache.getOrLoad(date, d -> {
+            TimeSeries series = seriesCache.peek(d);
+            if (series == null) {
+                series = writeBehind.pending(d);
+            }
+            if (series != null) {
+                return DaySummary.of(series);
+            }
+
+            DaySummary summary = fileManager.loadSummary(d);
+            if (summary == null) {
+                series = fileManager.loadTimeSeries(d);
+                if (series == null) {
+                    return null;
+                }
+                summary = DaySummary.of(series);
+                fileManager.saveSummary(summary, d);
+            }
+            return summary;
+        });
+    }
+
+    /**
+     * Pins the series of the current day outside the LRU and schedules it to be persisted,
+     * unless the current day is logged. Replaces any previously pinned series, which must
+     * already have been saved with putSeries.
+     *
+     * @param date   The current date.
+     * @param series The TimeSeries of the current day.
+     */
+    public void pinCurrent(LocalDate date, TimeSeries series) {
+        lock.lock();
+        try {
+            if (!currentLogged) writeBehind.enqueue(date, series);
+            seriesCache.remove(date);
             modifiedSeries.remove(date);
+            currentModified = false;
+            currentSeries = series;
         } finally {
-            writeLock.unlock();
+            lock.unlock();
         }
     }
 
+    /**
+     * Tells the cache whether the current day is covered by a write-ahead log. If it is, the pinned
+     * series is left out of write-behind saves and of {@link #clear()}.
+     *
+     * @param logged True if the sales of the current day are logged.
+     */
+    public void setCurrentLogged(boolean logged) {
+        currentLogged = logged;
+    }
+
+    /**
+     * Writes a snapshot of the current day to disk synchronously, as a checkpoint of the
+     * write-ahead log. The caller truncates the log only after this returns.
+     *
+     * @param snapshot The snapshot of the current day.
+     * @throws IOException If the file cannot be written.
+     */
+    public void saveCheckpoint(TimeSeries snapshot) throws IOException {
+        fileManager.saveTimeSeries(snapshot, snapshot.getDate());
+        summaryCache.remove(snapshot.getDate());
+    }
+
     /**
      * Marks a specific date's series as modified in memory.
      * This ensures it will be saved to disk if it is later evicted from the cache.
      * Also refreshes the entry's position in the LRU cache (moves to newest) by accessing it.
+     * For the pinned current day this is a single volatile write, with no locking.
      *
      * @param date The date to mark as modified.
      */
     public void markModified(LocalDate date) {
-        writeLock.lock();
-        try {
-            modifiedSeries.add(date);
-            // When marking as modified, it also becomes the most recent (start of the LinkedHashMap)
-            seriesCache.get(date);
-        } finally {
-            writeLock.unlock();
+        TimeSeries pinned = currentSeries;
+        if (pinned != null && pinned.getDate().equals(date)) {
+            if (!currentModified) currentModified = true;
+            return;
         }
+
+        modifiedSeries.add(date);
+        // When marking as modified, it also becomes the most recent
+        seriesCache.get(date);
     }
 
     /**
-     * Retrieves a cached aggregation value.
-     * Thread-safe (Read Lock).
+     * Retrieves the cached partials of an aggregation window. Never blocks.
      *
      * @param key The aggregation key.
-     * @return The cached value, or null if not present.
+     * @return The cached window, or null if not present.
      */
-    public Double getAggregation(String key) {
-        readLock.lock();
-        try {
-            return aggregationCache.get(key);
-        } finally {
-            readLock.unlock();
-        }
+    public AggregationWindow getAggregation(AggregationKey key) {
+        return aggregationCache.get(key);
     }
 
     /**
-     * Caches an aggregation value.
-     * Thread-safe (Write Lock).
+     * Caches the partials of an aggregation window.
      *
      * @param key   The aggregation key.
-     * @param value The value to cache.
+     * @param value The window partials to cache.
      */
-    public void putAggregation(String key, double value) {
-        writeLock.lock();
-        try {
-            aggregationCache.put(key, value);
-        } finally {
-            writeLock.unlock();
-        }
+    public void putAggregation(AggregationKey key, AggregationWindow value) {
+        aggregationCache.put(key, value);
     }
 
     /**
      * Clears the cache.
-     * Before clearing, iterates through all modified series and forces them to be saved to disk.
+     * Before clearing, queues all modified series and waits until every pending save is on disk or
+     * has failed; the dates that could not be saved are reported rather than waited for.
+     * A logged current day is skipped: it must be checkpointed by the caller instead.
      * Typically used during server shutdown or reset.
      *
-     * @throws IOException If an error occurs saving modified series.
+     * @throws IOException If interrupted before all modified series were saved.
      */
     public void clear() throws IOException {
-        writeLock.lock();
+        lock.lock();
         try {
             for (LocalDate date : modifiedSeries) {
-                TimeSeries series = seriesCache.get(date);
+                TimeSeries series = seriesCache.peek(date);
                 if (series != null) {
-                    fileManager.saveTimeSeries(series, date);
+                    writeBehind.enqueue(date, series);
                 }
             }
 
+            TimeSeries pinned = currentSeries;
+            if (pinned != null && currentModified && !currentLogged) {
+                currentModified = false;
+                writeBehind.enqueue(pinned.getDate(), pinned);
+            }
+
+            try {
+                List<LocalDate> unsaved = writeBehind.flush();
+                if (!unsaved.isEmpty()) {
+                    System.err.println("ERRO CRÍTICO: séries não persistidas: " + unsaved);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrompido antes de persistir todas as séries", e);
+            }
+
             seriesCache.clear();
             aggregationCache.clear();
+            summaryCache.clear();
             modifiedSeries.clear();
+            currentSeries = null;
         } finally {
-            writeLock.unlock();
+            lock.unlock();
         }
     }
 
     /**
-     * Clears only the aggregation cache.
-     * Useful when data changes invalidating previous aggregations.
+     * Moves every cached aggregation window forward after a day boundary, instead of discarding them,
+     * so the cache stays warm across the rollover. Recency order is preserved.
+     *
+     * @param shift Computes the shifted window from the key and the old window.
      */
-    public void clearAggregations() {
-        writeLock.lock();
-        try {
-            aggregationCache.clear();
-        } finally {
-            writeLock.unlock();
-        }
+    public void shiftAggregations(BiFunction<AggregationKey, AggregationWindow, AggregationWindow> shift) {
+        aggregationCache.replaceAll(shift);
     }
 
     /**
-     * Returns the current number of series in the cache.
+     * Returns the current number of series in the cache, including the pinned current day.
      *
      * @return The cache size.
      */
     public int size() {
-        readLock.lock();
-        try {
-            return seriesCache.size();
-        } finally {
-            readLock.unlock();
-        }
+        return seriesCache.size() + (currentSeries != null ? 1 : 0);
     }
-}
\ No newline at end of file
+}
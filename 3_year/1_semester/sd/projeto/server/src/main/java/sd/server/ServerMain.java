@@ -4,7 +4,14 @@ import sd.series.SeriesFileManager;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Main entry point for the distributed sales management server.
@@ -16,13 +23,24 @@ import java.time.LocalDate;
  * - Client connection acceptance and worker thread spawning
  * - Graceful shutdown with data persistence
  *
- * The server uses a multi-threaded architecture where each client connection is handled
- * by a dedicated ServerWorker thread. A shutdown hook ensures proper data persistence
- * when the server is terminated.
+ * By default the server uses a multi-threaded architecture where each client connection is read
+ * by a dedicated ServerWorker thread and its requests are pipelined on a shared thread pool.
+ * Alternatively, a non-blocking mode ({@link NioServer}) serves every connection from a single
+ * selector thread and a bounded worker pool, and a virtual-thread mode runs each connection and
+ * each request, blocking subscriptions included, on its own virtual thread.
+ * A shutdown hook ensures proper data persistence when the server is terminated.
  *
- * Command-line usage: java ServerMain <cache_size_S> [port]
+ * Command-line usage: java ServerMain <cache_size_S> [port] [--mode=blocking|nio|virtual] [--workers=N] [--gc-stats[=seconds]]
+ *                     [--wal=periodic|always|none|off] [--compress-days] [--warmup=days] [--read-ahead=days]
  * - cache_size_S: Maximum number of TimeSeries objects to keep in memory (required)
  * - port: Server listening port (optional, defaults to 12345)
+ * - --mode: Connection handling model (optional, defaults to blocking)
+ * - --workers: Size of the request pool in nio mode (optional, defaults to 2x the available processors)
+ * - --gc-stats: Logs garbage collections and allocated bytes periodically (optional, every 10 seconds by default)
+ * - --wal: When the write-ahead log of the current day is forced to disk, or off to disable it (optional, defaults to periodic)
+ * - --compress-days: Writes day files in the compressed format (optional, files of either format are always read)
+ * - --warmup: How many of the most recent days to load in parallel before accepting connections (optional, defaults to S)
+ * - --read-ahead: How many days to load ahead of sequential scans, or 0 to disable it (optional, defaults to 4)
  */
 public class ServerMain {
     /**
@@ -39,48 +57,123 @@ public class ServerMain {
      */
     private static UserManager userManager;
 
+    /**
+     * Server state, checkpointed at shutdown when sales are logged.
+     */
+    private static ServerState serverState;
+
+    /**
+     * Write-ahead log of the sales of the current day, or null when disabled with --wal=off.
+     */
+    private static WriteAheadLog wal;
+
     /**
      * Main server entry point.
      * Initializes all server components and enters the main accept loop for client connections.
      *
      * The initialization process includes:
-     * 1. Parsing command-line arguments (cache size and optional port)
+     * 1. Parsing command-line arguments (cache size, optional port and mode flags)
      * 2. Creating UserManager and SeriesFileManager instances
      * 3. Determining the system date (either current date or restored from last saved date)
      * 4. Calculating historical days available (D) and validating against cache size (S)
      * 5. Initializing NotificationManager and ServerCache
      * 6. Creating ServerState with all components
-     * 7. Registering a shutdown hook for graceful termination
-     * 8. Starting the main accept loop to handle incoming client connections
+     * 7. Warming up the cache with the most recent days
+     * 8. Registering a shutdown hook for graceful termination
+     * 9. Starting the main accept loop to handle incoming client connections
      *
-     * Each accepted client connection spawns a new ServerWorker thread to handle
-     * the client's requests independently.
+     * In blocking mode each accepted client connection spawns a new ServerWorker thread that reads
+     * the client's requests and hands them to a shared pool; virtual mode does the same with virtual
+     * threads for both connections and requests. In nio mode the accept loop is replaced by the
+     * selector loop of {@link NioServer}.
      *
-     * @param args Command-line arguments: args[0] = cache_size_S (required), args[1] = port (optional)
+     * @param args Command-line arguments: args[0] = cache_size_S (required), args[1] = port (optional),
+     *             followed by optional {@code --name=value} flags
      */
     public static void main(String[] args) {
-        if (args.length < 1) {
-            System.err.println("Uso: java ServerMain <cache_size_S> [port]");
+        List<String> modes = List.of("blocking", "nio", "virtual");
+
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) options.put(arg.substring(2), "true");
+                else options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        if (positional.isEmpty()) {
+            System.err.println("Uso: java ServerMain <cache_size_S> [port] [--mode=blocking|nio|virtual] [--workers=N] [--gc-stats[=s]]"
+                    + " [--wal=periodic|always|none|off] [--compress-days] [--warmup=days] [--read-ahead=days]");
+            System.exit(1);
+        }
+
+        String mode = options.getOrDefault("mode", "blocking");
+        if (!modes.contains(mode)) {
+            System.err.println("Erro: modo desconhecido '" + mode + "' (use " + String.join(", ", modes) + ")");
             System.exit(1);
         }
 
-        int cacheSize = Integer.parseInt(args[0]);
-        int port = (args.length > 1) ? Integer.parseInt(args[1]) : 12345;
+        String walOption = options.getOrDefault("wal", "periodic");
+        WriteAheadLog.SyncPolicy walPolicy = null;
+        if (!walOption.equals("off")) {
+            try {
+                walPolicy = WriteAheadLog.SyncPolicy.parse(walOption);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Erro: política de registo desconhecida '" + walOption + "' (use periodic, always, none ou off)");
+                System.exit(1);
+            }
+        }
 
         try {
+            int cacheSize = Integer.parseInt(positional.get(0));
+            int port = (positional.size() > 1) ? Integer.parseInt(positional.get(1)) : 12345;
+            int workers = Integer.parseInt(options.getOrDefault("workers",
+                    String.valueOf(Runtime.getRuntime().availableProcessors() * 2)));
+            int warmupDays = Integer.parseInt(options.getOrDefault("warmup", String.valueOf(cacheSize)));
+            int readAhead = Integer.parseInt(options.getOrDefault("read-ahead", String.valueOf(ServerCache.DEFAULT_READ_AHEAD)));
+
             System.out.println("Servidor a iniciar na porta " + port + "...");
             System.out.println("Use Ctrl+C para encerrar");
             System.out.println("Cache size (S): " + cacheSize);
+            System.out.println("Modo de ligações: " + mode + (mode.equals("nio") ? " (" + workers + " workers)" : ""));
+            if (mode.equals("virtual") && !ServerThreads.virtualThreadsAvailable()) {
+                System.out.println("Aviso: JVM sem virtual threads, a usar threads de plataforma");
+            }
             System.out.println("Data inicial do sistema: " + LocalDate.now());
+            if (options.containsKey("gc-stats")) {
+                String interval = options.get("gc-stats");
+                GcMonitor.start(interval.equals("true") ? 10 : Integer.parseInt(interval));
+            }
 
             userManager = new UserManager();
-            SeriesFileManager fileManager = new SeriesFileManager("data/timeseries");
+            boolean compressDays = options.containsKey("compress-days");
+            SeriesFileManager fileManager = new SeriesFileManager("data/timeseries", compressDays);
+            if (compressDays) {
+                System.out.println("Ficheiros de dias comprimidos");
+            }
 
             int maxDays = fileManager.countHistoricalDays();
 
+            if (walPolicy != null) {
+                wal = new WriteAheadLog(Path.of("data/wal"), walPolicy);
+                System.out.println("Registo de vendas: " + walPolicy.name().toLowerCase());
+            } else {
+                System.out.println("Registo de vendas: desativado");
+            }
+
             LocalDate systemDate = LocalDate.now();
             LocalDate lastSavedDate = fileManager.getLastSavedDate();
 
+            // A day that crashed before its file was first written only exists in the log
+            if (wal != null && !wal.dates().isEmpty()
+                    && (lastSavedDate == null || wal.dates().last().isAfter(lastSavedDate))) {
+                lastSavedDate = wal.dates().last();
+            }
+
             if (lastSavedDate != null && lastSavedDate.isAfter(systemDate)) {
                 systemDate = lastSavedDate;
                 System.out.println("Simulação temporal restaurada em: " + systemDate);
@@ -95,25 +188,43 @@ public class ServerMain {
             }
 
             NotificationManager notificationManager = new NotificationManager();
-            serverCache = new ServerCache(cacheSize, fileManager);
-            ServerState serverState = new ServerState(notificationManager, serverCache, maxDays, systemDate);
+            serverCache = new ServerCache(cacheSize, fileManager, readAhead);
+            serverState = new ServerState(notificationManager, serverCache, maxDays, systemDate, wal);
+
+            if (warmupDays > 0) {
+                long start = System.nanoTime();
+                int warmed = serverCache.warmUp(systemDate.minusDays(1), Math.min(warmupDays, maxDays));
+                System.out.println("Cache pré-carregada com " + warmed + " dias em " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
 
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Servidor a encerrar...");
                 shutdown();
             }));
 
+            if (mode.equals("nio")) {
+                new NioServer(port, workers, userManager, serverState, notificationManager).serve();
+                return;
+            }
+
+            // Requests are pipelined on a per-task executor; blocking waits simply run inside their request task
+            ExecutorService requests = mode.equals("virtual") ? ServerThreads.newPerTaskExecutor() : Executors.newCachedThreadPool();
+
             try (ServerSocket serverSocket = new ServerSocket(port)) {
                 while (true) {
                     Socket clientSocket = serverSocket.accept();
                     System.out.println("Novo cliente conectou-se!");
-                    ServerWorker worker = new ServerWorker(clientSocket, userManager, serverState, notificationManager);
-                    Thread workerThread = new Thread(worker);
-                    workerThread.start();
+                    ServerWorker worker = new ServerWorker(clientSocket, userManager, serverState, notificationManager, requests, null);
+                    if (mode.equals("virtual")) {
+                        requests.execute(worker);
+                    } else {
+                        Thread workerThread = new Thread(worker);
+                        workerThread.start();
+                    }
                 }
             }
         } catch (NumberFormatException e) {
-            System.err.println("Erro: cache_size_S deve ser um número inteiro");
+            System.err.println("Erro: cache_size_S, port, workers, gc-stats, warmup e read-ahead devem ser números inteiros");
             System.exit(1);
         } catch (IOException e) {
             System.err.println("Erro crítico no servidor: " + e.getMessage());
@@ -126,19 +237,29 @@ public class ServerMain {
      * This method is called by the shutdown hook when the JVM is terminating.
      *
      * It ensures that:
-     * 1. All cached TimeSeries are persisted to disk (via serverCache.clear())
-     * 2. User data is saved to the users.dat file
+     * 1. The current day is checkpointed, if its sales are logged
+     * 2. All cached TimeSeries are persisted to disk (via serverCache.clear())
+     * 3. The write-ahead log is closed
+     * 4. User data is saved to the users.dat file
      *
      * Any exceptions during shutdown are caught and logged to prevent cascading failures.
      * This method guarantees data consistency even during unexpected termination (e.g., Ctrl+C).
      */
     private static void shutdown() {
         try {
+            if (serverState != null) {
+                serverState.checkpoint();
+            }
+
             if (serverCache != null) {
                 System.out.println("Persistindo séries em cache...");
                 serverCache.clear();
             }
 
+            if (wal != null) {
+                wal.close();
+            }
+
             if (userManager != null) {
                 System.out.println("Persistindo utilizadores...");
                 userManager.saveUsers();
@@ -1,42 +1,103 @@
 package sd.server;
 
+import sd.series.DaySummary;
+import sd.series.FilteredEvents;
 import sd.series.SalesEvent;
 import sd.series.TimeSeries;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Manages the global state of the server, including the current time series and caching for aggregations.
- * Handles concurrency using ReadWriteLock to allow multiple readers (aggregations) and single writer (addEvent).
+ * Handles concurrency using ReadWriteLock: addEvent and aggregations share the read lock, since the
+ * current TimeSeries accepts concurrent appends, while startNewDay takes the write lock to swap the day.
+ * Aggregations are answered from a HistoryIndex of the closed days, extended by startNewDay.
+ * Range filters load and filter their days in parallel on a fork-join pool. Consecutive single-day
+ * filters walking the history in either direction make the cache load the next days ahead of them.
+ *
+ * With a {@link WriteAheadLog}, every sale of the current day is logged before it is applied, and
+ * the day file is only rewritten by checkpoints: when the active log segment grows past
+ * {@link #CHECKPOINT_BYTES}, at the end of the day and at shutdown. The constructor replays what
+ * a crash left in the log.
  */
 public class ServerState {
+    /**
+     * Size of the active log segment that triggers a checkpoint of the current day.
+     */
+    static final long CHECKPOINT_BYTES = 64L * 1024 * 1024;
+
     private final ReadWriteLock rwLock;
     private final Lock readLock;
     private final Lock writeLock;
 
     private final NotificationManager notificationManager;
     private final ServerCache cache;
+    private final HistoryIndex history;
+
+    // Scans the days of a range filter in parallel; days are loaded through the cache
+    private final ForkJoinPool scanPool;
+
+    // Day of the last single-day filter, to detect sequential walks through the history
+    private final AtomicReference<LocalDate> lastFiltered;
+
+    // Null when sales are not logged
+    private final WriteAheadLog wal;
+    // Serializes checkpoints with each other and with startNewDay
+    private final ReentrantLock checkpointLock;
+    private final AtomicBoolean checkpointScheduled;
 
     private TimeSeries currentSeries;
     private LocalDate currentDate;
     private int maxDays;
 
-    public ServerState(NotificationManager notificationManager, ServerCache cache, int maxDays, LocalDate initialDate) {
+    public ServerState(NotificationManager notificationManager, ServerCache cache, int maxDays, LocalDate initialDate) throws IOException {
+        this(notificationManager, cache, maxDays, initialDate, null);
+    }
+
+    /**
+     * Creates the server state, recovering the sales left in a write-ahead log by a crash.
+     * Sales of past days are added to their day files; sales of the initial date to the current series.
+     *
+     * @param notificationManager The notification manager.
+     * @param cache               The series cache.
+     * @param maxDays             The number of historical days available.
+     * @param initialDate         The current date.
+     * @param wal                 The log of the sales of the current day, or null to not log them.
+     * @throws IOException If the log cannot be replayed or the first checkpoint fails.
+     */
+    public ServerState(NotificationManager notificationManager, ServerCache cache, int maxDays, LocalDate initialDate,
+                       WriteAheadLog wal) throws IOException {
         this.notificationManager = notificationManager;
         this.cache = cache;
         this.maxDays = maxDays;
+        this.history = new HistoryIndex();
+        this.scanPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        this.lastFiltered = new AtomicReference<>();
 
         this.rwLock = new ReentrantReadWriteLock();
         this.readLock = rwLock.readLock();
         this.writeLock = rwLock.writeLock();
 
+        this.wal = wal;
+        this.checkpointLock = new ReentrantLock();
+        this.checkpointScheduled = new AtomicBoolean(false);
+
         this.currentDate = initialDate;
 
         TimeSeries loaded = null;
@@ -48,137 +109,304 @@ public class ServerState {
 
         if (loaded != null) {
             this.currentSeries = loaded;
-            this.currentSeries.setCurrentDay(true);
+            this.currentSeries.thaw();
         } else {
             this.currentSeries = new TimeSeries(currentDate, true);
+        }
+
+        if (wal != null) {
+            cache.setCurrentLogged(true);
+            recover();
+        }
+
+        cache.pinCurrent(currentDate, currentSeries);
+
+        buildHistory();
+
+        // Saves what was recovered and opens the first segment of the log
+        checkpoint();
+    }
+
+    /**
+     * Replays the segments left in the log. Days already closed are put back in the cache, and
+     * their segments are truncated once the updated day is on disk.
+     */
+    private void recover() throws IOException {
+        for (LocalDate date : wal.dates()) {
+            if (date.equals(currentDate)) {
+                int count = wal.replay(date, currentSeries.getEventCount(), currentSeries::addEvent);
+                System.out.println("Registo de vendas: " + count + " vendas de " + date + " recuperadas");
+                continue;
+            }
+
+            TimeSeries series = cache.getSeries(date);
+            if (series != null) {
+                series.thaw();
+            } else {
+                series = new TimeSeries(date, true);
+            }
+            int count = wal.replay(date, series.getEventCount(), series::addEvent);
+            series.freeze();
+            closeLoggedDay(date, series);
+            System.out.println("Registo de vendas: " + count + " vendas de " + date + " recuperadas");
+        }
+    }
+
+    /**
+     * Hands a closed, logged day to the cache, truncating its segments once the write-behind
+     * queue has saved it.
+     */
+    private void closeLoggedDay(LocalDate date, TimeSeries series) throws IOException {
+        List<Path> segments = wal.segments(date);
+        wal.prepareTruncate(date, segments, series.getEventCount());
+        cache.putSeries(date, series, () -> {
             try {
-                cache.putSeries(currentDate, currentSeries);
+                wal.truncate(date, segments);
+            } catch (IOException e) {
+                System.err.println("Aviso: não foi possível truncar o registo de " + date + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the aggregation index from the summaries of the last maxDays closed days, loading the
+     * next days in the background while each one is indexed.
+     * Days that cannot be read are indexed as empty.
+     */
+    private void buildHistory() {
+        LocalDate prefetched = currentDate.minusDays(maxDays).minusDays(1);
+        for (LocalDate date = currentDate.minusDays(maxDays); date.isBefore(currentDate); date = date.plusDays(1)) {
+            LocalDate ahead = date.plusDays(cache.getReadAhead());
+            while (prefetched.isBefore(ahead) && prefetched.plusDays(1).isBefore(currentDate)) {
+                prefetched = prefetched.plusDays(1);
+                if (!prefetched.equals(date)) cache.prefetchSummary(prefetched);
+            }
+
+            DaySummary summary = null;
+            try {
+                summary = cache.getSummary(date);
             } catch (IOException e) {
-                e.printStackTrace();
+                System.err.println("Aviso: sumário de " + date + " indisponível: " + e.getMessage());
             }
+            history.appendDay(summary);
         }
     }
 
-    public void addEvent(String name, int quantity, double price) {
+    /**
+     * Records a sale in the current day. With a write-ahead log, the sale is logged first and, under
+     * the ALWAYS policy, this returns only once it is on disk.
+     *
+     * @param name     The product name.
+     * @param quantity The quantity sold.
+     * @param price    The unit price.
+     * @throws IOException If the sale cannot be logged; it is then not recorded.
+     */
+    public void addEvent(String name, int quantity, double price) throws IOException {
         if (name == null) {
             throw new IllegalArgumentException("Argumentos inválidos");
         }
 
-        LocalDateTime logicalDate = LocalDateTime.of(currentDate, java.time.LocalTime.now());
-        SalesEvent event = new SalesEvent(name, quantity, price, logicalDate);
+        SalesEvent event;
+        long sequence = 0;
 
-        writeLock.lock();
+        // Read lock only keeps the day from changing underneath us; appends run in parallel
+        readLock.lock();
         try {
+            LocalDateTime logicalDate = LocalDateTime.of(currentDate, java.time.LocalTime.now());
+            event = new SalesEvent(name, quantity, price, logicalDate);
+            if (wal != null) sequence = wal.append(event);
             currentSeries.addEvent(event);
             cache.markModified(currentDate);
         } finally {
-            writeLock.unlock();
+            readLock.unlock();
+        }
+
+        if (wal != null) {
+            wal.awaitDurable(sequence);
+            maybeCheckpoint();
         }
         notificationManager.registerSale(event);
     }
 
+    /**
+     * Records a batch of sales in the current day with a single pass of locks: the read lock is
+     * taken once for the whole batch, the series is marked dirty once, and the notification state
+     * is updated under one acquisition of its lock. Every event of the batch gets the same time.
+     *
+     * @param names      The product name of each event.
+     * @param quantities The quantity of each event.
+     * @param prices     The unit price of each event.
+     * @throws IOException If the batch cannot be logged; none of its events is then recorded.
+     */
+    public void addEventBatch(String[] names, int[] quantities, double[] prices) throws IOException {
+        if (names == null || quantities == null || prices == null
+                || names.length != quantities.length || names.length != prices.length) {
+            throw new IllegalArgumentException("Argumentos inválidos");
+        }
+        if (names.length == 0) return;
+
+        List<SalesEvent> batch = new ArrayList<>(names.length);
+        long sequence = 0;
+
+        readLock.lock();
+        try {
+            LocalDateTime logicalDate = LocalDateTime.of(currentDate, java.time.LocalTime.now());
+            for (int i = 0; i < names.length; i++) {
+                batch.add(new SalesEvent(names[i], quantities[i], prices[i], logicalDate));
+            }
+            if (wal != null) sequence = wal.appendAll(batch);
+            for (SalesEvent event : batch) {
+                currentSeries.addEvent(event);
+            }
+            cache.markModified(currentDate);
+        } finally {
+            readLock.unlock();
+        }
+
+        if (wal != null) {
+            wal.awaitDurable(sequence);
+            maybeCheckpoint();
+        }
+        notificationManager.registerSales(batch);
+    }
+
+    /**
+     * Starts a checkpoint on a background thread if the active log segment is over the threshold
+     * and no checkpoint is pending.
+     */
+    private void maybeCheckpoint() {
+        if (wal.activeBytes() < CHECKPOINT_BYTES || !checkpointScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        Thread checkpointer = new Thread(() -> {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                System.err.println("Aviso: checkpoint do registo de vendas falhou: " + e.getMessage());
+            } finally {
+                checkpointScheduled.set(false);
+            }
+        }, "wal-checkpoint");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    /**
+     * Saves the current day and truncates its log. Sales are held only while the series is copied
+     * and the log moves to a new segment; the copy is then written while sales go on, and the old
+     * segments are deleted once it is on disk. Does nothing without a log.
+     *
+     * @throws IOException If the log cannot be rotated or the day file cannot be written.
+     */
+    public void checkpoint() throws IOException {
+        if (wal == null) return;
+
+        checkpointLock.lock();
+        try {
+            TimeSeries snapshot;
+            LocalDate date;
+            writeLock.lock();
+            try {
+                snapshot = currentSeries.snapshot();
+                date = currentDate;
+                wal.rotate(date);
+            } finally {
+                writeLock.unlock();
+            }
+
+            List<Path> segments = wal.segments(date);
+            wal.prepareTruncate(date, segments, snapshot.getEventCount());
+            cache.saveCheckpoint(snapshot);
+            wal.truncate(date, segments);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
     /**
      * Advances the server date to the next day.
-     * Clears aggregation caches as they might depend on the definition of "previous days".
+     * Shifts the cached aggregation windows forward by one day, so they stay valid for the new
+     * definition of "previous days" without being recomputed.
      * Triggers notification manager to unblock waiting clients.
+     * With a log, the closed day's segments are truncated once the write-behind queue saves it.
      */
     public void startNewDay() throws IOException {
+        checkpointLock.lock();
         writeLock.lock();
         try {
-            currentSeries.setCurrentDay(false);
-            cache.putSeries(currentDate, currentSeries);
+            // Closed days switch to the compact columnar layout before joining the LRU
+            currentSeries.freeze();
+            if (wal != null) {
+                wal.rotate(currentDate.plusDays(1));
+                closeLoggedDay(currentDate, currentSeries);
+            } else {
+                cache.putSeries(currentDate, currentSeries);
+            }
+            history.appendDay(DaySummary.of(currentSeries));
 
             maxDays++;
 
             currentDate = currentDate.plusDays(1);
 
             currentSeries = new TimeSeries(currentDate, true);
-            cache.putSeries(currentDate, currentSeries);
+            cache.pinCurrent(currentDate, currentSeries);
 
-            // Invalidate cache as relative time windows (e.g., "last 3 days") shift
-            cache.clearAggregations();
+            // Relative windows (e.g., "last 3 days") now end one day later: slide every cached
+            // window forward from the index instead of discarding the whole cache
+            cache.shiftAggregations((key, window) -> history.window(key.getProduct(), key.getDays()));
 
             notificationManager.startNewDay();
             System.out.println("Avançando dia. Novo dia: " + currentDate.toString());
         } finally {
             writeLock.unlock();
+            checkpointLock.unlock();
         }
     }
 
     /**
      * Performs an aggregation operation on a product over the last 'd' days.
-     * Uses a cache to store results of expensive calculations.
+     * Caches the window partials under a typed key, so one entry answers all aggregation types.
+     * A miss costs O(1) in the history index, regardless of 'd'.
      *
-     * @param type The type of aggregation: 1=Quantity, 2=Volume, 3=Average, 4=Max Price.
+     * @param type The type of aggregation.
      * @param product The product name.
      * @param days The number of previous days to include (excluding current day).
      * @return The result of the aggregation.
-     * @throws IOException If loading series from disk fails.
      */
-    public double getAggregation(int type, String product, int days) throws IOException {
-        int actualDays = Math.min(days, maxDays);
-
-        if (actualDays == 0) {
-            return 0.0;
-        }
-
-        String cacheKey = type + "_" + product + "_" + days;
-
-        // Fast-path: Check cache first (double-check locking pattern)
-        Double cachedResult = cache.getAggregation(cacheKey);
-        if (cachedResult != null) {
-            return cachedResult;
-        }
+    public double getAggregation(AggregationType type, String product, int days) {
+        AggregationKey key = new AggregationKey(product, days);
 
-        double result = 0;
-        int count = 0;
-        LocalDate targetDate;
+        AggregationWindow window;
 
         readLock.lock();
         try {
-            targetDate = currentDate.minusDays(1);
-        } finally {
-            readLock.unlock();
-        }
-
-        for (int i = 0; i < days; i++) {
-            TimeSeries ts = cache.getSeries(targetDate);
-
-            if (ts != null) {
-                switch (type) {
-                    case 1:
-                        result += ts.getQuantity(product);
-                        break;
-                    case 2:
-                        result += ts.getTotalValue(product);
-                        break;
-                    case 3:
-                        int q = ts.getQuantity(product);
-                        if (q > 0) {
-                            result += ts.getTotalValue(product);
-                            count += q;
-                        }
-                        break;
-                    case 4:
-                        double max = ts.getMaxPrice(product);
-                        if (max > result) {
-                            result = max;
-                        }
-                        break;
-                }
+            if (Math.min(days, maxDays) <= 0) {
+                return 0.0;
             }
-            targetDate = targetDate.minusDays(1);
-        }
 
-        if (type == 3 && count > 0) {
-            result = result / count;
+            window = cache.getAggregation(key);
+            if (window == null) {
+                window = history.window(product, days);
+                cache.putAggregation(key, window);
+            }
+        } finally {
+            readLock.unlock();
         }
 
-        cache.putAggregation(cacheKey, result);
-        return result;
+        return window.result(type);
     }
 
-    public void serializeFilteredEvents(LocalDate date, Set<String> products, DataOutputStream out) throws IOException {
+    /**
+     * Prepares the FILTER_EVENTS reply for a historical day. The events are encoded while the
+     * reply is sent, so nothing proportional to their number is built here.
+     *
+     * @param date     The historical day.
+     * @param products The products to include.
+     * @return The reply, empty if no data exists for that day.
+     * @throws IOException If the day cannot be loaded.
+     */
+    public FilteredEvents filterEvents(LocalDate date, Set<String> products) throws IOException {
         if (date == null || products == null || products.isEmpty()) {
             throw new IllegalArgumentException("Argumentos inválidos");
         }
@@ -192,12 +420,63 @@ public class ServerState {
         }
 
         TimeSeries series = cache.getSeries(date);
-        if (series != null) {
-            series.serializeFilteredEventsCompacted(products, out);
-        } else {
-            out.writeInt(0);
-            out.writeInt(0);
+        readAhead(date);
+        return (series != null) ? series.filterEvents(products) : FilteredEvents.empty();
+    }
+
+    /**
+     * Loads the next days in the background when a single-day filter continues a walk through the
+     * history, i.e. its day is next to the previous one, so a client filtering N days one request at
+     * a time finds most of them in memory.
+     */
+    private void readAhead(LocalDate date) {
+        LocalDate previous = lastFiltered.getAndSet(date);
+        if (previous == null || cache.getReadAhead() == 0) return;
+
+        long step = date.toEpochDay() - previous.toEpochDay();
+        if (step != 1 && step != -1) return;
+
+        LocalDate oldest = currentDate.minusDays(maxDays);
+        for (int i = 1; i <= cache.getReadAhead(); i++) {
+            LocalDate next = date.plusDays(step * i);
+            if (next.isBefore(oldest) || !next.isBefore(currentDate)) break;
+            cache.prefetchSeries(next);
+        }
+    }
+
+    /**
+     * Starts filtering the last {@code days} closed days (clamped to the available history) in parallel.
+     * Each day is loaded and filtered by its own task on the scan pool; the caller consumes the
+     * results in date order, sending each day as soon as it and every earlier day are ready.
+     *
+     * @param days     How many closed days, counting back from yesterday.
+     * @param products The products to include.
+     * @return The pending replies, keyed and ordered by date (oldest first).
+     */
+    public SortedMap<LocalDate, Future<FilteredEvents>> filterRange(int days, Set<String> products) {
+        if (days <= 0 || products == null || products.isEmpty()) {
+            throw new IllegalArgumentException("Argumentos inválidos");
+        }
+
+        LocalDate today;
+        int available;
+        readLock.lock();
+        try {
+            today = currentDate;
+            available = maxDays;
+        } finally {
+            readLock.unlock();
+        }
+
+        SortedMap<LocalDate, Future<FilteredEvents>> results = new TreeMap<>();
+        for (int back = Math.min(days, available); back >= 1; back--) {
+            LocalDate date = today.minusDays(back);
+            results.put(date, scanPool.submit(() -> {
+                TimeSeries series = cache.getSeries(date);
+                return (series != null) ? series.filterEvents(products) : FilteredEvents.empty();
+            }));
         }
+        return results;
     }
 
     public LocalDate getCurrentDate() {
@@ -0,0 +1,59 @@
+package sd.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Factory for the executors that run one task per connection or per blocking subscription.
+ *
+ * On Java 21 or newer every task gets its own virtual thread, so tens of thousands of idle
+ * clients or subscribers cost a few hundred bytes each instead of a full platform stack.
+ * The virtual-thread factory is looked up reflectively to keep the project compiling on older
+ * JDKs, where this class falls back to a cached pool of platform threads.
+ */
+final class ServerThreads {
+    private static final Method VIRTUAL_FACTORY = lookupVirtualFactory();
+
+    private ServerThreads() {
+    }
+
+    /**
+     * Checks whether the running JVM supports virtual threads.
+     *
+     * @return true if {@link #newPerTaskExecutor()} returns a virtual-thread executor
+     */
+    static boolean virtualThreadsAvailable() {
+        return VIRTUAL_FACTORY != null;
+    }
+
+    /**
+     * Creates an executor that starts a new thread for every submitted task.
+     * Uses virtual threads when available, otherwise a cached platform thread pool.
+     *
+     * @return the executor
+     */
+    static ExecutorService newPerTaskExecutor() {
+        if (VIRTUAL_FACTORY != null) {
+            try {
+                return (ExecutorService) VIRTUAL_FACTORY.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Aviso: não foi possível criar virtual threads: " + e.getMessage());
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Resolves {@code Executors.newVirtualThreadPerTaskExecutor()} if this JDK provides it.
+     *
+     * @return the factory method, or null on JDKs without virtual threads
+     */
+    private static Method lookupVirtualFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
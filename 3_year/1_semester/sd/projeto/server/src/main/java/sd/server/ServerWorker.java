@@ -1,11 +1,28 @@
 package sd.server;
 
+import sd.common.Status;
 import sd.common.Tag;
+import sd.common.WatchKind;
+import sd.middleware.FramePayload;
+import sd.middleware.FrameReader;
+import sd.middleware.FrameSender;
 import sd.middleware.TaggedConnection;
+import sd.series.FilteredEvents;
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
 
 /**
  * The ServerWorker class is responsible for handling client-server interactions.
@@ -19,7 +36,10 @@ import java.util.Set;
  * - notificationManager: Handles notifications related to server events.
  *
  * This class is a Runnable, allowing instances to be executed on separate threads to handle
- * concurrent client interactions.
+ * concurrent client interactions. Requests of one connection are pipelined: each frame is
+ * handled on an executor and answered out of order under the request's correlation id.
+ * In non-blocking mode the {@link NioServer} owns the socket and hands decoded frames
+ * to {@link #dispatch(TaggedConnection.Frame, Runnable)} instead.
  */
 public class ServerWorker implements Runnable {
 
@@ -79,18 +99,120 @@ public class ServerWorker implements Runnable {
     private final NotificationManager notificationManager;
 
     /**
-     * Constructs a ServerWorker instance to handle client-server interactions.
+     * Empty payload, replied when a query fails or is not authorized.
+     */
+    private static final byte[] NO_DATA = new byte[0];
+
+    /**
+     * Reader of the request being handled, one per thread, so pooled threads decode every request
+     * with the same reader. Requests run on virtual threads still create one each.
+     */
+    private static final ThreadLocal<FrameReader> READERS = ThreadLocal.withInitial(() -> new FrameReader(NO_DATA));
+
+    /**
+     * Maximum number of requests of one connection that may be in progress at once.
+     * When reached, the connection stops reading until some of them complete.
+     */
+    static final int MAX_IN_FLIGHT = 64;
+
+    /**
+     * Executor that runs each request frame, letting replies go out in completion order
+     * rather than arrival order. A slow request (e.g., a pending SIMUL_SALES) therefore
+     * no longer stalls later requests sent on the same connection.
+     */
+    private final Executor requestExecutor;
+
+    /**
+     * Executor used to run blocking notification waits (SIMUL_SALES and CONSEC_SALES)
+     * away from the request executor. Needed when that executor is a bounded pool.
+     * When {@code null}, waits run inside the request task itself.
+     */
+    private final Executor waitExecutor;
+
+    /**
+     * The channel used to reply to the client.
+     * Bound to a {@link TaggedConnection} when running in blocking mode, or to a
+     * non-blocking connection when frames are delivered by the {@link NioServer}.
+     */
+    private volatile FrameSender conn;
+
+    /**
+     * Whether the client on this connection has successfully logged in.
+     * Volatile because requests of the same connection are handled by different threads.
+     */
+    private volatile boolean isAuthenticated = false;
+
+    /**
+     * Username of the authenticated client, or {@code null} for anonymous sessions.
+     */
+    private volatile String currentUsername = null;
+
+    /**
+     * Set when the connection was closed by the server after a failed request,
+     * so the read loop reports a disconnection instead of an error.
+     */
+    private volatile boolean aborted = false;
+
+    /**
+     * Chunked FILTER_EVENTS_STREAM replies still in progress, by correlation id.
+     * Each one advances only when the client grants credits with STREAM_CREDIT.
+     */
+    private final Map<Integer, FilterStream> filterStreams = new ConcurrentHashMap<>();
+
+    /**
+     * Subscriptions of this connection, by the correlation id of their SUBSCRIBE request.
+     * Each one pushes NOTIFY frames until UNSUBSCRIBE or the end of the session.
+     */
+    private final Map<Integer, NotificationStream> notificationStreams = new ConcurrentHashMap<>();
+
+    /**
+     * Set once the session ended, so a SUBSCRIBE still being handled cancels itself.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructs a ServerWorker for a blocking socket whose requests are pipelined.
+     * The thread running {@link #run()} only reads frames; each one is handled on the
+     * request executor and answered as soon as it completes.
      *
      * @param socket the client socket used for network communication
      * @param userManager the user management service responsible for handling user authentication and registration
      * @param serverState the server state manager tracking the state and data of the server
      * @param notificationManager the notification manager for handling notifications related to server events
+     * @param requestExecutor the executor that handles each request frame
+     * @param waitExecutor the executor that runs blocking notification waits, or null to wait inside the request task
      */
-    public ServerWorker(Socket socket, UserManager userManager, ServerState serverState, NotificationManager notificationManager) {
+    public ServerWorker(Socket socket, UserManager userManager, ServerState serverState, NotificationManager notificationManager,
+                        Executor requestExecutor, Executor waitExecutor) {
         this.socket = socket;
         this.userManager = userManager;
         this.serverState = serverState;
         this.notificationManager = notificationManager;
+        this.requestExecutor = requestExecutor;
+        this.waitExecutor = waitExecutor;
+    }
+
+    /**
+     * Constructs a ServerWorker bound to an already established frame channel.
+     * Used by the non-blocking server, which owns the socket and feeds frames to
+     * {@link #dispatch(TaggedConnection.Frame, Runnable)} instead of calling {@link #run()}.
+     *
+     * @param conn the channel used to send replies to the client
+     * @param userManager the user management service responsible for handling user authentication and registration
+     * @param serverState the server state manager tracking the state and data of the server
+     * @param notificationManager the notification manager for handling notifications related to server events
+     * @param requestExecutor the executor that handles each request frame
+     * @param waitExecutor the executor that runs blocking notification waits
+     */
+    ServerWorker(FrameSender conn, UserManager userManager, ServerState serverState, NotificationManager notificationManager,
+                 Executor requestExecutor, Executor waitExecutor) {
+        this.socket = null;
+        this.conn = conn;
+        this.userManager = userManager;
+        this.serverState = serverState;
+        this.notificationManager = notificationManager;
+        this.requestExecutor = requestExecutor;
+        this.waitExecutor = waitExecutor;
     }
 
     /**
@@ -109,7 +231,8 @@ public class ServerWorker implements Runnable {
      * </ul>
      * The method uses a {@link TaggedConnection}, which provides a mechanism
      * for handling framed data with accompanying tags that specify the operation
-     * to be performed.
+     * to be performed. Each frame is passed to {@link #dispatch(TaggedConnection.Frame, Runnable)};
+     * at most {@link #MAX_IN_FLIGHT} requests are in progress at any time.
      *
      * Note:
      * - Persistent loops keep processing client messages until a disconnection
@@ -122,191 +245,512 @@ public class ServerWorker implements Runnable {
      */
     @Override
     public void run() {
-        boolean isAuthenticated = false;
-        String currentUsername = null;
-
         try (TaggedConnection conn = new TaggedConnection(socket)) {
+            this.conn = conn;
+            Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
             while (true) {
                 TaggedConnection.Frame frame = conn.receive();
-
-                try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame.data))) {
-
-                    byte[] responseData;
-
-                    switch (frame.tag) {
-                        case Tag.REGISTER:
-                            String regUser = dis.readUTF();
-                            String regPass = dis.readUTF();
-                            boolean regSuccess = userManager.register(regUser, regPass);
-                            conn.send(Tag.REGISTER, serializeBoolean(regSuccess));
-                            break;
-
-                        case Tag.LOGIN:
-                            String logUser = dis.readUTF();
-                            String logPass = dis.readUTF();
-                            boolean success = userManager.authenticate(logUser, logPass);
-                            if (success) {
-                                isAuthenticated = true;
-                                currentUsername = logUser;
-                            }
-                            conn.send(Tag.LOGIN, serializeBoolean(success));
-                            break;
-
-                        case Tag.ADD_EVENT:
-                            if (!isAuthenticated) {
-                                conn.send(Tag.ADD_EVENT, serializeString("Erro: Não autenticado"));
-                                break;
-                            }
-                            String prod = dis.readUTF();
-                            int qtd = dis.readInt();
-                            double price = dis.readDouble();
-                            serverState.addEvent(prod, qtd, price);
-                            conn.send(Tag.ADD_EVENT, serializeString("Evento registado"));
-                            break;
-
-                        case Tag.AG_QUANTITY:
-                        case Tag.AG_VOLUME:
-                        case Tag.AG_AVG:
-                        case Tag.AG_MAX:
-                            if (!isAuthenticated) {
-                                conn.send(frame.tag, serializeDouble(-1));
-                                break;
-                            }
-                            String p = dis.readUTF();
-                            int d = dis.readInt();
-
-                            int type = 0;
-                            if (frame.tag == Tag.AG_QUANTITY) type = 1;
-                            else if (frame.tag == Tag.AG_VOLUME) type = 2;
-                            else if (frame.tag == Tag.AG_AVG) type = 3;
-                            else if (frame.tag == Tag.AG_MAX) type = 4;
-
-                            double res = serverState.getAggregation(type, p, d);
-                            conn.send(frame.tag, serializeDouble(res));
-                            break;
-
-                        case Tag.SIMUL_SALES:
-                            if (!isAuthenticated) {
-                                conn.send(Tag.SIMUL_SALES, serializeBoolean(false));
-                                break;
-                            }
-                            String p1 = dis.readUTF();
-                            String p2 = dis.readUTF();
-                            try {
-                                boolean resSimul = notificationManager.waitForSimultaneous(p1, p2);
-                                conn.send(Tag.SIMUL_SALES, serializeBoolean(resSimul));
-                            } catch (InterruptedException e) {
-                                conn.send(Tag.SIMUL_SALES, serializeBoolean(false));
-                            }
-                            break;
-
-                        case Tag.CONSEC_SALES:
-                            if (!isAuthenticated) {
-                                conn.send(Tag.CONSEC_SALES, serializeString("Erro"));
-                                break;
-                            }
-                            String pc = dis.readUTF();
-                            int n = dis.readInt();
-                            try {
-                                String resConsec = notificationManager.waitForConsecutive(pc, n);
-                                conn.send(Tag.CONSEC_SALES, serializeString(resConsec == null ? "null" : resConsec));
-                            } catch (InterruptedException e) {
-                                conn.send(Tag.CONSEC_SALES, serializeString("null"));
-                            }
-                            break;
-
-                        case Tag.NEW_DAY:
-                            if (!isAuthenticated) {
-                                conn.send(Tag.NEW_DAY, serializeString("Erro: Não autenticado"));
-                                break;
-                            }
-                            serverState.startNewDay();
-                            conn.send(Tag.NEW_DAY, serializeString("Novo dia iniciado com sucesso."));
-                            break;
-
-                        case Tag.FILTER_EVENTS:
-                            if (!isAuthenticated) {
-                                conn.send(Tag.FILTER_EVENTS, new byte[0]);
-                                break;
-                            }
-
-                            int daysBack = dis.readInt();
-                            int numProducts = dis.readInt();
-                            Set<String> products = new HashSet<>();
-
-                            for (int i = 0; i < numProducts; i++) {
-                                products.add(dis.readUTF());
-                            }
-
-                            try {
-                                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                DataOutputStream dos = new DataOutputStream(baos);
-
-                                serverState.serializeFilteredEvents(serverState.getCurrentDate().minusDays(daysBack), products, dos);
-                                dos.close();
-
-                                conn.send(Tag.FILTER_EVENTS, baos.toByteArray());
-                            } catch (Exception e) {
-                                conn.send(Tag.FILTER_EVENTS, new byte[0]);
-                            }
-                            break;
-
-                        default:
-                            conn.send(Tag.NEW_DAY, serializeString("Comando desconhecido: " + frame.tag));
-                            break;
-                    }
-                }
+                inFlight.acquireUninterruptibly();
+                dispatch(frame, inFlight::release);
             }
         } catch (EOFException e) {
-            System.out.println("Cliente " + (currentUsername != null ? currentUsername : "anónimo") + " desconectado.");
+            disconnected();
         } catch (IOException e) {
-            e.printStackTrace();
+            if (aborted) {
+                disconnected();
+            } else {
+                e.printStackTrace();
+                cancelSubscriptions();
+            }
+        }
+    }
+
+    /**
+     * Schedules a request frame for handling.
+     *
+     * REGISTER and LOGIN are handled immediately on the calling thread, because they change the
+     * session state every later request depends on. Every other frame is handed to the request
+     * executor and may complete, and be answered, out of order; the client matches replies by
+     * the correlation id echoed from the request.
+     *
+     * @param frame the request frame received from the client
+     * @param onComplete invoked once the request has been fully handled, successfully or not
+     * @throws IOException if an inline request fails
+     */
+    void dispatch(TaggedConnection.Frame frame, Runnable onComplete) throws IOException {
+        if (frame.tag == Tag.REGISTER || frame.tag == Tag.LOGIN) {
+            try {
+                handle(frame);
+            } finally {
+                onComplete.run();
+            }
+            return;
+        }
+
+        try {
+            requestExecutor.execute(() -> {
+                try {
+                    handle(frame);
+                } catch (IOException | RuntimeException e) {
+                    abort(e);
+                } finally {
+                    onComplete.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            onComplete.run();
+            throw new IOException("Servidor a encerrar", e);
+        }
+    }
+
+    /**
+     * Closes the connection after a request failed in the background.
+     * The reader notices the closed channel and ends the session.
+     *
+     * @param cause the failure
+     */
+    private void abort(Exception cause) {
+        if (aborted) return;
+        aborted = true;
+        System.err.println("Pedido falhou, a fechar ligação: " + cause.getMessage());
+        try {
+            conn.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Processes a single request frame and sends the corresponding reply.
+     * Replies are written through the {@link FrameSender} bound to this worker, which makes
+     * this method usable both by the blocking read loop in {@link #run()} and by the
+     * non-blocking {@link NioServer}, which decodes frames on its selector thread.
+     * Frames are processed concurrently, so the method only relies on thread-safe state.
+     *
+     * Every reply carries the correlation id of the request frame. The request is decoded in place
+     * by the thread's {@link FrameReader}, and replies without data are a one-byte {@link Status} code;
+     * scalar and string replies are written straight into the connection's output, without
+     * intermediate streams.
+     *
+     * @param frame the request frame received from the client
+     * @throws IOException if the frame is malformed or the reply cannot be sent
+     */
+    void handle(TaggedConnection.Frame frame) throws IOException {
+        FrameReader in = READERS.get().reset(frame.data);
+        try {
+            handle(frame, in);
+        } finally {
+            // Do not keep the payload reachable until the thread's next request
+            in.reset(NO_DATA);
         }
     }
 
+    /**
+     * Processes a request frame, as {@link #handle(TaggedConnection.Frame)}.
+     *
+     * @param frame the request frame received from the client
+     * @param in    the reader positioned at the start of the frame's payload
+     * @throws IOException if the frame is malformed or the reply cannot be sent
+     */
+    private void handle(TaggedConnection.Frame frame, FrameReader in) throws IOException {
+        switch (frame.tag) {
+            case Tag.REGISTER:
+                String regUser = in.readUTF();
+                String regPass = in.readUTF();
+                boolean regSuccess = userManager.register(regUser, regPass);
+                conn.sendBoolean(Tag.REGISTER, frame.id, regSuccess);
+                break;
+
+            case Tag.LOGIN:
+                String logUser = in.readUTF();
+                String logPass = in.readUTF();
+                boolean success = userManager.authenticate(logUser, logPass);
+                if (success) {
+                    isAuthenticated = true;
+                    currentUsername = logUser;
+                }
+                conn.sendBoolean(Tag.LOGIN, frame.id, success);
+                break;
+
+            case Tag.ADD_EVENT:
+                if (!isAuthenticated) {
+                    conn.sendByte(Tag.ADD_EVENT, frame.id, Status.NOT_AUTHENTICATED);
+                    break;
+                }
+                String prod = in.readUTF();
+                int qtd = in.readInt();
+                double price = in.readDouble();
+                serverState.addEvent(prod, qtd, price);
+                conn.sendByte(Tag.ADD_EVENT, frame.id, Status.OK);
+                break;
+
+            case Tag.ADD_EVENT_BATCH:
+                if (!isAuthenticated) {
+                    conn.sendInt(Tag.ADD_EVENT_BATCH, frame.id, -1);
+                    break;
+                }
+
+                // Same dictionary encoding as the filter replies: names once, then short ids.
+                // The counts come from the client: each name takes at least 2 bytes and each event 14,
+                // so a count the frame cannot hold is rejected before anything is allocated
+                int numBatchProducts = in.readInt();
+                if (numBatchProducts < 0 || numBatchProducts > in.remaining() / 2) {
+                    conn.sendInt(Tag.ADD_EVENT_BATCH, frame.id, -1);
+                    break;
+                }
+                String[] batchDict = new String[numBatchProducts];
+                for (int i = 0; i < numBatchProducts; i++) {
+                    batchDict[i] = in.readUTF();
+                }
+
+                int numBatchEvents = in.readInt();
+                if (numBatchEvents < 0 || numBatchEvents > in.remaining() / 14) {
+                    conn.sendInt(Tag.ADD_EVENT_BATCH, frame.id, -1);
+                    break;
+                }
+                String[] batchNames = new String[numBatchEvents];
+                int[] batchQuantities = new int[numBatchEvents];
+                double[] batchPrices = new double[numBatchEvents];
+                boolean validBatch = true;
+                for (int i = 0; i < numBatchEvents; i++) {
+                    short productId = in.readShort();
+                    if (productId < 0 || productId >= numBatchProducts) {
+                        validBatch = false;
+                        break;
+                    }
+                    batchNames[i] = batchDict[productId];
+                    batchQuantities[i] = in.readInt();
+                    batchPrices[i] = in.readDouble();
+                }
+
+                // All or nothing: a malformed batch records no event
+                if (!validBatch) {
+                    conn.sendInt(Tag.ADD_EVENT_BATCH, frame.id, -1);
+                    break;
+                }
+                serverState.addEventBatch(batchNames, batchQuantities, batchPrices);
+                conn.sendInt(Tag.ADD_EVENT_BATCH, frame.id, numBatchEvents);
+                break;
+
+            case Tag.AG_QUANTITY:
+            case Tag.AG_VOLUME:
+            case Tag.AG_AVG:
+            case Tag.AG_MAX:
+                if (!isAuthenticated) {
+                    conn.sendDouble(frame.tag, frame.id, -1);
+                    break;
+                }
+                String p = in.readUTF();
+                int d = in.readInt();
+
+                AggregationType type = AggregationType.fromTag(frame.tag);
+                double res = serverState.getAggregation(type, p, d);
+                conn.sendDouble(frame.tag, frame.id, res);
+                break;
+
+            case Tag.SIMUL_SALES:
+                if (!isAuthenticated) {
+                    conn.sendBoolean(Tag.SIMUL_SALES, frame.id, false);
+                    break;
+                }
+                String p1 = in.readUTF();
+                String p2 = in.readUTF();
+                awaitNotification(() -> {
+                    try {
+                        boolean resSimul = notificationManager.waitForSimultaneous(p1, p2);
+                        conn.sendBoolean(Tag.SIMUL_SALES, frame.id, resSimul);
+                    } catch (InterruptedException e) {
+                        conn.sendBoolean(Tag.SIMUL_SALES, frame.id, false);
+                    }
+                });
+                break;
+
+            case Tag.CONSEC_SALES:
+                if (!isAuthenticated) {
+                    conn.sendUTF(Tag.CONSEC_SALES, frame.id, "Erro");
+                    break;
+                }
+                String pc = in.readUTF();
+                int n = in.readInt();
+                awaitNotification(() -> {
+                    try {
+                        String resConsec = notificationManager.waitForConsecutive(pc, n);
+                        conn.sendUTF(Tag.CONSEC_SALES, frame.id, resConsec == null ? "null" : resConsec);
+                    } catch (InterruptedException e) {
+                        conn.sendUTF(Tag.CONSEC_SALES, frame.id, "null");
+                    }
+                });
+                break;
+
+            case Tag.SUBSCRIBE:
+                if (!isAuthenticated) {
+                    conn.sendByte(Tag.SUBSCRIBE, frame.id, Status.NOT_AUTHENTICATED);
+                    break;
+                }
+                subscribe(frame.id, in);
+                break;
+
+            case Tag.UNSUBSCRIBE:
+                // The request names the correlation id of the SUBSCRIBE it ends
+                NotificationStream subscription = notificationStreams.remove(in.readInt());
+                if (subscription == null) {
+                    conn.sendByte(Tag.UNSUBSCRIBE, frame.id, Status.INVALID_REQUEST);
+                    break;
+                }
+                subscription.cancel();
+                conn.sendByte(Tag.UNSUBSCRIBE, frame.id, Status.OK);
+                break;
+
+            case Tag.NEW_DAY:
+                if (!isAuthenticated) {
+                    conn.sendByte(Tag.NEW_DAY, frame.id, Status.NOT_AUTHENTICATED);
+                    break;
+                }
+                serverState.startNewDay();
+                conn.sendByte(Tag.NEW_DAY, frame.id, Status.OK);
+                break;
+
+            case Tag.FILTER_EVENTS:
+                if (!isAuthenticated) {
+                    conn.send(Tag.FILTER_EVENTS, frame.id, NO_DATA);
+                    break;
+                }
+
+                int daysBack = in.readInt();
+                int numProducts = in.readInt();
+                Set<String> products = new HashSet<>();
+
+                for (int i = 0; i < numProducts; i++) {
+                    products.add(in.readUTF());
+                }
+
+                FilteredEvents filtered;
+                try {
+                    filtered = serverState.filterEvents(serverState.getCurrentDate().minusDays(daysBack), products);
+                } catch (Exception e) {
+                    conn.send(Tag.FILTER_EVENTS, frame.id, NO_DATA);
+                    break;
+                }
+                // Streamed straight from the day's columns, without an intermediate array
+                conn.send(Tag.FILTER_EVENTS, frame.id, filtered);
+                break;
+
+            case Tag.FILTER_EVENTS_STREAM:
+                if (!isAuthenticated) {
+                    conn.send(Tag.FILTER_EVENTS_STREAM, frame.id, NO_DATA);
+                    break;
+                }
+
+                int streamDaysBack = in.readInt();
+                int numStreamProducts = in.readInt();
+                Set<String> streamProducts = new HashSet<>();
+
+                for (int i = 0; i < numStreamProducts; i++) {
+                    streamProducts.add(in.readUTF());
+                }
+                int window = in.readInt();
+
+                FilteredEvents streamed;
+                try {
+                    streamed = serverState.filterEvents(serverState.getCurrentDate().minusDays(streamDaysBack), streamProducts);
+                } catch (Exception e) {
+                    // An empty dictionary frame reports the failure
+                    conn.send(Tag.FILTER_EVENTS_STREAM, frame.id, NO_DATA);
+                    break;
+                }
+
+                // Registered before the first frame goes out, so no credit can arrive for an unknown stream
+                FilterStream stream = new FilterStream(conn, frame.id, streamed);
+                filterStreams.put(frame.id, stream);
+                if (stream.start(Math.max(1, window))) {
+                    filterStreams.remove(frame.id);
+                }
+                break;
+
+            case Tag.FILTER_RANGE:
+                if (!isAuthenticated) {
+                    conn.send(Tag.FILTER_RANGE, frame.id, NO_DATA);
+                    break;
+                }
+
+                int rangeDays = in.readInt();
+                int numRangeProducts = in.readInt();
+                Set<String> rangeProducts = new HashSet<>();
+
+                for (int i = 0; i < numRangeProducts; i++) {
+                    rangeProducts.add(in.readUTF());
+                }
+
+                SortedMap<LocalDate, Future<FilteredEvents>> range;
+                try {
+                    range = serverState.filterRange(rangeDays, rangeProducts);
+                } catch (IllegalArgumentException e) {
+                    conn.send(Tag.FILTER_RANGE, frame.id, NO_DATA);
+                    break;
+                }
+                sendRange(frame.id, range);
+                break;
+
+            case Tag.STREAM_CREDIT:
+                // No reply: credits only release more batches of the stream with this id
+                int credits = in.readInt();
+                FilterStream open = filterStreams.get(frame.id);
+                if (open == null) break;
+
+                if (credits > 0) {
+                    if (open.grant(credits)) filterStreams.remove(frame.id);
+                } else {
+                    open.cancel();
+                    filterStreams.remove(frame.id);
+                }
+                break;
+
+            default:
+                conn.sendByte(frame.tag, frame.id, Status.UNKNOWN_COMMAND);
+                break;
+        }
+    }
 
     /**
-     * Serializes a boolean value into a byte array.
+     * Sends the reply of a range filter: the number of days, then one frame per day in date order,
+     * each the day (epoch day, long) followed by its filtered events. Days are scanned in parallel,
+     * so each frame goes out as soon as that day and all earlier ones are ready. If a day cannot
+     * be read, an empty frame replaces the remaining days. Scans still pending when the reply ends
+     * early, because a day failed or the client went away, are cancelled.
      *
-     * @param b the boolean value to be serialized
-     * @return a byte array representation of the boolean value
-     * @throws IOException if an I/O error occurs during the serialization process
+     * @param id    the correlation id of the request
+     * @param range the pending results, in date order
+     * @throws IOException if a frame cannot be sent
      */
-    private byte[] serializeBoolean(boolean b) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (DataOutputStream dos = new DataOutputStream(baos)) {
-            dos.writeBoolean(b);
+    private void sendRange(int id, SortedMap<LocalDate, Future<FilteredEvents>> range) throws IOException {
+        try {
+            conn.sendInt(Tag.FILTER_RANGE, id, range.size());
+
+            for (Map.Entry<LocalDate, Future<FilteredEvents>> day : range.entrySet()) {
+                FilteredEvents events;
+                try {
+                    events = day.getValue().get();
+                } catch (InterruptedException | ExecutionException e) {
+                    if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                    System.err.println("Filtragem de " + day.getKey() + " falhou: " + e.getMessage());
+                    conn.send(Tag.FILTER_RANGE, id, NO_DATA);
+                    return;
+                }
+                byte[] prefix = ByteBuffer.allocate(8).putLong(day.getKey().toEpochDay()).array();
+                conn.send(Tag.FILTER_RANGE, id, FramePayload.prefixed(prefix, events));
+            }
+        } finally {
+            // No-op for the scans that already completed
+            range.values().forEach(f -> f.cancel(false));
         }
-        return baos.toByteArray();
     }
 
     /**
-     * Serializes the given string into a byte array using UTF-8 encoding.
+     * Starts the subscription requested by a SUBSCRIBE frame: the watched condition (a
+     * {@link WatchKind}) followed by its arguments. Its matches are pushed on the request executor.
      *
-     * @param s the string to be serialized
-     * @return the serialized byte array representation of the string
-     * @throws IOException if an I/O error occurs during serialization
+     * @param id the correlation id of the request, which identifies the subscription
+     * @param in the request, positioned after the tag
+     * @throws IOException if the request is malformed or the reply cannot be sent
+     */
+    private void subscribe(int id, FrameReader in) throws IOException {
+        byte kind = in.readByte();
+        Function<Runnable, Runnable> subscription;
+        switch (kind) {
+            case WatchKind.PAIR:
+                String p1 = in.readUTF();
+                String p2 = in.readUTF();
+                subscription = onMatch -> notificationManager.subscribeSimultaneous(p1, p2, onMatch);
+                break;
+            case WatchKind.STREAK:
+                String product = in.readUTF();
+                int n = in.readInt();
+                subscription = onMatch -> notificationManager.subscribeConsecutive(product, n, onMatch);
+                break;
+            case WatchKind.QUANTITY:
+                String totalProduct = in.readUTF();
+                long total = in.readLong();
+                subscription = onMatch -> notificationManager.subscribeQuantity(totalProduct, total, onMatch);
+                break;
+            case WatchKind.QUERY:
+                String queryProduct = in.readUTF();
+                byte metric = in.readByte();
+                long windowSeconds = in.readLong();
+                byte comparison = in.readByte();
+                double threshold = in.readDouble();
+                subscription = onMatch -> notificationManager.subscribeQuery(queryProduct, metric, windowSeconds,
+                        comparison, threshold, onMatch);
+                break;
+            default:
+                conn.sendByte(Tag.SUBSCRIBE, id, Status.INVALID_REQUEST);
+                return;
+        }
+
+        NotificationStream stream = new NotificationStream(conn, id, requestExecutor);
+        if (notificationStreams.putIfAbsent(id, stream) != null) {
+            conn.sendByte(Tag.SUBSCRIBE, id, Status.INVALID_REQUEST);
+            return;
+        }
+        if (closed) {
+            stream.cancel();
+            return;
+        }
+        try {
+            stream.start(subscription);
+        } catch (IllegalArgumentException e) {
+            // Malformed query, rejected before anything was sent
+            notificationStreams.remove(id);
+            conn.sendByte(Tag.SUBSCRIBE, id, Status.INVALID_REQUEST);
+        }
+    }
+
+    /**
+     * Cancels every subscription of the connection.
      */
-    private byte[] serializeString(String s) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (DataOutputStream dos = new DataOutputStream(baos)) {
-            dos.writeUTF(s);
+    private void cancelSubscriptions() {
+        closed = true;
+        for (NotificationStream stream : notificationStreams.values()) {
+            stream.cancel();
         }
-        return baos.toByteArray();
+        notificationStreams.clear();
     }
 
     /**
-     * Serializes a double value into a sequence of bytes.
+     * Runs a blocking notification wait.
+     * Without a dedicated executor the wait runs inside the current request task until the
+     * condition fires or the day ends. With one, the wait is handed off so that the request
+     * thread (possibly from a pool shared with other connections) stays free.
      *
-     * @param d the double value to serialize
-     * @return a byte array containing the serialized representation of the double
-     * @throws IOException if an I/O error occurs during serialization
+     * @param wait the blocking wait, which sends its own reply
      */
-    private byte[] serializeDouble(double d) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (DataOutputStream dos = new DataOutputStream(baos)) {
-            dos.writeDouble(d);
+    private void awaitNotification(NotificationWait wait) throws IOException {
+        if (waitExecutor == null) {
+            wait.run();
+            return;
         }
-        return baos.toByteArray();
+
+        waitExecutor.execute(() -> {
+            try {
+                wait.run();
+            } catch (IOException e) {
+                System.err.println("Falha ao enviar notificação: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * A blocking notification wait that replies to the client once it completes.
+     */
+    private interface NotificationWait {
+        void run() throws IOException;
+    }
+
+    /**
+     * Logs the end of the client session, drops its unfinished filter streams and cancels its
+     * subscriptions. Called when the connection is closed by the remote peer.
+     */
+    void disconnected() {
+        filterStreams.clear();
+        cancelSubscriptions();
+        System.out.println("Cliente " + (currentUsername != null ? currentUsername : "anónimo") + " desconectado.");
     }
 }
\ No newline at end of file
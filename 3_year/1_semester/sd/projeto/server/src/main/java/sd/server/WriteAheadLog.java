@@ -0,0 +1,674 @@
+package sd.server;
+
+import sd.series.SalesEvent;
+import sd.series.SeriesFileManager;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, group-committed log of the sales of the current day, so that a crash loses
+ * (at most) the last few milliseconds of sales instead of the whole day, without rewriting
+ * the day file on every sale.
+ *
+ * Appends only copy the encoded record into an in-memory buffer; a writer thread drains the
+ * buffer to the active segment file, and every sale appended while it is writing goes out in
+ * its next write. How the writes reach the disk depends on the {@link SyncPolicy}.
+ *
+ * The log is split in segments named {@code <date>.<index>.wal}. A checkpoint rotates to a new
+ * segment while no sale is being added, writes the day file from a snapshot taken at that
+ * instant and then truncates the log, deleting the segments whose sales are all in the file.
+ * At startup the segments left behind by a crash are replayed on top of the day files.
+ *
+ * A crash between saving a file and deleting its segments must not count those sales twice, so
+ * before each save a marker {@code <date>.ckpt} records which segments the new file will cover
+ * and how many sales it will hold. Files of a day only grow, so at startup a file holding at
+ * least that many sales is known to be the new one and the segments it covers are skipped.
+ *
+ * Each record is {@code int length, payload, int crc32}, the payload being the product (UTF),
+ * quantity (int), price (double), epoch second (long) and nano (int) of the sale. Replay stops
+ * at the first incomplete or corrupted record of a segment, i.e. a write torn by the crash.
+ */
+public final class WriteAheadLog implements AutoCloseable {
+
+    /**
+     * When appended sales are forced to the disk.
+     */
+    public enum SyncPolicy {
+        /**
+         * Every write is followed by an fsync and a sale is only acknowledged once it is on disk.
+         * Concurrent sales share the same fsync (group commit).
+         */
+        ALWAYS,
+        /**
+         * Sales are acknowledged at once and written as soon as possible, like NONE, but the log
+         * is also forced at most {@link #PERIODIC_SYNC_MILLIS} ms after a write, so a power loss
+         * can lose up to that much.
+         */
+        PERIODIC,
+        /**
+         * Sales are acknowledged at once and written as soon as possible but never forced:
+         * they survive a crash of the server process, not of the machine.
+         */
+        NONE;
+
+        public static SyncPolicy parse(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    static final long PERIODIC_SYNC_MILLIS = 100;
+
+    private static final String SUFFIX = ".wal";
+    private static final String MARKER_SUFFIX = ".ckpt";
+
+    private final Path directory;
+    private final SyncPolicy policy;
+
+    // Guards the pending buffer, the sequence numbers and the failure
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasPending = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+
+    // Held while writing to the active segment or replacing it, so buffers reach the disk in order
+    private final ReentrantLock ioLock = new ReentrantLock();
+
+    private RecordBuffer pending = new RecordBuffer();
+    private RecordBuffer spare = new RecordBuffer();
+    private long appended = 0;
+    private long durable = 0;
+    private volatile long activeBytes = 0;
+    private IOException failure;
+    private boolean closed = false;
+
+    // Active segment, guarded by ioLock
+    private FileChannel channel;
+    private Path activePath;
+    private int nextIndex;
+
+    private Thread writer;
+
+    /**
+     * Opens the log directory. Nothing is appended until {@link #rotate(LocalDate)} opens the first segment.
+     *
+     * @param directory the directory holding the segments, created if needed
+     * @param policy    when writes are forced to the disk
+     * @throws IOException if the directory cannot be created or listed
+     */
+    public WriteAheadLog(Path directory, SyncPolicy policy) throws IOException {
+        this.directory = directory;
+        this.policy = policy;
+        Files.createDirectories(directory);
+
+        int maxIndex = -1;
+        for (Path segment : listSegments()) {
+            maxIndex = Math.max(maxIndex, indexOf(segment));
+        }
+        this.nextIndex = maxIndex + 1;
+
+        // Markers of dates whose segments are all gone were left by a crash during truncate
+        SortedSet<LocalDate> dates = dates();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + MARKER_SUFFIX)) {
+            for (Path marker : stream) {
+                try {
+                    if (!dates.contains(dateOf(marker))) Files.delete(marker);
+                } catch (DateTimeParseException e) {
+                    // Ignores poorly formatted files
+                }
+            }
+        }
+    }
+
+    public SyncPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the dates that still have segments on disk, e.g. left behind by a crash.
+     *
+     * @return the dates, in order
+     * @throws IOException if the directory cannot be listed
+     */
+    public SortedSet<LocalDate> dates() throws IOException {
+        SortedSet<LocalDate> dates = new TreeSet<>();
+        for (Path segment : listSegments()) {
+            dates.add(dateOf(segment));
+        }
+        return dates;
+    }
+
+    /**
+     * Returns the closed segments of a date, i.e. every segment of that date except the active one.
+     *
+     * @param date the date
+     * @return the segments, oldest first
+     * @throws IOException if the directory cannot be listed
+     */
+    List<Path> segments(LocalDate date) throws IOException {
+        Path active;
+        ioLock.lock();
+        try {
+            active = activePath;
+        } finally {
+            ioLock.unlock();
+        }
+
+        List<Path> segments = new ArrayList<>();
+        for (Path segment : listSegments()) {
+            if (dateOf(segment).equals(date) && !segment.equals(active)) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Reads back the sales of the closed segments of a date that are not in its day file yet,
+     * in the order they were logged.
+     *
+     * @param date        the date
+     * @param savedEvents the number of sales in the day file of that date
+     * @param sink        receives each sale
+     * @return the number of sales replayed
+     * @throws IOException if a segment or the marker cannot be read
+     */
+    int replay(LocalDate date, long savedEvents, Consumer<SalesEvent> sink) throws IOException {
+        int count = 0;
+        Marker marker = readMarker(date);
+        int covered = (savedEvents >= marker.events) ? marker.pending : marker.covered;
+        for (Path segment : segments(date)) {
+            if (indexOf(segment) < covered) continue;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+                count += replaySegment(segment, in, sink);
+            }
+        }
+        return count;
+    }
+
+    private int replaySegment(Path segment, DataInputStream in, Consumer<SalesEvent> sink) throws IOException {
+        int count = 0;
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] payload;
+            try {
+                int length = in.readInt();
+                if (length <= 0 || length > 64 * 1024) {
+                    throw new IOException("tamanho de registo inválido: " + length);
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+
+                crc.reset();
+                crc.update(payload);
+                if (in.readInt() != (int) crc.getValue()) {
+                    throw new IOException("checksum inválido");
+                }
+            } catch (EOFException e) {
+                // Clean end of the segment, or a record cut short by the crash
+                return count;
+            } catch (IOException e) {
+                System.err.println("Aviso: registo corrompido em " + segment.getFileName() + " após "
+                        + count + " vendas (" + e.getMessage() + "); resto do segmento ignorado");
+                return count;
+            }
+
+            sink.accept(decode(payload));
+            count++;
+        }
+    }
+
+    /**
+     * Appends a sale to the log. Returns as soon as the record is buffered; see {@link #awaitDurable(long)}.
+     *
+     * @param event the sale
+     * @return the sequence number of the record
+     * @throws IOException if the log has failed or is closed
+     */
+    long append(SalesEvent event) throws IOException {
+        byte[] record = encode(event);
+
+        lock.lock();
+        try {
+            checkWritable();
+            if (pending.size() == 0) hasPending.signal();
+            pending.writeBytes(record);
+            activeBytes += record.length;
+            return ++appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends several sales with a single acquisition of the log's lock.
+     *
+     * @param events the sales
+     * @return the sequence number of the last record
+     * @throws IOException if the log has failed or is closed
+     */
+    long appendAll(List<SalesEvent> events) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream(events.size() * 48);
+        for (SalesEvent event : events) {
+            records.writeBytes(encode(event));
+        }
+
+        lock.lock();
+        try {
+            checkWritable();
+            if (pending.size() == 0) hasPending.signal();
+            records.writeTo(pending);
+            activeBytes += records.size();
+            appended += events.size();
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a record is on disk, if the policy acknowledges only durable sales.
+     * Returns at once under the other policies.
+     *
+     * @param sequence the sequence number returned by the append
+     * @throws IOException if the log failed before the record was written, or the wait was interrupted
+     */
+    void awaitDurable(long sequence) throws IOException {
+        if (policy != SyncPolicy.ALWAYS) return;
+
+        lock.lock();
+        try {
+            while (durable < sequence) {
+                if (failure != null) throw failure;
+                synced.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes appended since the active segment was opened.
+     *
+     * @return the size of the active segment, including what is still buffered
+     */
+    long activeBytes() {
+        lock.lock();
+        try {
+            return activeBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes and forces everything appended so far and starts a new segment for the given date.
+     * Callers make sure that no sale is appended meanwhile, so the new segment holds exactly the
+     * sales that come after this instant.
+     *
+     * @param date the date of the sales logged from now on
+     * @throws IOException if the old segment cannot be written or the new one created
+     */
+    void rotate(LocalDate date) throws IOException {
+        ioLock.lock();
+        try {
+            drain(true);
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+
+            Path path = directory.resolve(String.format("%s.%06d%s", date, nextIndex++, SUFFIX));
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            activePath = path;
+            // Forcing the segment only keeps its contents; the directory entry needs its own force
+            SeriesFileManager.syncDirectory(directory);
+
+            lock.lock();
+            try {
+                activeBytes = 0;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            ioLock.unlock();
+        }
+
+        startWriter();
+    }
+
+    /**
+     * Records, before the day file of a date is saved, that the file will hold the sales of the
+     * given segments. Must be followed by {@link #truncate} once the file is on disk.
+     *
+     * @param date     the date of the file
+     * @param segments closed segments of that date whose sales will all be in the file
+     * @param events   the number of sales the file will hold
+     * @throws IOException if the marker cannot be written
+     */
+    void prepareTruncate(LocalDate date, List<Path> segments, long events) throws IOException {
+        Marker marker = readMarker(date);
+        writeMarker(date, new Marker(marker.covered, Math.max(marker.covered, coveredBy(segments)), events));
+    }
+
+    /**
+     * Truncates the log after the day file of a date was saved: deletes the segments prepared by
+     * {@link #prepareTruncate}. Once a date has no segments left, its marker is deleted too.
+     *
+     * @param date     the date of the saved file
+     * @param segments the segments given to prepareTruncate
+     * @throws IOException if the marker cannot be updated
+     */
+    void truncate(LocalDate date, List<Path> segments) throws IOException {
+        Marker marker = readMarker(date);
+        writeMarker(date, new Marker(marker.pending, marker.pending, marker.events));
+
+        for (Path segment : segments) {
+            try {
+                Files.deleteIfExists(segment);
+            } catch (IOException e) {
+                System.err.println("Aviso: não foi possível apagar " + segment.getFileName() + ": " + e.getMessage());
+            }
+        }
+
+        if (!dates().contains(date)) {
+            Files.deleteIfExists(markerPath(date));
+        }
+    }
+
+    private static int coveredBy(List<Path> segments) {
+        int covered = 0;
+        for (Path segment : segments) {
+            covered = Math.max(covered, indexOf(segment) + 1);
+        }
+        return covered;
+    }
+
+    /**
+     * Segments of a date below {@code covered} are in its day file. Those below {@code pending}
+     * are too if the file holds at least {@code events} sales, i.e. if the last save completed.
+     */
+    private static final class Marker {
+        final int covered;
+        final int pending;
+        final long events;
+
+        Marker(int covered, int pending, long events) {
+            this.covered = covered;
+            this.pending = pending;
+            this.events = events;
+        }
+    }
+
+    private Marker readMarker(LocalDate date) throws IOException {
+        Path marker = markerPath(date);
+        if (!Files.exists(marker)) return new Marker(0, 0, 0);
+        try {
+            String[] fields = Files.readString(marker, StandardCharsets.US_ASCII).trim().split(" ");
+            return new Marker(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Long.parseLong(fields[2]));
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("marcador inválido: " + marker.getFileName(), e);
+        }
+    }
+
+    private void writeMarker(LocalDate date, Marker marker) throws IOException {
+        Path path = markerPath(date);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        String content = marker.covered + " " + marker.pending + " " + marker.events;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(content.getBytes(StandardCharsets.US_ASCII)));
+            out.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        SeriesFileManager.syncDirectory(directory);
+    }
+
+    private Path markerPath(LocalDate date) {
+        return directory.resolve(date + MARKER_SUFFIX);
+    }
+
+    /**
+     * Writes and forces what is still buffered, then stops the writer and closes the active segment.
+     *
+     * @throws IOException if the last records cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        ioLock.lock();
+        try {
+            lock.lock();
+            try {
+                if (closed) return;
+                closed = true;
+                hasPending.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            drain(true);
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (failure != null) throw new IOException("Registo de escrita indisponível", failure);
+        if (closed) throw new IOException("Registo de escrita fechado");
+        if (writer == null) throw new IOException("Registo de escrita sem segmento ativo");
+    }
+
+    private void startWriter() {
+        lock.lock();
+        try {
+            if (writer != null) return;
+            writer = new Thread(this::writeLoop, "wal-writer");
+            writer.setDaemon(true);
+            writer.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Body of the writer thread: waits for records and writes everything buffered in one go.
+     * Under PERIODIC, a write is only forced if the last force is a whole period old; otherwise
+     * the thread forces the log once the period ends, unless another write does it first.
+     */
+    private void writeLoop() {
+        long periodNanos = PERIODIC_SYNC_MILLIS * 1_000_000L;
+        long lastForce = System.nanoTime();
+        boolean unforced = false;
+
+        while (true) {
+            lock.lock();
+            try {
+                while (pending.size() == 0 && !closed && failure == null) {
+                    if (!unforced) {
+                        hasPending.awaitUninterruptibly();
+                        continue;
+                    }
+                    long wait = periodNanos - (System.nanoTime() - lastForce);
+                    if (wait <= 0) break;
+                    hasPending.awaitNanos(wait);
+                }
+                if (closed || failure != null) return;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            boolean force = policy == SyncPolicy.ALWAYS
+                    || (policy == SyncPolicy.PERIODIC && System.nanoTime() - lastForce >= periodNanos);
+            ioLock.lock();
+            try {
+                drain(force);
+            } catch (IOException e) {
+                System.err.println("ERRO CRÍTICO: falha ao escrever o registo de vendas: " + e.getMessage());
+                return;
+            } finally {
+                ioLock.unlock();
+            }
+
+            if (force) {
+                lastForce = System.nanoTime();
+                unforced = false;
+            } else if (policy == SyncPolicy.PERIODIC) {
+                unforced = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered records to the active segment and optionally forces them.
+     * Called with ioLock held. A failure is kept, so later appends and waits report it.
+     */
+    private void drain(boolean force) throws IOException {
+        RecordBuffer batch;
+        long upTo;
+        lock.lock();
+        try {
+            if (failure != null) throw failure;
+            batch = pending;
+            pending = spare;
+            spare = batch;
+            upTo = appended;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            if (batch.size() > 0 && channel == null) {
+                throw new IOException("Registo de escrita sem segmento ativo");
+            }
+            if (channel != null) {
+                ByteBuffer bytes = batch.asByteBuffer();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                if (force) channel.force(false);
+            }
+            batch.reset();
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                failure = e;
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+
+        lock.lock();
+        try {
+            durable = Math.max(durable, upTo);
+            synced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static byte[] encode(SalesEvent event) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(32);
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        LocalDateTime date = event.getDate();
+        payload.writeUTF(event.getName());
+        payload.writeInt(event.getQuantity());
+        payload.writeDouble(event.getPrice());
+        payload.writeLong(date.toEpochSecond(ZoneOffset.UTC));
+        payload.writeInt(date.getNano());
+
+        byte[] bytes = payloadBytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ByteBuffer record = ByteBuffer.allocate(4 + bytes.length + 4);
+        record.putInt(bytes.length).put(bytes).putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    private static SalesEvent decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String name = in.readUTF();
+        int quantity = in.readInt();
+        double price = in.readDouble();
+        LocalDateTime date = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+        return new SalesEvent(name, quantity, price, date);
+    }
+
+    /**
+     * Lists the segment files, ignoring names that do not parse, oldest first.
+     */
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : stream) {
+                try {
+                    dateOf(entry);
+                    indexOf(entry);
+                    segments.add(entry);
+                } catch (DateTimeParseException | NumberFormatException | IndexOutOfBoundsException e) {
+                    // Ignores poorly formatted files
+                }
+            }
+        }
+        segments.sort(Comparator.comparingInt(WriteAheadLog::indexOf));
+        return segments;
+    }
+
+    private static LocalDate dateOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return LocalDate.parse(name.substring(0, name.indexOf('.')));
+    }
+
+    private static int indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(name.indexOf('.') + 1, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Byte buffer whose content can be written to a channel without copying it.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(64 * 1024);
+        }
+
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package sd.server;
+
+import sd.series.SeriesFileManager;
+import sd.series.TimeSeries;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind persistence of TimeSeries, so that cache operations never wait for the disk.
+ *
+ * Saves are queued per date and written by a dedicated flusher thread in arrival order.
+ * A save requested for a date that is already queued replaces the queued one (coalescing),
+ * keeping its place in the queue. Queuing never blocks, so it may be done with locks held.
+ * Back-pressure is applied separately by {@link #awaitCapacity()}, which callers invoke once they
+ * hold no lock: it waits while more than {@code capacity} dates are queued, which bounds the
+ * memory held by evicted series.
+ *
+ * A queued series stays visible through {@link #pending(LocalDate)} until it is on disk, so the
+ * cache can reload it from here instead of reading a stale file. A failed save is logged and moved
+ * to the back of the queue, to be retried after a growing delay, so the other dates keep draining.
+ * While saves fail there is no point in waiting for the flusher: {@link #awaitCapacity()} returns
+ * at once and the unsaved series stay in memory, and {@link #flush()} gives up on the dates that
+ * already failed.
+ */
+class WriteBehindQueue {
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 60_000;
+
+    private final SeriesFileManager fileManager;
+    private final int capacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // Signalled after every save attempt, successful or not
+    private final Condition attempted = lock.newCondition();
+
+    // Queued saves in arrival order; an entry is only removed once its latest version is on disk
+    private final LinkedHashMap<LocalDate, Pending> queue = new LinkedHashMap<>();
+    private long nextVersion = 0;
+    // Size of the queue, readable without the lock
+    private volatile int size = 0;
+    // Set when a save fails, cleared by the next one that succeeds
+    private boolean failing = false;
+
+    /**
+     * A queued save. The version tells whether the entry was replaced while it was being written.
+     */
+    private static final class Pending {
+        final TimeSeries series;
+        final long version;
+        // Run once this version (or a later one that replaced it) is on disk
+        final List<Runnable> onSaved = new ArrayList<>();
+        // Failed attempts at saving this version, and when the next one may start (System.nanoTime)
+        int failures = 0;
+        long retryAt = 0;
+
+        Pending(TimeSeries series, long version) {
+            this.series = series;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Creates the queue and starts its flusher thread.
+     *
+     * @param fileManager the file manager used to write the series
+     * @param capacity    the number of distinct dates that may be queued before callers block
+     */
+    WriteBehindQueue(SeriesFileManager fileManager, int capacity) {
+        this.fileManager = fileManager;
+        this.capacity = capacity;
+
+        Thread flusher = new Thread(this::flushLoop, "series-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queues a series to be saved, replacing any save already queued for the same date.
+     *
+     * @param date   the date of the series
+     * @param series the series to save
+     */
+    void enqueue(LocalDate date, TimeSeries series) {
+        enqueue(date, series, null);
+    }
+
+    /**
+     * Queues a series to be saved and registers an action to run once it is on disk.
+     * If a newer save of the same date replaces this one, the action waits for that save instead.
+     * Actions run on the flusher thread.
+     *
+     * @param date    the date of the series
+     * @param series  the series to save
+     * @param onSaved the action to run after the save, or null
+     */
+    void enqueue(LocalDate date, TimeSeries series, Runnable onSaved) {
+        lock.lock();
+        try {
+            Pending p = new Pending(series, nextVersion++);
+            Pending replaced = queue.put(date, p);
+            if (replaced != null) p.onSaved.addAll(replaced.onSaved);
+            if (onSaved != null) p.onSaved.add(onSaved);
+            size = queue.size();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits while more than {@code capacity} dates are queued, unless saves are failing.
+     * Must be called without holding any lock, so that a slow disk only slows down the caller.
+     * Takes no lock while the queue is below capacity.
+     */
+    void awaitCapacity() {
+        if (size <= capacity) return;
+        lock.lock();
+        try {
+            while (queue.size() > capacity && !failing) {
+                notFull.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the series queued for a date, if it has not reached the disk yet.
+     *
+     * @param date the date
+     * @return the queued series, or null if nothing is pending for that date
+     */
+    TimeSeries pending(LocalDate date) {
+        lock.lock();
+        try {
+            Pending p = queue.get(date);
+            return (p != null) ? p.series : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every queued save, including those queued by other threads meanwhile, is on disk
+     * or has failed at least once. Failed saves stay queued and keep being retried.
+     *
+     * @return the dates whose save failed and is still pending, empty if everything is on disk
+     * @throws InterruptedException if interrupted while waiting
+     */
+    List<LocalDate> flush() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                List<LocalDate> failed = new ArrayList<>();
+                for (Map.Entry<LocalDate, Pending> entry : queue.entrySet()) {
+                    if (entry.getValue().failures == 0) {
+                        failed = null;
+                        break;
+                    }
+                    failed.add(entry.getKey());
+                }
+                if (failed != null) return failed;
+                attempted.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Body of the flusher thread: writes the oldest queued save that is not waiting for a retry, forever.
+     */
+    private void flushLoop() {
+        while (true) {
+            LocalDate date = null;
+            Pending p = null;
+
+            lock.lock();
+            try {
+                while (p == null) {
+                    long now = System.nanoTime();
+                    long wait = Long.MAX_VALUE;
+                    for (Map.Entry<LocalDate, Pending> entry : queue.entrySet()) {
+                        long delay = entry.getValue().retryAt - now;
+                        if (delay <= 0) {
+                            date = entry.getKey();
+                            p = entry.getValue();
+                            break;
+                        }
+                        wait = Math.min(wait, delay);
+                    }
+                    if (p != null) break;
+                    if (wait == Long.MAX_VALUE) {
+                        notEmpty.awaitUninterruptibly();
+                    } else {
+                        try {
+                            notEmpty.awaitNanos(wait);
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            boolean saved = false;
+            long retryDelay = Math.min(RETRY_DELAY_MS << Math.min(p.failures, 16), MAX_RETRY_DELAY_MS);
+            try {
+                fileManager.saveTimeSeries(p.series, date);
+                saved = true;
+            } catch (IOException e) {
+                System.err.println("ERRO CRÍTICO: Não foi possível persistir série " + date + ": " + e.getMessage());
+                System.err.println("⚠️  Série mantida na fila de escrita, nova tentativa em " + retryDelay + " ms.");
+            }
+
+            List<Runnable> onSaved = List.of();
+            lock.lock();
+            try {
+                failing = !saved;
+                // If the date was queued again meanwhile, the newer version is still pending
+                Pending current = queue.get(date);
+                if (current != null && current.version == p.version) {
+                    queue.remove(date);
+                    if (saved) {
+                        onSaved = current.onSaved;
+                    } else {
+                        // Retried from the back of the queue, so the other dates are not held up
+                        current.failures++;
+                        current.retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelay);
+                        queue.put(date, current);
+                    }
+                    size = queue.size();
+                }
+                // Wakes writers up both when there is room and when saves start failing
+                notFull.signalAll();
+                attempted.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            onSaved.forEach(Runnable::run);
+        }
+    }
+}